@@ -86,33 +86,46 @@ public record MicaViewV1(@ValidName String name,
             Optional<List<String>> dropProperties,
             Optional<Map<String, JsonNode>> map,
             Optional<JsonNode> template,
-            Optional<String> js) implements ViewLike.Data {
+            Optional<String> js,
+            Optional<Boolean> parallel) implements ViewLike.Data {
 
         public static Data jsonPath(String jsonPath) {
             return new Data(TextNode.valueOf(jsonPath), Optional.empty(), Optional.empty(), Optional.empty(),
-                    Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+                    Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(),
+                    Optional.empty());
         }
 
         public static Data jsonPaths(ObjectMapper objectMapper, String... jsonPaths) {
             var jsonPath = objectMapper.convertValue(requireNonNull(jsonPaths), ArrayNode.class);
             return new Data(jsonPath, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(),
-                    Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+                    Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+        }
+
+        public Data withJsonPatch(JsonNode jsonPatch) {
+            return new Data(this.jsonPath, Optional.of(jsonPatch), this.flatten, this.merge, this.mergeBy,
+                    this.dropProperties, this.map, this.template, this.js, this.parallel);
         }
 
         public Data withMerge() {
             return new Data(this.jsonPath, this.jsonPatch, this.flatten, Optional.of(true), this.mergeBy,
-                    this.dropProperties, this.map, this.template, this.js);
+                    this.dropProperties, this.map, this.template, this.js, this.parallel);
         }
 
         public Data withMergeBy(String mergeBy) {
             return new Data(this.jsonPath, this.jsonPatch, this.flatten, this.merge,
-                    Optional.of(TextNode.valueOf(mergeBy)), this.dropProperties, this.map, this.template, this.js);
+                    Optional.of(TextNode.valueOf(mergeBy)), this.dropProperties, this.map, this.template, this.js,
+                    this.parallel);
 
         }
 
         public Data withDropProperties(List<String> dropProperties) {
             return new Data(this.jsonPath, this.jsonPatch, this.flatten, this.merge, Optional.empty(),
-                    Optional.of(dropProperties), this.map, this.template, this.js);
+                    Optional.of(dropProperties), this.map, this.template, this.js, this.parallel);
+        }
+
+        public Data withParallel() {
+            return new Data(this.jsonPath, this.jsonPatch, this.flatten, this.merge, this.mergeBy,
+                    this.dropProperties, this.map, this.template, this.js, Optional.of(true));
         }
     }
 
@@ -125,7 +138,9 @@ public record MicaViewV1(@ValidName String name,
     }
 
     public record Caching(@NotNull Optional<String> enabled,
-            @NotNull Optional<String> ttl) implements ViewLike.Caching {
+            @NotNull Optional<String> ttl,
+            @NotNull Optional<String> staleWhileRevalidate,
+            @NotNull Optional<String> prewarm) implements ViewLike.Caching {
     }
 
     public PartialEntity toPartialEntity(ObjectMapper objectMapper) {
@@ -135,6 +150,8 @@ public record MicaViewV1(@ValidName String name,
         props.put("selector", objectMapper.convertValue(this.selector, JsonNode.class));
         props.put("data", objectMapper.convertValue(this.data, JsonNode.class));
         props.put("validation", objectMapper.convertValue(this.validation, JsonNode.class));
+        this.caching.ifPresent(caching -> props.put("caching",
+                objectMapper.convertValue(caching, JsonNode.class)));
         return PartialEntity.create(this.name, MICA_VIEW_V1, props);
     }
 
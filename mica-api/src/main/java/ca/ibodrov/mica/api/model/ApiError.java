@@ -50,6 +50,10 @@ public record ApiError(@NotEmpty String type, @NotEmpty String message, Optional
         return new ApiError("internal-error", message, Optional.empty());
     }
 
+    public static ApiError serviceUnavailable(String message) {
+        return new ApiError("service-unavailable", message, Optional.empty());
+    }
+
     public static ApiError unauthorized(String message) {
         return new ApiError("unauthorized", message, Optional.empty());
     }
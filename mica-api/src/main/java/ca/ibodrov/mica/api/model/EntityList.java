@@ -20,7 +20,17 @@ package ca.ibodrov.mica.api.model;
  * ======
  */
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
+import java.util.Optional;
+
+import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_ABSENT;
+
+@JsonInclude(NON_ABSENT)
+public record EntityList(List<EntityMetadata> data, Optional<String> next) {
 
-public record EntityList(List<EntityMetadata> data) {
+    public EntityList(List<EntityMetadata> data) {
+        this(data, Optional.empty());
+    }
 }
@@ -0,0 +1,36 @@
+package ca.ibodrov.mica.api.model;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+public record MaterializeViewResult(int inserted,
+        int updated,
+        int unchanged,
+        @NotNull List<EntityVersion> changedEntities) {
+
+    public MaterializeViewResult {
+        requireNonNull(changedEntities);
+    }
+}
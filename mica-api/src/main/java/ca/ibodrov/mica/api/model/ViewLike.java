@@ -68,6 +68,8 @@ public interface ViewLike {
         Optional<JsonNode> template();
 
         Optional<String> js();
+
+        Optional<Boolean> parallel();
     }
 
     interface Validation {
@@ -80,5 +82,9 @@ public interface ViewLike {
         Optional<String> enabled();
 
         Optional<String> ttl();
+
+        Optional<String> staleWhileRevalidate();
+
+        Optional<String> prewarm();
     }
 }
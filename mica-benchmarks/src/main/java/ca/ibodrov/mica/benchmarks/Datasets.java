@@ -0,0 +1,134 @@
+package ca.ibodrov.mica.benchmarks;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.PartialEntity;
+import ca.ibodrov.mica.api.model.ViewLike;
+import ca.ibodrov.mica.server.YamlMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static ca.ibodrov.mica.server.data.BuiltinSchemas.asViewLike;
+
+/**
+ * Generated datasets and helpers shared by the benchmarks.
+ */
+public final class Datasets {
+
+    public static final String ENTITY_KIND = "/benchmarks/client/v1";
+
+    private static final String[] STATUSES = { "active", "suspended", "closed" };
+    private static final String[] COUNTRIES = { "CA", "US", "MX", "DE", "JP" };
+
+    public static ObjectMapper objectMapper() {
+        return JsonMapper.builder()
+                .addModule(new Jdk8Module())
+                .addModule(new JavaTimeModule())
+                .build();
+    }
+
+    /**
+     * Generates {@code count} client entities. Each entity has a few top-level
+     * fields, nested objects (3 levels deep) and arrays of objects. The result is
+     * deterministic for the same {@code count}.
+     */
+    public static List<PartialEntity> clients(ObjectMapper objectMapper, int count) {
+        var random = new Random(count);
+        return IntStream.range(0, count)
+                .mapToObj(i -> client(objectMapper, random, i))
+                .toList();
+    }
+
+    /**
+     * Returns the data of the given entities as a list of JSON objects (the same
+     * shape the renderer works with).
+     */
+    public static List<JsonNode> asJson(ObjectMapper objectMapper, List<PartialEntity> entities) {
+        return entities.stream()
+                .map(entity -> (JsonNode) objectMapper.convertValue(entity, JsonNode.class))
+                .toList();
+    }
+
+    public static ViewLike parseView(ObjectMapper objectMapper, String yaml) {
+        try {
+            var entity = new YamlMapper(objectMapper).readValue(yaml, PartialEntity.class);
+            return asViewLike(objectMapper, entity);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static PartialEntity client(ObjectMapper objectMapper, Random random, int i) {
+        var address = objectMapper.createObjectNode()
+                .put("street", (100 + random.nextInt(900)) + " Main St")
+                .put("city", "City " + random.nextInt(100))
+                .put("country", COUNTRIES[random.nextInt(COUNTRIES.length)])
+                .put("zip", String.format("%05d", random.nextInt(100000)));
+
+        var contacts = objectMapper.createArrayNode();
+        contacts.addObject().put("type", "email").put("value", "client" + i + "@example.com");
+        contacts.addObject().put("type", "phone").put("value", "+1-555-" + String.format("%04d", i % 10000));
+
+        var tags = objectMapper.createArrayNode();
+        IntStream.range(0, 1 + random.nextInt(5)).forEach(t -> tags.add("tag-" + random.nextInt(20)));
+
+        var settings = objectMapper.createObjectNode();
+        var limits = settings.putObject("limits");
+        limits.put("requestsPerMinute", 60 * (1 + random.nextInt(10)));
+        limits.putObject("storage").put("quotaMb", 1024 * (1 + random.nextInt(8))).put("softLimit", true);
+        settings.putObject("features")
+                .put("sso", random.nextBoolean())
+                .put("audit", random.nextBoolean())
+                .put("beta", random.nextBoolean());
+
+        var client = objectMapper.createObjectNode()
+                .put("id", i)
+                .put("name", "Client " + i)
+                .put("status", STATUSES[random.nextInt(STATUSES.length)])
+                .put("revenue", random.nextInt(1_000_000) / 100.0);
+        client.set("address", address);
+        client.set("contacts", contacts);
+        client.set("tags", tags);
+        client.set("settings", settings);
+
+        return PartialEntity.create("/benchmarks/clients/client-" + i, ENTITY_KIND,
+                Map.of("client", client, "region", region(objectMapper, i)));
+    }
+
+    private static ObjectNode region(ObjectMapper objectMapper, int i) {
+        return objectMapper.createObjectNode()
+                .put("code", "region-" + (i % 16))
+                .put("primary", i % 2 == 0);
+    }
+
+    private Datasets() {
+    }
+}
@@ -0,0 +1,66 @@
+package ca.ibodrov.mica.benchmarks;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.server.data.js.GraalJsEvaluator;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates a typical {@code data.js} snippet over the dataset. The dataset
+ * sizes are smaller than in the other benchmarks because of the statement limit
+ * applied to scripts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraalJsEvaluatorBenchmark {
+
+    private static final String SCRIPT = """
+            _input
+                .filter(row => row.client.status === 'active')
+                .map(row => ({ id: row.client.id, city: row.client.address.city }))
+            """;
+
+    @Param({ "10", "100", "1000" })
+    public int entityCount;
+
+    private GraalJsEvaluator evaluator;
+    private List<JsonNode> data;
+
+    @Setup
+    public void setUp() {
+        var objectMapper = Datasets.objectMapper();
+        evaluator = new GraalJsEvaluator(objectMapper);
+        data = Datasets.asJson(objectMapper, Datasets.clients(objectMapper, entityCount));
+    }
+
+    @Benchmark
+    public List<JsonNode> eval() {
+        return evaluator.eval(SCRIPT, data);
+    }
+}
@@ -0,0 +1,75 @@
+package ca.ibodrov.mica.benchmarks;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.server.data.JsonPathEvaluator;
+import ca.ibodrov.mica.server.data.JsonPathEvaluator.CompiledJsonPath;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies JSON path expressions of different complexity to every entity in the
+ * dataset, using both pre-compiled and ad-hoc expressions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonPathEvaluatorBenchmark {
+
+    @Param({ "10", "1000", "10000", "100000" })
+    public int entityCount;
+
+    @Param({ "$.client.id", "$.client.contacts[*].value", "$.client.contacts[?(@.type == 'email')]", "$..quotaMb" })
+    public String expression;
+
+    private List<JsonNode> entities;
+    private JsonPathEvaluator evaluator;
+    private CompiledJsonPath compiled;
+
+    @Setup
+    public void setUp() {
+        var objectMapper = Datasets.objectMapper();
+        entities = Datasets.asJson(objectMapper, Datasets.clients(objectMapper, entityCount));
+        evaluator = new JsonPathEvaluator(objectMapper);
+        compiled = evaluator.compile(expression);
+    }
+
+    @Benchmark
+    public void applyCompiled(Blackhole blackhole) {
+        for (var entity : entities) {
+            blackhole.consume(evaluator.apply(entity, compiled));
+        }
+    }
+
+    @Benchmark
+    public void applyString(Blackhole blackhole) {
+        for (var entity : entities) {
+            blackhole.consume(evaluator.apply(entity, expression));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ca.ibodrov.mica.benchmarks;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.ViewLike;
+import ca.ibodrov.mica.server.data.Validator.NoopSchemaFetcher;
+import ca.ibodrov.mica.server.data.ViewInterpolator;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpolates a parametrized view, including the validation of the
+ * parameters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ViewInterpolatorBenchmark {
+
+    private ViewInterpolator interpolator;
+    private ViewLike view;
+    private JsonNode parameters;
+
+    @Setup
+    public void setUp() {
+        var objectMapper = Datasets.objectMapper();
+        interpolator = new ViewInterpolator(objectMapper, new NoopSchemaFetcher());
+
+        view = Datasets.parseView(objectMapper, """
+                kind: /mica/view/v1
+                name: /benchmarks/parametrized-view
+                parameters:
+                  properties:
+                    region:
+                      type: string
+                    status:
+                      type: string
+                selector:
+                  includes:
+                    - mica://internal
+                  entityKind: /benchmarks/${parameters.region}/client/v1
+                  namePatterns:
+                    - /benchmarks/${parameters.region}/.*
+                    - /benchmarks/shared/.*
+                data:
+                  jsonPath:
+                    - $.client[?(@.status == '${parameters.status}')]
+                    - $.address
+                  flatten: true
+                validation:
+                  asEntityKind: /benchmarks/${parameters.region}/result/v1
+                """);
+
+        parameters = objectMapper.createObjectNode()
+                .put("region", "region-1")
+                .put("status", "active");
+    }
+
+    @Benchmark
+    public ViewLike interpolate() {
+        return interpolator.interpolate(view, parameters);
+    }
+}
@@ -0,0 +1,183 @@
+package ca.ibodrov.mica.benchmarks;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.PartialEntity;
+import ca.ibodrov.mica.server.data.CompiledView;
+import ca.ibodrov.mica.server.data.JsonPathEvaluator;
+import ca.ibodrov.mica.server.data.RenderedView;
+import ca.ibodrov.mica.server.data.ViewRenderer;
+import ca.ibodrov.mica.server.data.ViewRenderer.RenderOverrides;
+import ca.ibodrov.mica.server.data.js.NoopJsEvaluator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static ca.ibodrov.mica.benchmarks.Datasets.ENTITY_KIND;
+
+/**
+ * Renders pre-compiled views over generated datasets. Each benchmark exercises
+ * one stage of the render pipeline on top of a plain {@code jsonPath}
+ * selection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ViewRendererBenchmark {
+
+    @Param({ "10", "1000", "10000", "100000" })
+    public int entityCount;
+
+    private List<PartialEntity> entities;
+    private ViewRenderer renderer;
+    private CompiledView jsonPathView;
+    private CompiledView flattenView;
+    private CompiledView mergeView;
+    private CompiledView mergeByView;
+    private CompiledView jsonPatchView;
+    private CompiledView mapView;
+    private CompiledView templateView;
+
+    @Setup
+    public void setUp() {
+        var objectMapper = Datasets.objectMapper();
+        entities = Datasets.clients(objectMapper, entityCount);
+        renderer = new ViewRenderer(new JsonPathEvaluator(objectMapper), new NoopJsEvaluator(), objectMapper);
+
+        jsonPathView = compile(objectMapper, """
+                data:
+                  jsonPath: $.client
+                """);
+
+        flattenView = compile(objectMapper, """
+                data:
+                  jsonPath: $.client.contacts
+                  flatten: true
+                """);
+
+        mergeView = compile(objectMapper, """
+                data:
+                  jsonPath: $.client.settings
+                  merge: true
+                """);
+
+        mergeByView = compile(objectMapper, """
+                data:
+                  jsonPath: $
+                  mergeBy: $.region.code
+                """);
+
+        jsonPatchView = compile(objectMapper, """
+                data:
+                  jsonPath: $.client
+                  jsonPatch:
+                    - op: replace
+                      path: /status
+                      value: archived
+                    - op: add
+                      path: /settings/features/patched
+                      value: true
+                    - op: remove
+                      path: /tags
+                """);
+
+        mapView = compile(objectMapper, """
+                data:
+                  jsonPath: $.client
+                  map:
+                    id: $.id
+                    country: $.address.country
+                    quota: $.settings.limits.storage.quotaMb
+                """);
+
+        templateView = compile(objectMapper, """
+                data:
+                  jsonPath: $.client
+                  template:
+                    id: $.id
+                    location:
+                      city: $.address.city
+                      country: $.address.country
+                    features: $.settings.features
+                """);
+    }
+
+    @Benchmark
+    public RenderedView jsonPath() {
+        return render(jsonPathView);
+    }
+
+    @Benchmark
+    public RenderedView flatten() {
+        return render(flattenView);
+    }
+
+    @Benchmark
+    public RenderedView merge() {
+        return render(mergeView);
+    }
+
+    @Benchmark
+    public RenderedView mergeBy() {
+        return render(mergeByView);
+    }
+
+    @Benchmark
+    public RenderedView jsonPatch() {
+        return render(jsonPatchView);
+    }
+
+    @Benchmark
+    public RenderedView map() {
+        return render(mapView);
+    }
+
+    @Benchmark
+    public RenderedView template() {
+        return render(templateView);
+    }
+
+    @Benchmark
+    public void templateStream(Blackhole blackhole) {
+        renderer.renderStream(templateView, RenderOverrides.none(), entities.stream())
+                .forEach(blackhole::consume);
+    }
+
+    private RenderedView render(CompiledView view) {
+        return renderer.render(view, RenderOverrides.none(), entities.stream());
+    }
+
+    private CompiledView compile(ObjectMapper objectMapper, String data) {
+        var view = Datasets.parseView(objectMapper, """
+                kind: /mica/view/v1
+                name: /benchmarks/view
+                selector:
+                  entityKind: %s
+                """.formatted(ENTITY_KIND) + data);
+        return renderer.compile(view);
+    }
+}
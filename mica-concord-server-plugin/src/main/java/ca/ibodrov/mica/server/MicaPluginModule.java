@@ -33,6 +33,7 @@ import ca.ibodrov.mica.server.data.s3.S3ClientManager;
 import ca.ibodrov.mica.server.data.s3.S3CredentialsProvider;
 import ca.ibodrov.mica.server.data.s3.S3EntityFetcher;
 import ca.ibodrov.mica.server.data.viewRenderHistory.ViewRenderHistoryCleaner;
+import ca.ibodrov.mica.server.data.viewRenderHistory.ViewRenderHistoryController;
 import ca.ibodrov.mica.server.data.viewRenderHistory.ViewRenderHistoryEntityFetcher;
 import ca.ibodrov.mica.server.exceptions.DataAccessExceptionMapper;
 import ca.ibodrov.mica.server.exceptions.StoreExceptionExceptionMapper;
@@ -46,6 +47,7 @@ import com.typesafe.config.Config;
 import com.walmartlabs.concord.config.ConfigModule;
 import com.walmartlabs.concord.server.boot.FilterChainConfigurator;
 import com.walmartlabs.concord.server.boot.filters.AuthenticationHandler;
+import com.walmartlabs.concord.server.sdk.BackgroundTask;
 import com.walmartlabs.concord.server.sdk.ScheduledTask;
 import com.walmartlabs.concord.server.sdk.rest.Component;
 
@@ -138,22 +140,34 @@ public class MicaPluginModule implements Module {
         newSetBinder(binder, EntityFetcher.class).addBinding().to(ViewRenderHistoryEntityFetcher.class);
         binder.bind(EntityFetchers.class).in(SINGLETON);
 
+        // entity change listeners
+
+        newSetBinder(binder, EntityChangeListener.class).addBinding().to(ViewCache.class);
+        newSetBinder(binder, EntityChangeListener.class).addBinding().to(ViewCacheStore.class);
+
         // tasks
 
+        newSetBinder(binder, BackgroundTask.class).addBinding().to(ViewRenderHistoryController.class);
         newSetBinder(binder, ScheduledTask.class).addBinding().to(EntityHistoryCleaner.class);
+        newSetBinder(binder, ScheduledTask.class).addBinding().to(ViewCacheCleaner.class);
+        newSetBinder(binder, ScheduledTask.class).addBinding().to(ViewPrewarmer.class);
         newSetBinder(binder, ScheduledTask.class).addBinding().to(ViewRenderHistoryCleaner.class);
 
         // other beans
 
         binder.bind(BuiltinSchemas.class).in(SINGLETON);
+        binder.bind(EntityCache.class).to(EntityCache.InMemoryEntityCache.class).in(SINGLETON);
         binder.bind(EntityKindStore.class).in(SINGLETON);
         binder.bind(EntityStore.class).in(SINGLETON);
-        binder.bind(JsEvaluator.class).to(GraalJsEvaluator.class);
+        binder.bind(JsEvaluator.class).to(GraalJsEvaluator.class).in(SINGLETON);
         binder.bind(JsonPathEvaluator.class).in(SINGLETON);
         binder.bind(S3ClientManager.class).in(SINGLETON);
         binder.bind(S3CredentialsProvider.class).to(ConcordSecretS3CredentialsProvider.class);
         binder.bind(UuidGenerator.class).in(SINGLETON);
-        binder.bind(ViewCache.class).toInstance(ViewCache.inMemory());
+        binder.bind(ViewCache.class).to(ViewCache.InMemoryViewCache.class).in(SINGLETON);
+        binder.bind(ViewCacheStore.class).in(SINGLETON);
+        binder.bind(ViewController.class).in(SINGLETON);
+        binder.bind(ViewRenderHistoryController.class).in(SINGLETON);
 
         binder.bind(InitialDataLoader.class).asEagerSingleton();
     }
@@ -24,12 +24,14 @@ import ca.ibodrov.mica.api.model.*;
 import ca.ibodrov.mica.server.YamlMapper;
 import ca.ibodrov.mica.server.data.EntityController;
 import ca.ibodrov.mica.server.data.EntityStore;
+import ca.ibodrov.mica.server.data.EntityStore.ContinuationToken;
 import ca.ibodrov.mica.server.data.EntityStore.ListEntitiesRequest;
 import ca.ibodrov.mica.server.exceptions.ApiException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.walmartlabs.concord.server.sdk.rest.Resource;
 import com.walmartlabs.concord.server.security.UserPrincipal;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.jooq.Delete;
 import org.slf4j.Logger;
@@ -40,11 +42,17 @@ import javax.inject.Inject;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static ca.ibodrov.mica.server.api.ApiUtils.nonBlank;
 import static ca.ibodrov.mica.server.api.ApiUtils.parseIsoAsInstant;
+import static com.fasterxml.jackson.core.JsonGenerator.Feature.AUTO_CLOSE_TARGET;
 import static java.util.Objects.requireNonNull;
 import static javax.ws.rs.core.HttpHeaders.CONTENT_DISPOSITION;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
@@ -58,6 +66,7 @@ public class EntityResource implements Resource {
 
     private final EntityStore entityStore;
     private final EntityController entityController;
+    private final ObjectMapper objectMapper;
     private final YamlMapper yamlMapper;
 
     @Inject
@@ -67,25 +76,76 @@ public class EntityResource implements Resource {
 
         this.entityStore = requireNonNull(entityStore);
         this.entityController = requireNonNull(entityController);
+        this.objectMapper = requireNonNull(objectMapper);
         this.yamlMapper = new YamlMapper(objectMapper);
     }
 
     @GET
-    @Operation(summary = "List known entities", operationId = "listEntities")
+    @Operation(summary = "List known entities", description = "Use 'limit' and the returned 'next' token to fetch large lists page by page", operationId = "listEntities")
     public EntityList listEntities(@Nullable @QueryParam("search") String search,
                                    @Nullable @QueryParam("entityNameStartsWith") String entityNameStartsWith,
                                    @Nullable @QueryParam("entityName") String entityName,
                                    @Nullable @QueryParam("entityKind") String entityKind,
-                                   @Nullable @QueryParam("orderBy") OrderBy orderBy) {
+                                   @Nullable @QueryParam("orderBy") OrderBy orderBy,
+                                   @Parameter(description = "Max number of entities per page (sorted by name)") @QueryParam("limit") @DefaultValue("-1") int limit,
+                                   @Parameter(description = "Continuation token returned with the previous page") @Nullable @QueryParam("next") String next) {
 
-        // TODO validate entityName and entityKind, use @ValidName
-        var request = new ListEntitiesRequest(nonBlank(search),
-                nonBlank(entityNameStartsWith),
-                nonBlank(entityName),
-                nonBlank(entityKind),
-                orderBy);
+        var request = toListEntitiesRequest(search, entityNameStartsWith, entityName, entityKind, orderBy, limit, next);
         var data = entityStore.search(request);
-        return new EntityList(data);
+        if (limit > 0 && data.size() > limit) {
+            // one extra row was fetched to find out if there are more pages
+            data = data.subList(0, limit);
+            var nextToken = ContinuationToken.after(data.get(limit - 1)).encode();
+            return new EntityList(data, Optional.of(nextToken));
+        }
+        return new EntityList(data, Optional.empty());
+    }
+
+    @GET
+    @Path("stream")
+    @Operation(summary = "List known entities, streaming the result", description = "Same as listEntities, but the rows are written as soon as each page is fetched from the database", operationId = "listEntitiesStream")
+    public Response listEntitiesStream(@Nullable @QueryParam("search") String search,
+                                       @Nullable @QueryParam("entityNameStartsWith") String entityNameStartsWith,
+                                       @Nullable @QueryParam("entityName") String entityName,
+                                       @Nullable @QueryParam("entityKind") String entityKind,
+                                       @Nullable @QueryParam("orderBy") OrderBy orderBy,
+                                       @Parameter(description = "Max number of entities per page (sorted by name)") @QueryParam("limit") @DefaultValue("-1") int limit,
+                                       @Parameter(description = "Continuation token returned with the previous page") @Nullable @QueryParam("next") String next) {
+
+        var request = toListEntitiesRequest(search, entityNameStartsWith, entityName, entityKind, orderBy, limit, next);
+        StreamingOutput output = out -> {
+            try (var generator = objectMapper.createGenerator(out)) {
+                generator.disable(AUTO_CLOSE_TARGET);
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("data");
+                var count = new AtomicInteger();
+                var last = new AtomicReference<EntityMetadata>();
+                try {
+                    entityStore.search(request, entity -> {
+                        if (limit > 0 && count.get() >= limit) {
+                            // the extra row, there are more pages
+                            count.incrementAndGet();
+                            return;
+                        }
+                        try {
+                            generator.writeObject(entity);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        count.incrementAndGet();
+                        last.set(entity);
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                generator.writeEndArray();
+                if (limit > 0 && count.get() > limit) {
+                    generator.writeStringField("next", ContinuationToken.after(last.get()).encode());
+                }
+                generator.writeEndObject();
+            }
+        };
+        return Response.ok(output, APPLICATION_JSON).build();
     }
 
     @GET
@@ -164,4 +224,32 @@ public class EntityResource implements Resource {
         return entityController.deleteById(session, new EntityId(entityId))
                 .orElseThrow(() -> ApiException.notFound("Entity not found: " + entityId));
     }
+
+    private static ListEntitiesRequest toListEntitiesRequest(@Nullable String search,
+                                                             @Nullable String entityNameStartsWith,
+                                                             @Nullable String entityName,
+                                                             @Nullable String entityKind,
+                                                             @Nullable OrderBy orderBy,
+                                                             int limit,
+                                                             @Nullable String next) {
+
+        ContinuationToken after = null;
+        if (nonBlank(next) != null) {
+            try {
+                after = ContinuationToken.decode(next);
+            } catch (IllegalArgumentException e) {
+                throw ApiException.badRequest("Invalid 'next' value: " + next);
+            }
+        }
+
+        // TODO validate entityName and entityKind, use @ValidName
+        return new ListEntitiesRequest(nonBlank(search),
+                nonBlank(entityNameStartsWith),
+                nonBlank(entityName),
+                nonBlank(entityKind),
+                orderBy,
+                // fetch one extra row to find out if there are more pages
+                limit > 0 ? limit + 1 : -1,
+                after);
+    }
 }
@@ -20,12 +20,15 @@ package ca.ibodrov.mica.server.api;
  * ======
  */
 
+import ca.ibodrov.mica.api.model.BulkUploadResult;
 import ca.ibodrov.mica.api.model.EntityVersion;
 import ca.ibodrov.mica.api.model.PartialEntity;
 import ca.ibodrov.mica.server.YamlMapper;
 import ca.ibodrov.mica.server.data.EntityController;
+import ca.ibodrov.mica.server.data.EntityController.EntityDocument;
 import ca.ibodrov.mica.server.data.EntityController.UpdateIf;
 import ca.ibodrov.mica.server.exceptions.ApiException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.exc.InvalidFormatException;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -40,12 +43,21 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import javax.annotation.Nullable;
 import javax.annotation.security.RolesAllowed;
 import javax.inject.Inject;
+import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.Validator;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
@@ -54,8 +66,15 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 @Produces(APPLICATION_JSON)
 public class EntityUploadResource implements Resource {
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String ZIP = "application/zip";
+    private static final int MAX_BULK_UPLOAD_DOCUMENTS = 10_000;
+    private static final long MAX_BULK_UPLOAD_SIZE = 64 * 1024 * 1024;
+    private static final Pattern YAML_DOCUMENT_SEPARATOR = Pattern.compile("(?m)^---[ \\t]*(#.*)?$");
+
     private final EntityController controller;
     private final Validator validator;
+    private final ObjectMapper objectMapper;
     private final YamlMapper yamlMapper;
 
     @Inject
@@ -65,6 +84,7 @@ public class EntityUploadResource implements Resource {
 
         this.controller = requireNonNull(controller);
         this.validator = requireNonNull(validator);
+        this.objectMapper = requireNonNull(objectMapper);
         this.yamlMapper = new YamlMapper(objectMapper);
     }
 
@@ -123,4 +143,163 @@ public class EntityUploadResource implements Resource {
 
         return controller.put(session, entity, doc, overwrite, replace, updateIf);
     }
+
+    @POST
+    @Path("bulk")
+    @Consumes("*/yaml")
+    @Operation(summary = "Upload multiple entities as a multi-document YAML", description = "Entities are matched with the existing ones by name, only new or structurally changed entities are written. All entities are written in a single transaction", operationId = "putBulkYaml")
+    @RolesAllowed({ Roles.ADMIN, Roles.SYSTEM_WRITER })
+    @WithTimer
+    public BulkUploadResult putBulkYaml(@Context UserPrincipal session,
+                                        @Parameter(description = "Ignore 'updatedAt' values in the documents") @QueryParam("overwrite") @DefaultValue("false") boolean overwrite,
+                                        InputStream body) {
+
+        var documents = new ArrayList<EntityDocument>();
+        parseYamlDocuments("request", readBody(body), documents);
+        return putAll(session, documents, overwrite);
+    }
+
+    @POST
+    @Path("bulk")
+    @Consumes(NDJSON)
+    @Operation(summary = "Upload multiple entities as newline-delimited JSON", description = "Same as putBulkYaml, one JSON object per line", operationId = "putBulkNdjson")
+    @RolesAllowed({ Roles.ADMIN, Roles.SYSTEM_WRITER })
+    @WithTimer
+    public BulkUploadResult putBulkNdjson(@Context UserPrincipal session,
+                                          @Parameter(description = "Ignore 'updatedAt' values in the documents") @QueryParam("overwrite") @DefaultValue("false") boolean overwrite,
+                                          InputStream body) {
+
+        var documents = new ArrayList<EntityDocument>();
+        parseNdjson("request", readBody(body), documents);
+        return putAll(session, documents, overwrite);
+    }
+
+    @POST
+    @Path("bulk")
+    @Consumes(ZIP)
+    @Operation(summary = "Upload multiple entities as a ZIP archive", description = "Same as putBulkYaml. The archive can contain *.yaml/*.yml (possibly multi-document), *.json and *.ndjson files, other files are ignored", operationId = "putBulkZip")
+    @RolesAllowed({ Roles.ADMIN, Roles.SYSTEM_WRITER })
+    @WithTimer
+    public BulkUploadResult putBulkZip(@Context UserPrincipal session,
+                                       @Parameter(description = "Ignore 'updatedAt' values in the documents") @QueryParam("overwrite") @DefaultValue("false") boolean overwrite,
+                                       InputStream body) {
+
+        var documents = new ArrayList<EntityDocument>();
+        var totalSize = 0L;
+        try (var zip = new ZipInputStream(body, UTF_8)) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zip.getNextEntry()) != null) {
+                var entryName = zipEntry.getName();
+                if (zipEntry.isDirectory() || !isSupportedFile(entryName)) {
+                    continue;
+                }
+
+                // do not trust the declared entry size, count the actual bytes
+                var bytes = zip.readNBytes((int) (MAX_BULK_UPLOAD_SIZE - totalSize) + 1);
+                totalSize += bytes.length;
+                if (totalSize > MAX_BULK_UPLOAD_SIZE) {
+                    throw ApiException.badRequest("The archive is too large, max uncompressed size is "
+                            + MAX_BULK_UPLOAD_SIZE + " bytes");
+                }
+
+                var content = new String(bytes, UTF_8);
+                if (entryName.endsWith(".json")) {
+                    addDocument(documents, parseJsonDocument(entryName, content));
+                } else if (entryName.endsWith(".ndjson")) {
+                    parseNdjson(entryName, content, documents);
+                } else {
+                    parseYamlDocuments(entryName, content, documents);
+                }
+            }
+        } catch (IOException e) {
+            throw ApiException.badRequest("Error reading ZIP archive: " + e.getMessage());
+        }
+        return putAll(session, documents, overwrite);
+    }
+
+    private static String readBody(InputStream body) {
+        try {
+            var bytes = body.readNBytes((int) MAX_BULK_UPLOAD_SIZE + 1);
+            if (bytes.length > MAX_BULK_UPLOAD_SIZE) {
+                throw ApiException.badRequest("The request is too large, max size is " + MAX_BULK_UPLOAD_SIZE + " bytes");
+            }
+            return new String(bytes, UTF_8);
+        } catch (IOException e) {
+            throw ApiException.badRequest("Error reading the request: " + e.getMessage());
+        }
+    }
+
+    private BulkUploadResult putAll(UserPrincipal session, List<EntityDocument> documents, boolean overwrite) {
+        var violations = new HashSet<ConstraintViolation<PartialEntity>>();
+        for (var document : documents) {
+            violations.addAll(validator.validate(document.entity()));
+        }
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException("Invalid entity", violations);
+        }
+
+        return controller.putAll(session, documents, overwrite);
+    }
+
+    private void parseYamlDocuments(String source, String content, List<EntityDocument> documents) {
+        // split the stream on the "---" markers to keep the original text of each
+        // document (including comments and formatting)
+        for (var doc : YAML_DOCUMENT_SEPARATOR.split(content)) {
+            JsonNode node;
+            try {
+                node = yamlMapper.getDelegate().readTree(doc);
+            } catch (IOException e) {
+                throw ApiException.badRequest("Error parsing YAML (%s): %s".formatted(source, e.getMessage()));
+            }
+            if (node == null || node.isMissingNode() || node.isNull()) {
+                // empty document or comments only
+                continue;
+            }
+            addDocument(documents, toDocument(source, node, doc));
+        }
+    }
+
+    private void parseNdjson(String source, String content, List<EntityDocument> documents) {
+        var lines = content.split("\\R");
+        for (int i = 0; i < lines.length; i++) {
+            var line = lines[i];
+            if (line.isBlank()) {
+                continue;
+            }
+            addDocument(documents, parseJsonDocument(source + ":" + (i + 1), line));
+        }
+    }
+
+    private EntityDocument parseJsonDocument(String source, String content) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(content);
+        } catch (IOException e) {
+            throw ApiException.badRequest("Error parsing JSON (%s): %s".formatted(source, e.getMessage()));
+        }
+        // JSON documents are not stored as-is, the entity's "doc" is reserved for YAML
+        return toDocument(source, node, null);
+    }
+
+    private EntityDocument toDocument(String source, JsonNode node, @Nullable String doc) {
+        if (!node.isObject()) {
+            throw ApiException.badRequest("Expected an object (%s), got: %s".formatted(source, node.getNodeType()));
+        }
+        try {
+            return new EntityDocument(objectMapper.convertValue(node, PartialEntity.class), doc);
+        } catch (IllegalArgumentException e) {
+            throw ApiException.badRequest("Invalid entity (%s): %s".formatted(source, e.getMessage()));
+        }
+    }
+
+    private static void addDocument(List<EntityDocument> documents, EntityDocument document) {
+        if (documents.size() >= MAX_BULK_UPLOAD_DOCUMENTS) {
+            throw ApiException.badRequest("Too many documents, max " + MAX_BULK_UPLOAD_DOCUMENTS + " per request");
+        }
+        documents.add(document);
+    }
+
+    private static boolean isSupportedFile(String name) {
+        return name.endsWith(".yaml") || name.endsWith(".yml") || name.endsWith(".json") || name.endsWith(".ndjson");
+    }
 }
@@ -21,10 +21,12 @@ package ca.ibodrov.mica.server.api;
  */
 
 import ca.ibodrov.mica.api.model.EntityId;
+import ca.ibodrov.mica.api.model.MaterializeViewResult;
 import ca.ibodrov.mica.api.model.PartialEntity;
 import ca.ibodrov.mica.api.model.PreviewViewRequest;
 import ca.ibodrov.mica.api.model.RenderViewRequest;
 import ca.ibodrov.mica.server.data.ViewController;
+import ca.ibodrov.mica.server.data.ViewRenderer.RenderOverrides;
 import com.walmartlabs.concord.server.sdk.metrics.WithTimer;
 import com.walmartlabs.concord.server.sdk.rest.Resource;
 import com.walmartlabs.concord.server.sdk.validation.Validate;
@@ -34,6 +36,8 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import javax.inject.Inject;
 import javax.validation.Valid;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.util.Optional;
 
 import static java.util.Objects.requireNonNull;
@@ -45,6 +49,8 @@ import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
 @Produces(APPLICATION_JSON)
 public class ViewResource implements Resource {
 
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
     private final ViewController controller;
 
     @Inject
@@ -62,6 +68,32 @@ public class ViewResource implements Resource {
         return controller.getCachedOrRenderAsEntity(request);
     }
 
+    @POST
+    @Path("render/stream")
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @Operation(summary = "Render a view, streaming the result", description = "Writes rows as soon as they are rendered. The result doesn't include entityNames or validation", operationId = "renderStream")
+    @Validate
+    @WithTimer
+    public Response renderStream(@Valid RenderViewRequest request) {
+        var streamedView = controller.renderAsStream(request, RenderOverrides.none());
+        StreamingOutput output = out -> controller.writeAsJson(streamedView, out);
+        return Response.ok(output, APPLICATION_JSON).build();
+    }
+
+    @POST
+    @Path("render/stream")
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_NDJSON)
+    @Operation(summary = "Render a view as newline-delimited JSON", description = "Writes rows as soon as they are rendered, one row per line", operationId = "renderStreamNdjson")
+    @Validate
+    @WithTimer
+    public Response renderStreamNdjson(@Valid RenderViewRequest request) {
+        var streamedView = controller.renderAsStream(request, RenderOverrides.none());
+        StreamingOutput output = out -> controller.writeAsNdjson(streamedView, out);
+        return Response.ok(output, APPLICATION_NDJSON).build();
+    }
+
     @POST
     @Path("renderProperties")
     @Consumes(APPLICATION_JSON)
@@ -102,4 +134,14 @@ public class ViewResource implements Resource {
     public PartialEntity materialize(@Valid RenderViewRequest request) {
         return controller.materialize(request);
     }
+
+    @POST
+    @Path("/materialize/incremental")
+    @Consumes(APPLICATION_JSON)
+    @Operation(summary = "Incrementally materialize a view", description = "Render a view and save only the new or changed rows as entities", operationId = "materializeIncremental")
+    @Validate
+    @WithTimer
+    public MaterializeViewResult materializeIncremental(@Valid RenderViewRequest request) {
+        return controller.materializeIncremental(request);
+    }
 }
@@ -184,6 +184,8 @@ public final class BuiltinSchemas {
 
         var js = select(entity, "data", "js", JsonNode::asText);
 
+        var parallel = select(entity, "data", "parallel", JsonNode::asBoolean);
+
         return new ViewLike.Data() {
             @Override
             public JsonNode jsonPath() {
@@ -229,6 +231,11 @@ public final class BuiltinSchemas {
             public Optional<String> js() {
                 return js;
             }
+
+            @Override
+            public Optional<Boolean> parallel() {
+                return parallel;
+            }
         };
     }
 
@@ -240,6 +247,8 @@ public final class BuiltinSchemas {
     private static Optional<ViewLike.Caching> asViewLikeCaching(EntityLike entity) {
         var enabled = select(entity, "caching", "enabled", JsonNode::asText);
         var ttl = select(entity, "caching", "ttl", JsonNode::asText);
+        var staleWhileRevalidate = select(entity, "caching", "staleWhileRevalidate", JsonNode::asText);
+        var prewarm = select(entity, "caching", "prewarm", JsonNode::asText);
         return Optional.of(new ViewLike.Caching() {
             @Override
             public Optional<String> enabled() {
@@ -250,6 +259,16 @@ public final class BuiltinSchemas {
             public Optional<String> ttl() {
                 return ttl;
             }
+
+            @Override
+            public Optional<String> staleWhileRevalidate() {
+                return staleWhileRevalidate;
+            }
+
+            @Override
+            public Optional<String> prewarm() {
+                return prewarm;
+            }
         });
     }
 
@@ -0,0 +1,237 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.ViewLike;
+import ca.ibodrov.mica.server.data.JsonPathEvaluator.CompiledJsonPath;
+import ca.ibodrov.mica.server.exceptions.ApiException;
+import ca.ibodrov.mica.server.exceptions.ViewProcessorException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.flipkart.zjsonpatch.InvalidJsonPatchException;
+import com.flipkart.zjsonpatch.JsonPatch;
+import com.jayway.jsonpath.JsonPathException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A view with all expressions (JSON paths, name patterns, patches, templates)
+ * parsed and validated ahead of time. Compiling a view is relatively
+ * expensive, rendering a compiled view only processes the data.
+ * <p/>
+ * Instances are immutable and can be cached and shared between threads.
+ */
+public record CompiledView(ViewLike view,
+        Optional<List<Pattern>> namePatterns,
+        List<CompiledJsonPath> jsonPath,
+        Optional<CompiledJsonPath> mergeBy,
+        Optional<CompiledJsonPatch> jsonPatch,
+        Optional<Map<String, List<CompiledJsonPath>>> map,
+        Optional<Template> template) {
+
+    /**
+     * Returns {@code true} if the view can be rendered one entity at a time, i.e.
+     * if it doesn't use {@code merge}, {@code mergeBy} or {@code js}.
+     */
+    public boolean isStreamable(ViewRenderer.RenderOverrides overrides) {
+        var data = view.data();
+        return !overrides.alwaysMerge()
+                && !data.merge().orElse(false)
+                && mergeBy.isEmpty()
+                && data.js().filter(v -> !v.isBlank()).isEmpty();
+    }
+
+    public static CompiledView compile(ViewLike view, JsonPathEvaluator jsonPathEvaluator) {
+        var namePatterns = view.selector().namePatterns()
+                .map(patterns -> patterns.stream()
+                        .map(regex -> compileNamePattern(view, regex))
+                        .toList());
+
+        var jsonPath = compileJsonPaths(jsonPathEvaluator, requireNonNull(view.data().jsonPath()));
+
+        var mergeBy = view.data().mergeBy().filter(JsonNode::isTextual)
+                .map(JsonNode::asText)
+                .map(jsonPathEvaluator::compileInApiCall);
+
+        var jsonPatch = view.data().jsonPatch().filter(p -> !p.isNull())
+                .map(CompiledView::validateJsonPatch)
+                .map(p -> compileJsonPatch(jsonPathEvaluator, p));
+
+        var map = view.data().map().map(m -> {
+            var result = new LinkedHashMap<String, List<CompiledJsonPath>>(m.size());
+            m.forEach((key, value) -> result.put(key, compileJsonPaths(jsonPathEvaluator, value)));
+            return (Map<String, List<CompiledJsonPath>>) result;
+        });
+
+        var template = view.data().template().filter(t -> !t.isNull())
+                .map(t -> compileTemplate(jsonPathEvaluator, t));
+
+        return new CompiledView(view, namePatterns, jsonPath, mergeBy, jsonPatch, map, template);
+    }
+
+    private static Pattern compileNamePattern(ViewLike view, String regex) {
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw ApiException.badRequest("Invalid namePatterns pattern: " + regex
+                    + view.parameters().map(p -> " (invalid parameters?)").orElse(""));
+        }
+    }
+
+    private static List<CompiledJsonPath> compileJsonPaths(JsonPathEvaluator jsonPathEvaluator, JsonNode jsonPath) {
+        if (jsonPath.isTextual()) {
+            return List.of(jsonPathEvaluator.compileInApiCall(jsonPath.asText()));
+        } else if (jsonPath.isArray()) {
+            var result = new ArrayList<CompiledJsonPath>(jsonPath.size());
+            for (int i = 0; i < jsonPath.size(); i++) {
+                result.add(jsonPathEvaluator.compileInApiCall(jsonPath.get(i).asText()));
+            }
+            return List.copyOf(result);
+        } else {
+            throw new ViewProcessorException(
+                    "Expected a string or an array of strings as JSON path, got a " + jsonPath.getNodeType());
+        }
+    }
+
+    private static JsonNode validateJsonPatch(JsonNode patchData) {
+        try {
+            JsonPatch.validate(patchData);
+        } catch (InvalidJsonPatchException e) {
+            throw new ViewProcessorException("Invalid data.jsonPatch: " + e.getMessage());
+        }
+
+        if (!patchData.isArray()) {
+            throw new ViewProcessorException(
+                    "jsonPatch must be a list of JSON patch operations. Got %s".formatted(patchData.getNodeType()));
+        }
+
+        return patchData;
+    }
+
+    private static CompiledJsonPatch compileJsonPatch(JsonPathEvaluator jsonPathEvaluator, JsonNode patchData) {
+        var operations = new ArrayList<PatchOperation>(patchData.size());
+        var inPlace = true;
+        for (var op : patchData) {
+            operations.add(new PatchOperation(op, compilePatchCondition(jsonPathEvaluator, op)));
+            // replacing the whole document can't be done in place
+            var path = op.get("path");
+            if (path == null || path.asText().isEmpty()) {
+                inPlace = false;
+            }
+        }
+        return new CompiledJsonPatch((ArrayNode) patchData, List.copyOf(operations), inPlace);
+    }
+
+    private static Optional<PatchCondition> compilePatchCondition(JsonPathEvaluator jsonPathEvaluator, JsonNode op) {
+        var ifMatches = op.get("ifMatches");
+        if (ifMatches == null) {
+            return Optional.empty();
+        }
+
+        var matchPath = ifMatches.get("path");
+        if (matchPath == null) {
+            throw new ViewProcessorException("JSON path is required in ifMatches.path");
+        }
+
+        var matchValue = ifMatches.get("value");
+        if (matchValue == null) {
+            throw new ViewProcessorException("Value is required in ifMatches.value");
+        }
+
+        try {
+            return Optional.of(new PatchCondition(jsonPathEvaluator.compile(matchPath.asText()), matchValue));
+        } catch (JsonPathException e) {
+            throw new ViewProcessorException(
+                    "Error while applying a JSON patch operation %s: %s".formatted(op, e.getMessage()));
+        }
+    }
+
+    private static Template compileTemplate(JsonPathEvaluator jsonPathEvaluator, JsonNode template) {
+        if (template.isTextual() && template.asText().startsWith("$")) {
+            return new Template.JsonPathValue(compileJsonPaths(jsonPathEvaluator, template));
+        } else if (template.isArray() && !template.isEmpty()) {
+            var items = new ArrayList<Template>(template.size());
+            template.elements().forEachRemaining(item -> items.add(compileTemplate(jsonPathEvaluator, item)));
+            return new Template.ArrayValue(List.copyOf(items));
+        } else if (template.isObject() && !template.isEmpty()) {
+            var fields = new LinkedHashMap<String, Template>(template.size());
+            template.fields().forEachRemaining(
+                    field -> fields.put(field.getKey(), compileTemplate(jsonPathEvaluator, field.getValue())));
+            return new Template.ObjectValue(fields);
+        }
+        return new Template.ConstantValue(template);
+    }
+
+    /**
+     * A validated {@code data.jsonPatch}.
+     *
+     * @param patch       all operations of the patch
+     * @param operations  the same operations with pre-compiled {@code ifMatches}
+     *                    conditions
+     * @param inPlace     {@code true} if the patch can be applied to a document in
+     *                    place, i.e. it doesn't replace the whole document
+     * @param conditional {@code true} if any of the operations has a condition
+     */
+    public record CompiledJsonPatch(ArrayNode patch, List<PatchOperation> operations, boolean inPlace,
+            boolean conditional) {
+
+        public CompiledJsonPatch(ArrayNode patch, List<PatchOperation> operations, boolean inPlace) {
+            this(patch, operations, inPlace, operations.stream().anyMatch(op -> op.ifMatches().isPresent()));
+        }
+    }
+
+    public record PatchOperation(JsonNode operation, Optional<PatchCondition> ifMatches) {
+    }
+
+    /**
+     * The operation is applied only if the value at {@code path} equals to
+     * {@code value}.
+     */
+    public record PatchCondition(CompiledJsonPath path, JsonNode value) {
+    }
+
+    /**
+     * A compiled {@code data.template}. Each rendered row gets a fresh copy of the
+     * template's structure.
+     */
+    public interface Template {
+
+        record ConstantValue(JsonNode value) implements Template {
+        }
+
+        record JsonPathValue(List<CompiledJsonPath> jsonPath) implements Template {
+        }
+
+        record ArrayValue(List<Template> items) implements Template {
+        }
+
+        record ObjectValue(Map<String, Template> fields) implements Template {
+        }
+    }
+}
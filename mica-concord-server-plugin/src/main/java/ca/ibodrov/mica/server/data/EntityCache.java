@@ -0,0 +1,196 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.Entity;
+import ca.ibodrov.mica.api.model.EntityId;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import javax.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+
+/**
+ * Caches parsed entities fetched by {@link EntityStore#getById(EntityId)} and
+ * {@link EntityStore#getByName(String)}.
+ * <p/>
+ * {@link EntityStore} invalidates the entries when it writes an entity, before
+ * the transaction is committed. The in-memory implementation also listens to
+ * the {@link ViewCacheStore} notifications, which are delivered after the
+ * commit to all Mica instances, to invalidate the entries changed by other
+ * instances or re-cached while the transaction was in progress.
+ * <p/>
+ * Cached entities are copied on read, the callers are free to modify them.
+ */
+public interface EntityCache {
+
+    static EntityCache inMemory() {
+        return new InMemoryEntityCache(new MetricRegistry(), Optional.empty());
+    }
+
+    static EntityCache noop() {
+        return new NoopEntityCache();
+    }
+
+    Optional<Entity> getById(EntityId entityId, Function<EntityId, Optional<Entity>> loader);
+
+    Optional<Entity> getByName(String entityName, Function<String, Optional<Entity>> loader);
+
+    void invalidate(UUID entityId, String entityName);
+
+    class InMemoryEntityCache implements EntityCache {
+
+        private static final int MAX_ENTRIES = 10_000;
+        private static final String METRIC_PREFIX = "mica-entity-cache";
+
+        private final Cache<UUID, Entity> byId;
+        private final ConcurrentMap<String, UUID> idsByName;
+        // incremented on every invalidation, entities loaded before an
+        // invalidation are not cached
+        private final AtomicLong generation;
+        private final Meter hits;
+        private final Meter misses;
+
+        @Inject
+        public InMemoryEntityCache(MetricRegistry metricRegistry, ViewCacheStore viewCacheStore) {
+            this(metricRegistry, Optional.of(viewCacheStore));
+        }
+
+        public InMemoryEntityCache(MetricRegistry metricRegistry, Optional<ViewCacheStore> viewCacheStore) {
+            this.idsByName = new ConcurrentHashMap<>();
+            this.byId = Caffeine.newBuilder()
+                    .maximumSize(MAX_ENTRIES)
+                    .evictionListener(this::onEviction)
+                    .build();
+            this.generation = new AtomicLong();
+            this.hits = metricRegistry.meter(METRIC_PREFIX + ".hits");
+            this.misses = metricRegistry.meter(METRIC_PREFIX + ".misses");
+            metricRegistry.gauge(METRIC_PREFIX + ".entries", () -> (Gauge<Long>) byId::estimatedSize);
+            viewCacheStore.ifPresent(store -> store.listen(
+                    changes -> changes.forEach(change -> invalidate(change.entityName())),
+                    this::invalidateAll));
+        }
+
+        @Override
+        public Optional<Entity> getById(EntityId entityId, Function<EntityId, Optional<Entity>> loader) {
+            var entity = byId.getIfPresent(entityId.id());
+            if (entity != null) {
+                hits.mark();
+                return Optional.of(copyOf(entity));
+            }
+            return load(entityId, loader);
+        }
+
+        @Override
+        public Optional<Entity> getByName(String entityName, Function<String, Optional<Entity>> loader) {
+            var id = idsByName.get(entityName);
+            if (id != null) {
+                var entity = byId.getIfPresent(id);
+                // getByName doesn't return "deleted" entities
+                if (entity != null && entity.name().equals(entityName) && entity.deletedAt().isEmpty()) {
+                    hits.mark();
+                    return Optional.of(copyOf(entity));
+                }
+            }
+            return load(entityName, loader);
+        }
+
+        @Override
+        public void invalidate(UUID entityId, String entityName) {
+            generation.incrementAndGet();
+            byId.invalidate(entityId);
+            idsByName.remove(entityName);
+        }
+
+        private void invalidate(String entityName) {
+            generation.incrementAndGet();
+            var id = idsByName.remove(entityName);
+            if (id != null) {
+                byId.invalidate(id);
+            }
+        }
+
+        private void invalidateAll() {
+            generation.incrementAndGet();
+            byId.invalidateAll();
+            idsByName.clear();
+        }
+
+        private <K> Optional<Entity> load(K key, Function<K, Optional<Entity>> loader) {
+            misses.mark();
+            var loadedAt = generation.get();
+            var result = loader.apply(key);
+            result.ifPresent(entity -> {
+                var copy = copyOf(entity);
+                byId.put(copy.id().id(), copy);
+                idsByName.put(copy.name(), copy.id().id());
+                if (generation.get() != loadedAt) {
+                    // the entity might've changed while loading
+                    byId.invalidate(copy.id().id());
+                    idsByName.remove(copy.name(), copy.id().id());
+                }
+            });
+            return result;
+        }
+
+        private void onEviction(UUID entityId, Entity entity, RemovalCause cause) {
+            if (entity != null) {
+                idsByName.remove(entity.name(), entityId);
+            }
+        }
+
+        private static Entity copyOf(Entity entity) {
+            var data = new LinkedHashMap<String, JsonNode>(entity.data().size());
+            entity.data().forEach((k, v) -> data.put(k, v != null ? v.deepCopy() : null));
+            return new Entity(entity.id(), entity.name(), entity.kind(), entity.createdAt(), entity.updatedAt(),
+                    entity.deletedAt(), data);
+        }
+    }
+
+    class NoopEntityCache implements EntityCache {
+
+        @Override
+        public Optional<Entity> getById(EntityId entityId, Function<EntityId, Optional<Entity>> loader) {
+            return loader.apply(entityId);
+        }
+
+        @Override
+        public Optional<Entity> getByName(String entityName, Function<String, Optional<Entity>> loader) {
+            return loader.apply(entityName);
+        }
+
+        @Override
+        public void invalidate(UUID entityId, String entityName) {
+        }
+    }
+}
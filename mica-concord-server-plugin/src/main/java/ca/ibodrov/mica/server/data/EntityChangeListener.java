@@ -0,0 +1,55 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import org.jooq.DSLContext;
+
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Receives notifications about entities created, updated or deleted via
+ * {@link EntityStore}. Note that the notifications are sent before the
+ * enclosing transaction is committed. Use the provided {@code tx} to perform
+ * actions that must happen only if the transaction is committed.
+ */
+public interface EntityChangeListener {
+
+    void onEntityChange(DSLContext tx, String entityName, String entityKind);
+
+    /**
+     * Receives all changes made by a single {@link EntityStore} operation, e.g. a
+     * batch upsert. By default, calls
+     * {@link #onEntityChange(DSLContext, String, String)} for each change.
+     */
+    default void onEntityChanges(DSLContext tx, List<EntityChange> changes) {
+        changes.forEach(change -> onEntityChange(tx, change.entityName(), change.entityKind()));
+    }
+
+    record EntityChange(String entityName, String entityKind) {
+
+        public EntityChange {
+            requireNonNull(entityName);
+            requireNonNull(entityKind);
+        }
+    }
+}
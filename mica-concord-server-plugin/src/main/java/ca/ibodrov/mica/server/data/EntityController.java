@@ -20,6 +20,7 @@ package ca.ibodrov.mica.server.data;
  * ======
  */
 
+import ca.ibodrov.mica.api.model.BulkUploadResult;
 import ca.ibodrov.mica.api.model.DeletedEntityVersion;
 import ca.ibodrov.mica.api.model.EntityId;
 import ca.ibodrov.mica.api.model.EntityVersion;
@@ -31,13 +32,16 @@ import ca.ibodrov.mica.server.exceptions.StoreException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
+import com.networknt.schema.JsonSchema;
+import com.walmartlabs.concord.server.sdk.validation.ValidationErrorXO;
+import com.walmartlabs.concord.server.sdk.validation.ValidationErrorsException;
 import com.walmartlabs.concord.server.security.UserPrincipal;
 import org.jooq.DSLContext;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.util.Objects;
-import java.util.Optional;
+import java.util.*;
+import java.util.stream.Stream;
 
 import static ca.ibodrov.mica.server.data.EntityHistoryController.OperationType.DELETE;
 import static ca.ibodrov.mica.server.data.EntityHistoryController.OperationType.UPDATE;
@@ -50,7 +54,6 @@ public class EntityController {
     private final EntityKindStore entityKindStore;
     private final EntityHistoryController historyController;
     private final ObjectMapper objectMapper;
-    private final Validator validator;
 
     @Inject
     public EntityController(@MicaDB DSLContext dsl,
@@ -64,8 +67,6 @@ public class EntityController {
         this.entityKindStore = requireNonNull(entityKindStore);
         this.historyController = requireNonNull(historyController);
         this.objectMapper = requireNonNull(objectMapper);
-        this.validator = Validator.getDefault(objectMapper,
-                new EntityKindStoreSchemaFetcher(entityKindStore, objectMapper));
     }
 
     public EntityVersion put(UserPrincipal session,
@@ -77,11 +78,11 @@ public class EntityController {
 
         var kind = validateKind(entity.kind());
 
-        var schema = entityKindStore.getSchemaForKind(kind)
+        var schema = entityKindStore.getCompiledSchemaForKind(kind)
                 .orElseThrow(() -> ApiException.badRequest("Can't find schema for " + kind));
 
         var entityAsJsonObject = objectMapper.convertValue(entity, JsonNode.class);
-        var validatedInput = validator.validateObject(schema, entityAsJsonObject);
+        var validatedInput = entityKindStore.getValidator().validateObject(schema, entityAsJsonObject);
         if (!validatedInput.isValid()) {
             throw validatedInput.toException();
         }
@@ -114,6 +115,79 @@ public class EntityController {
         });
     }
 
+    /**
+     * Creates or updates multiple entities in a single transaction. Entities are
+     * matched with the existing ones by name, only the new or structurally
+     * changed entities are written (same as {@link UpdateIf#STRUCTURAL_DIFF}).
+     * <p>
+     * All entities are validated before anything is written. If any of them is
+     * invalid or has a version conflict, nothing is written.
+     */
+    public BulkUploadResult putAll(UserPrincipal session, List<EntityDocument> documents, boolean overwrite) {
+        if (documents.isEmpty()) {
+            return new BulkUploadResult(0, 0, 0, List.of());
+        }
+
+        var schemas = new HashMap<String, JsonSchema>();
+        for (var document : documents) {
+            var kind = document.entity().kind();
+            if (!schemas.containsKey(kind)) {
+                validateKind(kind);
+                schemas.put(kind, entityKindStore.getCompiledSchemaForKind(kind)
+                        .orElseThrow(() -> ApiException.badRequest("Can't find schema for " + kind)));
+            }
+        }
+
+        // validated sequentially, a parallel stream would run on the shared common pool
+        var validator = entityKindStore.getValidator();
+        var errors = documents.stream()
+                .flatMap(document -> {
+                    var entity = document.entity();
+                    var entityAsJsonObject = objectMapper.convertValue(entity, JsonNode.class);
+                    var validatedInput = validator.validateObject(schemas.get(entity.kind()), entityAsJsonObject);
+                    return validatedInput.messages().stream()
+                            .map(m -> new ValidationErrorXO(UUID.randomUUID().toString(),
+                                    entity.name() + ": " + m.getMessage()));
+                })
+                .toList();
+        if (!errors.isEmpty()) {
+            throw new ValidationErrorsException().withErrors(errors);
+        }
+
+        var entities = new ArrayList<PartialEntity>(documents.size());
+        var docs = new HashMap<String, String>(documents.size());
+        for (var document : documents) {
+            var entity = document.entity();
+            entities.add(overwrite ? entity.withoutUpdatedAt() : entity);
+            if (document.doc() != null) {
+                docs.put(EntityStore.normalizeName(entity.name()), document.doc());
+            }
+        }
+
+        return dsl.transactionResult(cfg -> {
+            var tx = cfg.dsl();
+
+            var result = entityStore.upsertChanged(tx, entities, docs);
+            if (!result.conflicts().isEmpty()) {
+                throw ApiException.conflict("Version conflict: " + String.join(", ", result.conflicts()));
+            }
+
+            var changedEntities = Stream.concat(result.inserted().stream(), result.updated().stream()).toList();
+            var author = session.getUsername();
+            var historyEntries = changedEntities.stream()
+                    .map(version -> new EntityHistoryEntry(version.id(), Optional.of(version.updatedAt()), UPDATE,
+                            author))
+                    .toList();
+            historyController.addEntries(tx, historyEntries,
+                    id -> Optional.ofNullable(result.writtenNames().get(id)).map(docs::get));
+
+            return new BulkUploadResult(result.inserted().size(),
+                    result.updated().size(),
+                    result.unchanged(),
+                    changedEntities);
+        });
+    }
+
     public Optional<DeletedEntityVersion> deleteById(UserPrincipal session, EntityId entityId) {
         var existingEntity = entityStore.getById(entityId);
         if (existingEntity.isEmpty()) {
@@ -187,6 +261,13 @@ public class EntityController {
         return kind;
     }
 
+    public record EntityDocument(PartialEntity entity, @Nullable String doc) {
+
+        public EntityDocument {
+            requireNonNull(entity);
+        }
+    }
+
     public enum UpdateIf {
 
         /**
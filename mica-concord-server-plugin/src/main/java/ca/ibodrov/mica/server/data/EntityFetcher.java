@@ -23,6 +23,7 @@ package ca.ibodrov.mica.server.data;
 import ca.ibodrov.mica.api.model.EntityLike;
 
 import java.net.URI;
+import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -36,7 +37,16 @@ public interface EntityFetcher {
 
     Cursor fetch(FetchRequest request);
 
-    record FetchRequest(Optional<URI> uri, Optional<String> kind) {
+    /**
+     * @param namePatterns optional entity name regexes. Fetchers may use the
+     *                     patterns to narrow down the result, callers must
+     *                     still filter the returned entities.
+     */
+    record FetchRequest(Optional<URI> uri, Optional<String> kind, Optional<List<String>> namePatterns) {
+
+        public FetchRequest(Optional<URI> uri, Optional<String> kind) {
+            this(uri, kind, Optional.empty());
+        }
 
         public static FetchRequest ofUri(URI uri) {
             return new FetchRequest(Optional.of(uri), Optional.empty());
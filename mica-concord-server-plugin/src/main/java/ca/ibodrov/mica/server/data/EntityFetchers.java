@@ -29,8 +29,13 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 import static java.util.Objects.requireNonNull;
@@ -39,11 +44,35 @@ public class EntityFetchers {
 
     private static final Logger log = LoggerFactory.getLogger(EntityFetchers.class);
 
+    private static final int FETCH_THREADS = 16;
+    private static final int MAX_QUEUED_FETCHES = 256;
+    private static final int MAX_CONCURRENT_FETCHES_PER_REQUEST = 4;
+    private static final Duration FETCH_TIMEOUT = Duration.ofMinutes(2);
+
     private final Set<EntityFetcher> fetchers;
+    private final ExecutorService executor;
 
     @Inject
     public EntityFetchers(Set<EntityFetcher> fetchers) {
         this.fetchers = requireNonNull(fetchers);
+
+        var executor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS,
+                1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(MAX_QUEUED_FETCHES),
+                new ThreadFactory() {
+
+                    private final AtomicLong id = new AtomicLong(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        var thread = new Thread(r, "entity-fetcher-" + id.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
     }
 
     /**
@@ -59,10 +88,11 @@ public class EntityFetchers {
 
     /**
      * Fetches entities of the given kind from the given store represented by the
-     * URI.
+     * URI. The name patterns are passed to the store as a hint, the result may
+     * contain entities that don't match them.
      */
-    public Stream<EntityLike> fetch(URI uri, String entityKind) {
-        var request = new FetchRequest(Optional.of(uri), Optional.of(entityKind));
+    public Stream<EntityLike> fetch(URI uri, String entityKind, Optional<List<String>> namePatterns) {
+        var request = new FetchRequest(Optional.of(uri), Optional.of(entityKind), namePatterns);
 
         var fetcher = fetchers.stream()
                 .filter(f -> f.isSupported(request))
@@ -77,6 +107,89 @@ public class EntityFetchers {
         }
     }
 
+    /**
+     * Fetches entities of the given kind from multiple stores. The stores are
+     * queried concurrently (up to {@link #MAX_CONCURRENT_FETCHES_PER_REQUEST} at a
+     * time), the results are returned in the order of the URIs.
+     * <p/>
+     * Each store's result is collected in memory before it is returned. A single
+     * URI is fetched lazily in the calling thread.
+     * <p/>
+     * All stores must respond within {@link #FETCH_TIMEOUT}. On timeout or error
+     * the remaining fetches are interrupted. If the shared pool is saturated,
+     * the request is rejected instead of being queued indefinitely.
+     */
+    public Stream<EntityLike> fetch(List<URI> uris, String entityKind, Optional<List<String>> namePatterns) {
+        if (uris.isEmpty()) {
+            return Stream.empty();
+        }
+        if (uris.size() == 1) {
+            // not flatMap, the iterator of a flatMap stream buffers the whole inner stream
+            return fetch(uris.get(0), entityKind, namePatterns);
+        }
+
+        var deadline = System.nanoTime() + FETCH_TIMEOUT.toNanos();
+        var permits = new Semaphore(MAX_CONCURRENT_FETCHES_PER_REQUEST);
+        var futures = new ArrayList<Future<List<EntityLike>>>(uris.size());
+        try {
+            for (var uri : uris) {
+                if (!permits.tryAcquire(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                    throw timeout(uri);
+                }
+                try {
+                    futures.add(executor.submit(() -> {
+                        try (var entities = fetch(uri, entityKind, namePatterns)) {
+                            return entities.toList();
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    log.warn("Too many concurrent fetches, rejecting {}", uri);
+                    throw ApiException.serviceUnavailable("Too many concurrent fetches, try again later");
+                }
+            }
+
+            var results = new ArrayList<List<EntityLike>>(uris.size());
+            for (int i = 0; i < uris.size(); i++) {
+                results.add(await(futures.get(i), uris.get(i), deadline));
+            }
+            return results.stream().flatMap(List::stream);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ApiException.internalError("Interrupted while fetching entities");
+        } finally {
+            // no-op for completed futures, interrupts the rest in case of errors
+            futures.forEach(f -> f.cancel(true));
+        }
+    }
+
+    private static List<EntityLike> await(Future<List<EntityLike>> future, URI uri, long deadline)
+            throws InterruptedException {
+
+        try {
+            return future.get(remaining(deadline), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw timeout(uri);
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    private static ApiException timeout(URI uri) {
+        log.warn("Timeout while fetching {} entities: {}", uri.getScheme(), uri);
+        return ApiException.internalError("Timeout while fetching entities: " + uri);
+    }
+
     public record EntityWithSource(EntityLike entity, Optional<URI> source) {
     }
 }
@@ -29,6 +29,7 @@ import javax.inject.Inject;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 import static ca.ibodrov.mica.db.jooq.Tables.MICA_ENTITY_HISTORY;
 import static java.util.Objects.requireNonNull;
@@ -36,6 +37,8 @@ import static org.jooq.impl.DSL.currentInstant;
 
 public class EntityHistoryController {
 
+    private static final int BATCH_SIZE = 1000;
+
     private final DSLContext dsl;
 
     @Inject
@@ -77,6 +80,34 @@ public class EntityHistoryController {
         query.execute();
     }
 
+    /**
+     * Same as {@link #addEntry(DSLContext, EntityHistoryEntry, Optional)}, but
+     * inserts the entries using multi-row statements. The entries must have
+     * {@code updatedAt} values.
+     */
+    public void addEntries(DSLContext tx,
+                           List<EntityHistoryEntry> entries,
+                           Function<EntityId, Optional<String>> docs) {
+
+        for (int i = 0; i < entries.size(); i += BATCH_SIZE) {
+            var chunk = entries.subList(i, Math.min(i + BATCH_SIZE, entries.size()));
+            var query = tx.insertInto(MICA_ENTITY_HISTORY,
+                    MICA_ENTITY_HISTORY.ENTITY_ID,
+                    MICA_ENTITY_HISTORY.UPDATED_AT,
+                    MICA_ENTITY_HISTORY.OPERATION_TYPE,
+                    MICA_ENTITY_HISTORY.AUTHOR,
+                    MICA_ENTITY_HISTORY.DOC);
+            for (var entry : chunk) {
+                query = query.values(entry.entityId().id(),
+                        entry.updatedAt().orElseThrow(),
+                        MicaHistoryOperationType.valueOf(entry.operationType().name()),
+                        entry.author(),
+                        docs.apply(entry.entityId()).orElse("n/a"));
+            }
+            query.execute();
+        }
+    }
+
     public Optional<String> getHistoryDoc(EntityId entityId, Instant updatedAt) {
         return dsl.select(MICA_ENTITY_HISTORY.DOC)
                 .from(MICA_ENTITY_HISTORY)
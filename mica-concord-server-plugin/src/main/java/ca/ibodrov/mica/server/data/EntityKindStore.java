@@ -23,11 +23,17 @@ package ca.ibodrov.mica.server.data;
 import ca.ibodrov.mica.api.model.EntityLike;
 import ca.ibodrov.mica.server.exceptions.StoreException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.networknt.schema.JsonSchema;
 import org.jooq.DSLContext;
 
 import javax.inject.Inject;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
 
 import static ca.ibodrov.mica.api.kinds.MicaKindV1.MICA_KIND_V1;
@@ -42,11 +48,35 @@ import static java.util.Objects.requireNonNull;
  */
 public class EntityKindStore {
 
+    private static final int MAX_COMPILED_SCHEMAS = 1000;
+    private static final Duration COMPILED_SCHEMA_TTL = Duration.ofHours(1);
+
     private final EntityStore entityStore;
+    private final ObjectMapper objectMapper;
+    private volatile Schemas schemas;
 
     @Inject
-    public EntityKindStore(EntityStore entityStore) {
+    public EntityKindStore(EntityStore entityStore, ObjectMapper objectMapper, ViewCacheStore viewCacheStore) {
+        this(entityStore, objectMapper, Optional.of(viewCacheStore));
+    }
+
+    public EntityKindStore(EntityStore entityStore, ObjectMapper objectMapper) {
+        this(entityStore, objectMapper, Optional.empty());
+    }
+
+    public EntityKindStore(EntityStore entityStore,
+                           ObjectMapper objectMapper,
+                           Optional<ViewCacheStore> viewCacheStore) {
         this.entityStore = requireNonNull(entityStore);
+        this.objectMapper = requireNonNull(objectMapper);
+        this.schemas = newSchemas();
+        // schemas can $ref other kinds, so any change in any kind invalidates
+        // all compiled schemas, including those cached by the schema factory
+        viewCacheStore.ifPresent(store -> store.listen(changes -> {
+            if (changes.stream().anyMatch(change -> MICA_KIND_V1.equals(change.entityKind()))) {
+                invalidateSchemas();
+            }
+        }, this::invalidateSchemas));
     }
 
     public boolean isKindExists(DSLContext tx, String kind) {
@@ -60,10 +90,64 @@ public class EntityKindStore {
         assert kind != null;
         return entityStore.getByName(kind)
                 .map(EntityKindStore::assertKind)
-                .flatMap(e -> Optional.ofNullable(e.getProperty(SCHEMA_PROPERTY)))
+                .flatMap(EntityKindStore::getSchema);
+    }
+
+    /**
+     * Returns the validator that resolves {@code $ref}s to entity kinds. The
+     * validator is replaced when any entity kind changes, do not hold on to it.
+     */
+    public Validator getValidator() {
+        return schemas.validator();
+    }
+
+    /**
+     * Returns a compiled schema for the given entity kind. The result is cached
+     * using the kind's name and version, i.e. any change in the kind entity
+     * produces a new compiled schema. Changes in other kinds drop all compiled
+     * schemas, see {@link #invalidateSchemas()}.
+     */
+    public Optional<JsonSchema> getCompiledSchemaForKind(String kind) {
+        assert kind != null;
+        var current = schemas;
+        return entityStore.getByName(kind)
+                .map(EntityKindStore::assertKind)
+                .flatMap(entity -> {
+                    var key = new SchemaKey(entity.name(), entity.updatedAt());
+                    var compiled = current.compiled().getIfPresent(key);
+                    if (compiled != null) {
+                        return Optional.of(compiled);
+                    }
+                    return getSchema(entity).map(schema -> {
+                        var result = current.validator().compile(schema);
+                        current.compiled().put(key, result);
+                        return result;
+                    });
+                });
+    }
+
+    /**
+     * Drops all compiled schemas and replaces the validator, so that
+     * {@code $ref}'d kinds are fetched again.
+     */
+    public void invalidateSchemas() {
+        schemas = newSchemas();
+    }
+
+    private Schemas newSchemas() {
+        var validator = Validator.getDefault(objectMapper, new EntityKindStoreSchemaFetcher(this, objectMapper));
+        Cache<SchemaKey, JsonSchema> compiled = Caffeine.newBuilder()
+                .maximumSize(MAX_COMPILED_SCHEMAS)
+                .expireAfterAccess(COMPILED_SCHEMA_TTL)
+                .build();
+        return new Schemas(validator, compiled);
+    }
+
+    private static Optional<JsonNode> getSchema(EntityLike kindEntity) {
+        return Optional.ofNullable(kindEntity.data().get(SCHEMA_PROPERTY))
                 .map(s -> {
                     // do not add standard properties to the standard properties schema
-                    if (STANDARD_PROPERTIES_V1.equals(kind)) {
+                    if (STANDARD_PROPERTIES_V1.equals(kindEntity.name())) {
                         return s;
                     }
                     // but do add them to all other schemas
@@ -90,4 +174,10 @@ public class EntityKindStore {
         ((ObjectNode) schema).set("$ref", TextNode.valueOf(STANDARD_PROPERTIES_REF));
         return schema;
     }
+
+    private record SchemaKey(String kind, Instant updatedAt) {
+    }
+
+    private record Schemas(Validator validator, Cache<SchemaKey, JsonSchema> compiled) {
+    }
 }
@@ -23,6 +23,7 @@ package ca.ibodrov.mica.server.data;
 import ca.ibodrov.mica.api.model.*;
 import ca.ibodrov.mica.db.MicaDB;
 import ca.ibodrov.mica.server.UuidGenerator;
+import ca.ibodrov.mica.server.data.EntityChangeListener.EntityChange;
 import ca.ibodrov.mica.server.exceptions.StoreException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -37,15 +38,19 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
 import java.util.Comparator;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static ca.ibodrov.mica.db.jooq.Tables.MICA_ENTITIES;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Comparator.comparing;
 import static java.util.Objects.requireNonNull;
 import static org.jooq.JSONB.jsonb;
 import static org.jooq.impl.DSL.currentInstant;
 import static org.jooq.impl.DSL.noCondition;
+import static org.jooq.impl.DSL.row;
 
 public class EntityStore {
 
@@ -53,33 +58,149 @@ public class EntityStore {
     };
 
     private static final int MAX_NAME_PATTERNS = 32;
+    private static final int BATCH_SIZE = 1000;
+    private static final int FETCH_SIZE = 500;
 
     private final DSLContext dsl;
     private final ObjectMapper objectMapper;
     private final UuidGenerator uuidGenerator;
+    private final Set<EntityChangeListener> changeListeners;
+    private final EntityCache entityCache;
+
+    public EntityStore(DSLContext dsl,
+                       ObjectMapper objectMapper,
+                       UuidGenerator uuidGenerator) {
+
+        this(dsl, objectMapper, uuidGenerator, Set.of());
+    }
+
+    public EntityStore(DSLContext dsl,
+                       ObjectMapper objectMapper,
+                       UuidGenerator uuidGenerator,
+                       Set<EntityChangeListener> changeListeners) {
+
+        this(dsl, objectMapper, uuidGenerator, changeListeners, EntityCache.noop());
+    }
 
     @Inject
     public EntityStore(@MicaDB DSLContext dsl,
                        ObjectMapper objectMapper,
-                       UuidGenerator uuidGenerator) {
+                       UuidGenerator uuidGenerator,
+                       Set<EntityChangeListener> changeListeners,
+                       EntityCache entityCache) {
 
         this.dsl = requireNonNull(dsl);
         this.objectMapper = requireNonNull(objectMapper);
         this.uuidGenerator = requireNonNull(uuidGenerator);
+        this.changeListeners = requireNonNull(changeListeners);
+        this.entityCache = requireNonNull(entityCache);
     }
 
     public record ListEntitiesRequest(@Nullable String search,
             @Nullable String entityNameStartsWith,
             @Nullable String entityName,
             @Nullable String entityKind,
-            @Nullable OrderBy orderBy) {
+            @Nullable OrderBy orderBy,
+            int limit,
+            @Nullable ContinuationToken after) {
+
+        public ListEntitiesRequest(@Nullable String search,
+                                   @Nullable String entityNameStartsWith,
+                                   @Nullable String entityName,
+                                   @Nullable String entityKind,
+                                   @Nullable OrderBy orderBy) {
+
+            this(search, entityNameStartsWith, entityName, entityKind, orderBy, -1, null);
+        }
 
         public static ListEntitiesRequest nameStartsWith(String entityNameStartsWith) {
             return new ListEntitiesRequest(null, entityNameStartsWith, null, null, null);
         }
+
+        /**
+         * Paginated requests are always sorted by (name, id), the keyset used for
+         * the continuation tokens.
+         */
+        public boolean isPaginated() {
+            return limit > 0 || after != null;
+        }
+    }
+
+    /**
+     * A position in the (name, id)-ordered list of entities. Encoded as an
+     * opaque string for the API clients.
+     */
+    public record ContinuationToken(String name, UUID id) {
+
+        public ContinuationToken {
+            requireNonNull(name);
+            requireNonNull(id);
+        }
+
+        public static ContinuationToken after(EntityMetadata entity) {
+            return new ContinuationToken(entity.name(), entity.id().id());
+        }
+
+        public static ContinuationToken decode(String s) {
+            try {
+                var decoded = new String(Base64.getUrlDecoder().decode(s), UTF_8);
+                // the ID has a fixed length, the name can contain any characters
+                var separator = decoded.indexOf(':');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Missing separator");
+                }
+                var id = UUID.fromString(decoded.substring(0, separator));
+                return new ContinuationToken(decoded.substring(separator + 1), id);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid continuation token", e);
+            }
+        }
+
+        public String encode() {
+            var s = id + ":" + name;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(s.getBytes(UTF_8));
+        }
     }
 
     public List<EntityMetadata> search(ListEntitiesRequest request) {
+        return searchQuery(dsl, request)
+                .fetch(EntityStore::toEntityMetadata);
+    }
+
+    /**
+     * Same as {@link #search(ListEntitiesRequest)}, but the rows are fetched in
+     * pages of {@link #FETCH_SIZE} and passed to the consumer one by one. Each
+     * page is a separate short query that continues after the last seen (name, id)
+     * pair, so a slow consumer doesn't hold a connection or a transaction open.
+     * The results are always sorted by (name, id).
+     */
+    public void search(ListEntitiesRequest request, Consumer<EntityMetadata> consumer) {
+        var remaining = request.limit() > 0 ? request.limit() : Integer.MAX_VALUE;
+        var after = request.after();
+        while (remaining > 0) {
+            var pageSize = Math.min(FETCH_SIZE, remaining);
+            var page = searchQuery(dsl, new ListEntitiesRequest(request.search(),
+                    request.entityNameStartsWith(),
+                    request.entityName(),
+                    request.entityKind(),
+                    OrderBy.NAME,
+                    pageSize,
+                    after))
+                    .fetch(EntityStore::toEntityMetadata);
+
+            page.forEach(consumer);
+
+            if (page.size() < pageSize) {
+                return;
+            }
+
+            remaining -= page.size();
+            after = ContinuationToken.after(page.get(page.size() - 1));
+        }
+    }
+
+    private ResultQuery<Record5<UUID, String, String, Instant, Instant>> searchQuery(DSLContext tx,
+                                                                                     ListEntitiesRequest request) {
         var search = request.search();
         var searchCondition = search != null ? MICA_ENTITIES.NAME.containsIgnoreCase(search) : noCondition();
 
@@ -94,10 +215,18 @@ public class EntityStore {
         var entityKind = request.entityKind();
         var entityKindCondition = entityKind != null ? MICA_ENTITIES.KIND.eq(entityKind) : noCondition();
 
+        var after = request.after();
+        // "NAME >= x" is redundant, but allows the planner to use a range scan on
+        // the NAME index
+        var afterCondition = after != null
+                ? MICA_ENTITIES.NAME.ge(after.name())
+                        .and(row(MICA_ENTITIES.NAME, MICA_ENTITIES.ID).gt(after.name(), after.id()))
+                : noCondition();
+
         // search should NOT return "deleted" entities
         var notDeleted = MICA_ENTITIES.DELETED_AT.isNull();
 
-        var query = dsl.select(MICA_ENTITIES.ID,
+        var query = tx.select(MICA_ENTITIES.ID,
                 MICA_ENTITIES.NAME,
                 MICA_ENTITIES.KIND,
                 MICA_ENTITIES.CREATED_AT,
@@ -107,21 +236,22 @@ public class EntityStore {
                         .and(entityNameStartsWithCondition)
                         .and(nameCondition)
                         .and(entityKindCondition)
+                        .and(afterCondition)
                         .and(notDeleted));
 
-        var orderBy = request.orderBy();
-        if (orderBy != null) {
-            if (orderBy == OrderBy.NAME) {
-                query.orderBy(MICA_ENTITIES.NAME);
-            }
+        if (request.isPaginated() || request.orderBy() == OrderBy.NAME) {
+            query.orderBy(MICA_ENTITIES.NAME, MICA_ENTITIES.ID);
         }
 
-        return query
-                .fetch(EntityStore::toEntityMetadata);
+        if (request.limit() > 0) {
+            query.limit(request.limit());
+        }
+
+        return query;
     }
 
     public Optional<Entity> getById(EntityId entityId) {
-        return getById(entityId, null);
+        return entityCache.getById(entityId, id -> getById(id, null));
     }
 
     public Optional<Entity> getById(EntityId entityId, @Nullable Instant updatedAt) {
@@ -145,7 +275,7 @@ public class EntityStore {
     }
 
     public Optional<Entity> getByName(String entityName) {
-        return getByName(dsl, entityName);
+        return entityCache.getByName(entityName, name -> getByName(dsl, name));
     }
 
     public Optional<Entity> getByName(DSLContext tx, String entityName) {
@@ -209,9 +339,14 @@ public class EntityStore {
     public Optional<EntityVersion> killById(DSLContext tx, EntityId entityId) {
         var version = tx.deleteFrom(MICA_ENTITIES)
                 .where(MICA_ENTITIES.ID.eq(entityId.id()))
-                .returning(MICA_ENTITIES.ID, MICA_ENTITIES.UPDATED_AT)
+                .returning(MICA_ENTITIES.ID, MICA_ENTITIES.NAME, MICA_ENTITIES.KIND, MICA_ENTITIES.UPDATED_AT)
                 .fetchOptional();
 
+        version.ifPresent(r -> {
+            entityCache.invalidate(r.get(MICA_ENTITIES.ID), r.get(MICA_ENTITIES.NAME));
+            notifyChangeListeners(tx, r.get(MICA_ENTITIES.NAME), r.get(MICA_ENTITIES.KIND));
+        });
+
         return version.map(r -> new EntityVersion(
                 new EntityId(r.get(MICA_ENTITIES.ID)),
                 r.get(MICA_ENTITIES.UPDATED_AT)));
@@ -225,9 +360,18 @@ public class EntityStore {
         var version = tx.update(MICA_ENTITIES)
                 .set(MICA_ENTITIES.DELETED_AT, currentInstant())
                 .where(MICA_ENTITIES.ID.eq(entityId.id()))
-                .returning(MICA_ENTITIES.ID, MICA_ENTITIES.UPDATED_AT, MICA_ENTITIES.DELETED_AT)
+                .returning(MICA_ENTITIES.ID,
+                        MICA_ENTITIES.NAME,
+                        MICA_ENTITIES.KIND,
+                        MICA_ENTITIES.UPDATED_AT,
+                        MICA_ENTITIES.DELETED_AT)
                 .fetchOptional();
 
+        version.ifPresent(r -> {
+            entityCache.invalidate(r.get(MICA_ENTITIES.ID), r.get(MICA_ENTITIES.NAME));
+            notifyChangeListeners(tx, r.get(MICA_ENTITIES.NAME), r.get(MICA_ENTITIES.KIND));
+        });
+
         return version.map(r -> new DeletedEntityVersion(new EntityId(r.get(MICA_ENTITIES.ID)),
                 r.get(MICA_ENTITIES.UPDATED_AT),
                 r.get(MICA_ENTITIES.DELETED_AT)));
@@ -243,7 +387,7 @@ public class EntityStore {
             var notDeleted = MICA_ENTITIES.DELETED_AT.isNull();
             var notSystemEntities = MICA_ENTITIES.NAME.startsWith("/mica/").not();
 
-            var query = tx.select(MICA_ENTITIES.ID, MICA_ENTITIES.NAME, MICA_ENTITIES.UPDATED_AT)
+            var query = tx.select(MICA_ENTITIES.ID, MICA_ENTITIES.NAME, MICA_ENTITIES.KIND, MICA_ENTITIES.UPDATED_AT)
                     .from(MICA_ENTITIES)
                     .where(notDeleted
                             .and(notSystemEntities
@@ -255,14 +399,16 @@ public class EntityStore {
 
             var deletedAt = getDatabaseInstant(tx);
 
-            return query
+            var changes = new ArrayList<EntityChange>();
+            var result = query
                     .forUpdate()
                     .skipLocked()
                     .fetch()
                     .stream().flatMap(r -> {
                         var id = r.value1();
                         var name = r.value2();
-                        var updatedAt = r.value3();
+                        var kind = r.value3();
+                        var updatedAt = r.value4();
                         var rows = tx.update(MICA_ENTITIES)
                                 .set(MICA_ENTITIES.DELETED_AT, deletedAt)
                                 .where(MICA_ENTITIES.ID.eq(id)
@@ -271,10 +417,15 @@ public class EntityStore {
                         if (rows == 0) {
                             return Stream.empty();
                         }
+                        entityCache.invalidate(id, name);
+                        changes.add(new EntityChange(name, kind));
                         return Stream.of(new DeletedEntityVersionAndName(new EntityId(id), updatedAt, deletedAt, name));
                     })
                     .sorted(comparing(DeletedEntityVersionAndName::name))
                     .toList();
+
+            notifyChangeListeners(tx, changes);
+            return result;
         });
     }
 
@@ -320,7 +471,18 @@ public class EntityStore {
 
         var data = serializeData(entity.data());
 
-        return tx.insertInto(MICA_ENTITIES)
+        var changes = new ArrayList<EntityChange>(2);
+        if (!changeListeners.isEmpty() && entity.id().isPresent()) {
+            // the entity might've been renamed or changed its kind,
+            // the listeners should know about the previous name and kind too
+            tx.select(MICA_ENTITIES.NAME, MICA_ENTITIES.KIND)
+                    .from(MICA_ENTITIES)
+                    .where(MICA_ENTITIES.ID.eq(id))
+                    .fetchOptional()
+                    .ifPresent(r -> changes.add(new EntityChange(r.value1(), r.value2())));
+        }
+
+        var version = tx.insertInto(MICA_ENTITIES)
                 .set(MICA_ENTITIES.ID, id)
                 .set(MICA_ENTITIES.NAME, name)
                 .set(MICA_ENTITIES.KIND, entity.kind())
@@ -339,6 +501,263 @@ public class EntityStore {
                 .returning(MICA_ENTITIES.UPDATED_AT)
                 .fetchOptional()
                 .map(row -> new EntityVersion(new EntityId(id), row.getUpdatedAt()));
+
+        version.ifPresent(v -> {
+            entityCache.invalidate(id, name);
+            changes.add(new EntityChange(name, kind));
+            notifyChangeListeners(tx, changes);
+        });
+
+        return version;
+    }
+
+    public record BatchUpsertResult(List<EntityVersion> inserted,
+            List<EntityVersion> updated,
+            int unchanged,
+            List<String> conflicts,
+            Map<EntityId, String> writtenNames) {
+
+        public BatchUpsertResult {
+            requireNonNull(inserted);
+            requireNonNull(updated);
+            requireNonNull(conflicts);
+            requireNonNull(writtenNames);
+        }
+    }
+
+    /**
+     * Saves the entities that differ from what's already stored. Existing rows
+     * are locked and compared structurally (kind, name and data), only the new or
+     * changed entities are written, using multi-row upserts that share a single
+     * database timestamp.
+     * <p>
+     * Rows without an ID are matched with the existing entities by name. If any
+     * of the entities specifies {@code updatedAt} and it doesn't match the stored
+     * version, nothing is written and the entity names are returned in
+     * {@link BatchUpsertResult#conflicts()}.
+     */
+    public BatchUpsertResult upsertChanged(DSLContext tx, List<PartialEntity> entities) {
+        return upsertChanged(tx, entities, Map.of());
+    }
+
+    /**
+     * Same as {@link #upsertChanged(DSLContext, List)}, but also saves the
+     * original documents of the written entities. The documents are looked up by
+     * the (normalized) entity name and updated the same way as in
+     * {@link #upsert(DSLContext, PartialEntity, String)}.
+     */
+    public BatchUpsertResult upsertChanged(DSLContext tx, List<PartialEntity> entities, Map<String, String> docs) {
+        if (entities.isEmpty()) {
+            return new BatchUpsertResult(List.of(), List.of(), 0, List.of(), Map.of());
+        }
+
+        var names = new LinkedHashSet<String>();
+        for (var entity : entities) {
+            var name = normalizeName(entity.name());
+            if (!names.add(name)) {
+                throw new StoreException("Duplicate entity name: " + name);
+            }
+        }
+
+        var existingById = new HashMap<UUID, StoredEntity>();
+        var existingByName = new HashMap<String, StoredEntity>();
+        for (var chunk : chunks(List.copyOf(names))) {
+            fetchForUpdate(tx, MICA_ENTITIES.NAME.in(chunk).and(MICA_ENTITIES.DELETED_AT.isNull()))
+                    .forEach(e -> {
+                        existingById.put(e.id(), e);
+                        existingByName.put(e.name(), e);
+                    });
+        }
+        var missingIds = entities.stream()
+                .flatMap(e -> e.id().stream())
+                .map(EntityId::id)
+                .filter(id -> !existingById.containsKey(id))
+                .toList();
+        for (var chunk : chunks(missingIds)) {
+            fetchForUpdate(tx, MICA_ENTITIES.ID.in(chunk)).forEach(e -> existingById.put(e.id(), e));
+        }
+
+        var conflicts = new ArrayList<String>();
+        var unchanged = 0;
+        var inserts = new ArrayList<PendingWrite>();
+        var updates = new ArrayList<PendingWrite>();
+        for (var entity : entities) {
+            var name = normalizeName(entity.name());
+            var id = entity.id().map(EntityId::id)
+                    .or(() -> Optional.ofNullable(existingByName.get(name)).map(StoredEntity::id))
+                    .orElseGet(uuidGenerator::generate);
+            var existing = existingById.get(id);
+            if (existing == null) {
+                inserts.add(new PendingWrite(id, name, entity, docs.get(name), null));
+                continue;
+            }
+            if (entity.updatedAt().isPresent() && !entity.updatedAt().get().equals(existing.updatedAt())) {
+                conflicts.add(entity.name());
+                continue;
+            }
+            if (existing.deletedAt() == null
+                    && existing.name().equals(name)
+                    && existing.kind().equals(entity.kind())
+                    && existing.data().equals(entity.data())) {
+                unchanged++;
+                continue;
+            }
+            updates.add(new PendingWrite(id, name, entity, docs.get(name), existing));
+        }
+
+        if (!conflicts.isEmpty()) {
+            return new BatchUpsertResult(List.of(), List.of(), 0, conflicts, Map.of());
+        }
+
+        var namesToWrite = Stream.concat(inserts.stream(), updates.stream())
+                .map(PendingWrite::name)
+                .collect(Collectors.toCollection(TreeSet::new));
+        assertNamesAreNotUsedAsPaths(tx, namesToWrite);
+
+        Instant updatedAt = namesToWrite.isEmpty() ? null : getDatabaseInstant(tx);
+        var changes = new ArrayList<EntityChange>();
+        var inserted = writeAll(tx, inserts, updatedAt, changes);
+        var updated = writeAll(tx, updates, updatedAt, changes);
+        notifyChangeListeners(tx, changes);
+        var writtenNames = new HashMap<EntityId, String>(inserts.size() + updates.size());
+        Stream.concat(inserts.stream(), updates.stream())
+                .forEach(write -> writtenNames.put(new EntityId(write.id()), write.name()));
+        return new BatchUpsertResult(inserted, updated, unchanged, List.of(), writtenNames);
+    }
+
+    private List<StoredEntity> fetchForUpdate(DSLContext tx, Condition condition) {
+        return tx.select(MICA_ENTITIES.ID,
+                MICA_ENTITIES.NAME,
+                MICA_ENTITIES.KIND,
+                MICA_ENTITIES.UPDATED_AT,
+                MICA_ENTITIES.DELETED_AT,
+                MICA_ENTITIES.DATA)
+                .from(MICA_ENTITIES)
+                .where(condition)
+                .forUpdate()
+                .fetch(r -> new StoredEntity(r.value1(), r.value2(), r.value3(), r.value4(), r.value5(),
+                        deserializeData(r.value6())));
+    }
+
+    private void assertNamesAreNotUsedAsPaths(DSLContext tx, NavigableSet<String> names) {
+        // the same rule as in upsert(), but checked for the whole batch at once,
+        // including the names within the batch itself
+        for (var name : names) {
+            // the names that start with "name/", '0' is the next character after '/'
+            if (!names.subSet(name + "/", true, name + "0", false).isEmpty()) {
+                throw new StoreException(name + " is a folder, cannot create an entity with the same name");
+            }
+        }
+        for (var chunk : chunks(List.copyOf(names))) {
+            var conditions = chunk.stream()
+                    .map(name -> MICA_ENTITIES.NAME.startsWith(name + "/"))
+                    .toList();
+            tx.select(MICA_ENTITIES.NAME)
+                    .from(MICA_ENTITIES)
+                    .where(MICA_ENTITIES.DELETED_AT.isNull().and(DSL.or(conditions)))
+                    .limit(1)
+                    .fetchOptional(MICA_ENTITIES.NAME)
+                    .ifPresent(path -> {
+                        var name = chunk.stream().filter(n -> path.startsWith(n + "/")).findFirst().orElse(path);
+                        throw new StoreException(name + " is a folder, cannot create an entity with the same name");
+                    });
+        }
+    }
+
+    private List<EntityVersion> writeAll(DSLContext tx,
+                                         List<PendingWrite> writes,
+                                         Instant updatedAt,
+                                         List<EntityChange> changes) {
+        if (writes.isEmpty()) {
+            return List.of();
+        }
+
+        var versions = new ArrayList<EntityVersion>(writes.size());
+        for (var chunk : chunks(writes)) {
+            var insert = tx.insertInto(MICA_ENTITIES,
+                    MICA_ENTITIES.ID,
+                    MICA_ENTITIES.NAME,
+                    MICA_ENTITIES.KIND,
+                    MICA_ENTITIES.DATA,
+                    MICA_ENTITIES.DOC,
+                    MICA_ENTITIES.CREATED_AT,
+                    MICA_ENTITIES.UPDATED_AT);
+            for (var write : chunk) {
+                var entity = write.entity();
+                var createdAt = entity.createdAt().orElse(updatedAt);
+                var doc = write.doc();
+                if (doc != null) {
+                    doc = inplaceUpdate(doc,
+                            "id", objectMapper.convertValue(write.id(), String.class),
+                            "name", write.name(),
+                            "kind", entity.kind(),
+                            "createdAt", objectMapper.convertValue(createdAt, String.class),
+                            "updatedAt", objectMapper.convertValue(updatedAt, String.class));
+                }
+                insert = insert.values(write.id(),
+                        write.name(),
+                        entity.kind(),
+                        serializeData(entity.data()),
+                        doc,
+                        createdAt,
+                        updatedAt);
+            }
+            insert.onConflict(MICA_ENTITIES.ID)
+                    .doUpdate()
+                    .set(MICA_ENTITIES.NAME, DSL.excluded(MICA_ENTITIES.NAME))
+                    .set(MICA_ENTITIES.KIND, DSL.excluded(MICA_ENTITIES.KIND))
+                    .set(MICA_ENTITIES.DATA, DSL.excluded(MICA_ENTITIES.DATA))
+                    .set(MICA_ENTITIES.DOC, DSL.excluded(MICA_ENTITIES.DOC))
+                    .set(MICA_ENTITIES.UPDATED_AT, DSL.excluded(MICA_ENTITIES.UPDATED_AT))
+                    .execute();
+
+            for (var write : chunk) {
+                var previous = write.previous();
+                if (previous != null) {
+                    // the entity might've been renamed or changed its kind,
+                    // the listeners should know about the previous name and kind too
+                    changes.add(new EntityChange(previous.name(), previous.kind()));
+                }
+                entityCache.invalidate(write.id(), write.name());
+                changes.add(new EntityChange(write.name(), write.entity().kind()));
+                versions.add(new EntityVersion(new EntityId(write.id()), updatedAt));
+            }
+        }
+        return versions;
+    }
+
+    private static <T> List<List<T>> chunks(List<T> items) {
+        var result = new ArrayList<List<T>>((items.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+        for (int i = 0; i < items.size(); i += BATCH_SIZE) {
+            result.add(items.subList(i, Math.min(i + BATCH_SIZE, items.size())));
+        }
+        return result;
+    }
+
+    private record StoredEntity(UUID id,
+            String name,
+            String kind,
+            Instant updatedAt,
+            @Nullable Instant deletedAt,
+            Map<String, JsonNode> data) {
+    }
+
+    private record PendingWrite(UUID id,
+            String name,
+            PartialEntity entity,
+            @Nullable String doc,
+            @Nullable StoredEntity previous) {
+    }
+
+    private void notifyChangeListeners(DSLContext tx, String entityName, String entityKind) {
+        notifyChangeListeners(tx, List.of(new EntityChange(entityName, entityKind)));
+    }
+
+    private void notifyChangeListeners(DSLContext tx, List<EntityChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        changeListeners.forEach(l -> l.onEntityChanges(tx, changes));
     }
 
     private Entity toEntity(Record7<UUID, String, String, Instant, Instant, Instant, JSONB> record) {
@@ -353,6 +772,14 @@ public class EntityStore {
         }
     }
 
+    private Map<String, JsonNode> deserializeData(JSONB data) {
+        try {
+            return objectMapper.readValue(data.data(), PROPERTIES_TYPE);
+        } catch (IOException e) {
+            throw new StoreException("JSON deserialization error, most likely a bug: " + e.getMessage(), e);
+        }
+    }
+
     private boolean isNameUsedAsPathElsewhere(DSLContext tx, String name) {
         // this method should NOT return "deleted" entities
         var path = name + "/";
@@ -24,23 +24,35 @@ import ca.ibodrov.mica.api.model.EntityLike;
 import ca.ibodrov.mica.db.MicaDB;
 import ca.ibodrov.mica.server.exceptions.StoreException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.jooq.DSLContext;
-import org.jooq.JSONB;
-import org.jooq.Record6;
-import org.jooq.Record7;
+import com.google.common.annotations.VisibleForTesting;
+import org.jooq.*;
+import org.jooq.impl.DSL;
 
 import javax.inject.Inject;
 import java.net.URI;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static ca.ibodrov.mica.db.jooq.Tables.MICA_ENTITIES;
 import static java.util.Objects.requireNonNull;
+import static org.jooq.impl.DSL.noCondition;
+import static org.jooq.impl.DSL.or;
 
 public class InternalEntityFetcher implements EntityFetcher {
 
     private static final URI DEFAULT_URI = URI.create("mica://internal");
+    private static final int FETCH_SIZE = 100;
+    private static final Duration QUERY_TIMEOUT = Duration.ofMinutes(2);
+    // literal characters, quantifiers, groups, alternatives, character classes
+    // and escaped punctuation
+    private static final Pattern PORTABLE_REGEX = Pattern.compile("([\\w/\\-.*+?|()\\[\\]{},:@ ^$]|\\\\[^\\w\\s])*");
 
     private final DSLContext dsl;
     private final ObjectMapper objectMapper;
@@ -69,19 +81,81 @@ public class InternalEntityFetcher implements EntityFetcher {
         // this method should NOT return "deleted" entities
 
         var kind = request.kind().orElseThrow(() -> new StoreException("selector.entityKind is required"));
+        return () -> stream(kind, request.namePatterns());
+    }
+
+    /**
+     * Returns a stream that holds the underlying connection until closed.
+     * PostgreSQL fetches rows in batches only within a transaction, so each
+     * stream runs in its own transaction. The transaction is rolled back (nothing
+     * is written) and the connection is released when the stream is closed.
+     */
+    private Stream<EntityLike> stream(String kind, Optional<List<String>> namePatterns) {
+        var connectionProvider = dsl.configuration().connectionProvider();
+        var connection = connectionProvider.acquire();
+        try {
+            connection.setAutoCommit(false);
+            var tx = DSL.using(dsl.configuration().derive(connection));
+            return tx.select(MICA_ENTITIES.ID,
+                    MICA_ENTITIES.NAME,
+                    MICA_ENTITIES.KIND,
+                    MICA_ENTITIES.CREATED_AT,
+                    MICA_ENTITIES.UPDATED_AT,
+                    MICA_ENTITIES.DELETED_AT, // should be null
+                    MICA_ENTITIES.DATA)
+                    .from(MICA_ENTITIES)
+                    .where(MICA_ENTITIES.DELETED_AT.isNull()
+                            .and(MICA_ENTITIES.KIND.likeRegex(kind))
+                            .and(nameCondition(namePatterns)))
+                    .fetchSize(FETCH_SIZE)
+                    // JDBC calls are not interruptible, limit the query time instead
+                    .queryTimeout((int) QUERY_TIMEOUT.toSeconds())
+                    .fetchStream()
+                    .map(this::toEntity)
+                    .onClose(() -> release(connectionProvider, connection));
+        } catch (SQLException e) {
+            release(connectionProvider, connection);
+            throw new StoreException("Error while fetching entities: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            release(connectionProvider, connection);
+            throw e;
+        }
+    }
+
+    private static void release(ConnectionProvider connectionProvider, Connection connection) {
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new StoreException("Error while releasing a connection: " + e.getMessage(), e);
+        } finally {
+            connectionProvider.release(connection);
+        }
+    }
+
+    /**
+     * Converts the name patterns into a SQL condition. Java and PostgreSQL regex
+     * flavors differ, so the patterns are pushed down only if all of them use the
+     * common subset of the syntax. Otherwise, all names are selected and the
+     * caller does the filtering.
+     */
+    private static Condition nameCondition(Optional<List<String>> namePatterns) {
+        if (namePatterns.isEmpty() || namePatterns.get().isEmpty()
+                || !namePatterns.get().stream().allMatch(InternalEntityFetcher::isPortableRegex)) {
+            return noCondition();
+        }
+        // Java patterns are matched against the whole name, PostgreSQL's "~" looks
+        // for a match anywhere in the string
+        return or(namePatterns.get().stream()
+                .map(regex -> MICA_ENTITIES.NAME.likeRegex("^(?:" + regex + ")$"))
+                .toList());
+    }
 
-        var query = dsl.select(MICA_ENTITIES.ID,
-                MICA_ENTITIES.NAME,
-                MICA_ENTITIES.KIND,
-                MICA_ENTITIES.CREATED_AT,
-                MICA_ENTITIES.UPDATED_AT,
-                MICA_ENTITIES.DELETED_AT, // should be null
-                MICA_ENTITIES.DATA)
-                .from(MICA_ENTITIES)
-                .where(MICA_ENTITIES.DELETED_AT.isNull()
-                        .and(MICA_ENTITIES.KIND.likeRegex(kind)));
-
-        return () -> query.fetch(this::toEntity).stream();
+    @VisibleForTesting
+    static boolean isPortableRegex(String regex) {
+        return PORTABLE_REGEX.matcher(regex).matches()
+                && !regex.contains("(?")
+                && !regex.contains("[:");
     }
 
     private EntityLike toEntity(Record7<UUID, String, String, Instant, Instant, Instant, JSONB> record) {
@@ -22,6 +22,7 @@ package ca.ibodrov.mica.server.data;
 
 import ca.ibodrov.mica.server.exceptions.ApiException;
 import ca.ibodrov.mica.server.exceptions.ViewProcessorException;
+import com.google.common.annotations.VisibleForTesting;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.NullNode;
@@ -50,6 +51,31 @@ public class JsonPathEvaluator {
                 .build());
     }
 
+    /**
+     * Parses the given JSON path expression. The result can be applied multiple
+     * times using {@link #apply(JsonNode, CompiledJsonPath)}.
+     * <p/>
+     * Expressions supported by {@link NativeJsonPath} are evaluated directly on
+     * the Jackson tree, everything else goes through Jayway.
+     */
+    public CompiledJsonPath compile(String jsonPath) {
+        try {
+            var path = JsonPath.compile(jsonPath);
+            return new CompiledJsonPath(jsonPath, path, NativeJsonPath.compile(jsonPath));
+        } catch (IllegalArgumentException | JsonPathException e) {
+            throw new JsonPathException("%s (%s)".formatted(e.getMessage(), jsonPath));
+        }
+    }
+
+    public CompiledJsonPath compileInApiCall(String jsonPath) {
+        try {
+            return compile(jsonPath);
+        } catch (JsonPathException e) {
+            throw ApiException
+                    .badRequest("Error while processing JSON path: " + e.getMessage());
+        }
+    }
+
     public Optional<JsonNode> applyInApiCall(JsonNode data,
                                              String jsonPath) {
         try {
@@ -60,14 +86,40 @@ public class JsonPathEvaluator {
         }
     }
 
+    public Optional<JsonNode> applyInApiCall(JsonNode data,
+                                             CompiledJsonPath jsonPath) {
+        try {
+            return apply(data, jsonPath);
+        } catch (JsonPathException e) {
+            throw ApiException
+                    .badRequest("Error while processing JSON path: " + e.getMessage());
+        }
+    }
+
     public Optional<JsonNode> apply(JsonNode data, String jsonPath) {
+        return apply(data, compile(jsonPath));
+    }
+
+    public Optional<JsonNode> apply(JsonNode data, CompiledJsonPath jsonPath) {
+        if (data != null && jsonPath.nativePath().isPresent()) {
+            try {
+                return jsonPath.nativePath().get().evaluate(data);
+            } catch (NativeJsonPath.Unsupported e) {
+                // let Jayway handle (or report) it
+            }
+        }
+        return applyWithJayway(data, jsonPath);
+    }
+
+    @VisibleForTesting
+    Optional<JsonNode> applyWithJayway(JsonNode data, CompiledJsonPath jsonPath) {
         Object result;
         try {
-            result = parseContext.parse(data).read(jsonPath);
+            result = parseContext.parse(data).read(jsonPath.path());
         } catch (PathNotFoundException e) {
             return Optional.empty();
         } catch (IllegalArgumentException | JsonPathException e) {
-            throw new JsonPathException("%s (%s)".formatted(e.getMessage(), jsonPath));
+            throw new JsonPathException("%s (%s)".formatted(e.getMessage(), jsonPath.expression()));
         }
         if (result == null || result instanceof NullNode) {
             return Optional.empty();
@@ -82,6 +134,12 @@ public class JsonPathEvaluator {
         return Optional.of((JsonNode) result);
     }
 
+    /**
+     * A parsed JSON path expression. Immutable and safe to share between threads.
+     */
+    public record CompiledJsonPath(String expression, JsonPath path, Optional<NativeJsonPath> nativePath) {
+    }
+
     private static class MicaJsonProvider extends JacksonJsonNodeJsonProvider {
 
         public MicaJsonProvider(ObjectMapper objectMapper) {
@@ -0,0 +1,688 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A JSON path expression evaluated directly on Jackson trees.
+ * <p/>
+ * Supports the commonly used subset of the Jayway syntax: child properties
+ * ({@code .name}, {@code ['name']}), array indexes, wildcards, slices without a
+ * step, recursive descent into a property ({@code ..name}) and filters made of
+ * {@code @.path <op> literal} comparisons or {@code @.path} existence checks
+ * combined with {@code &&} and {@code ||}. The results are the same as the
+ * results of {@link JsonPathEvaluator}'s Jayway configuration
+ * ({@code DEFAULT_PATH_LEAF_TO_NULL}): definite paths return the value or
+ * nothing, indefinite paths return an array of matches.
+ * <p/>
+ * Expressions outside of the subset are not compiled. Data that would make
+ * Jayway fail or behave in a way that isn't replicated here results in
+ * {@link Unsupported}, the caller is expected to fall back to Jayway in both
+ * cases.
+ */
+public final class NativeJsonPath {
+
+    private final String expression;
+    private final Segment[] segments;
+    private final int firstIndefinite;
+
+    private NativeJsonPath(String expression, List<Segment> segments) {
+        this.expression = requireNonNull(expression);
+        this.segments = segments.toArray(Segment[]::new);
+        var firstIndefinite = this.segments.length;
+        for (var i = 0; i < this.segments.length; i++) {
+            if (!(this.segments[i] instanceof Property) && !(this.segments[i] instanceof Index)) {
+                firstIndefinite = i;
+                break;
+            }
+        }
+        this.firstIndefinite = firstIndefinite;
+    }
+
+    /**
+     * Compiles the given expression, returns an empty value if the expression is
+     * not supported.
+     */
+    public static Optional<NativeJsonPath> compile(String expression) {
+        try {
+            return Optional.of(new NativeJsonPath(expression, new Parser(expression).parse()));
+        } catch (Unsupported e) {
+            return Optional.empty();
+        }
+    }
+
+    public String expression() {
+        return expression;
+    }
+
+    /**
+     * @throws Unsupported if the data can't be processed natively
+     */
+    public Optional<JsonNode> evaluate(JsonNode root) {
+        // walk the definite prefix of the path without allocating anything
+        var current = root;
+        for (var i = 0; i < firstIndefinite; i++) {
+            current = step(segments[i], current);
+            if (current == null) {
+                return Optional.empty();
+            }
+        }
+
+        if (firstIndefinite == segments.length) {
+            return current.isNull() ? Optional.empty() : Optional.of(current);
+        }
+
+        var result = JsonNodeFactory.instance.arrayNode();
+        if (!collect(firstIndefinite, current, true, result)) {
+            return Optional.empty();
+        }
+        return Optional.of(result);
+    }
+
+    /**
+     * Applies a definite segment. Returns {@code null} if the path doesn't exist
+     * and {@link NullNode} if the value is {@code null} or the index is out of
+     * bounds.
+     */
+    private static JsonNode step(Segment segment, JsonNode model) {
+        if (segment instanceof Property property) {
+            if (!(model instanceof ObjectNode object)) {
+                return null;
+            }
+            return object.get(property.name());
+        }
+        var index = (Index) segment;
+        if (!(model instanceof ArrayNode array)) {
+            return null;
+        }
+        var value = array.get(index.effectiveIndex(array.size()));
+        return value != null ? value : NullNode.getInstance();
+    }
+
+    /**
+     * Applies the segment {@code i} and the rest of the path to the model, adds
+     * the matches to the result. Returns {@code false} if the path doesn't exist,
+     * which is only possible while the upstream segments are definite.
+     */
+    private boolean collect(int i, JsonNode model, boolean upstreamDefinite, ArrayNode result) {
+        var segment = segments[i];
+        if (segment instanceof Property property) {
+            if (model instanceof ObjectNode object) {
+                var value = object.get(property.name());
+                if (value != null) {
+                    emit(i, value, result);
+                } else if (i == segments.length - 1) {
+                    result.addNull();
+                }
+            }
+        } else if (segment instanceof Index index) {
+            if (model instanceof ArrayNode array) {
+                var value = array.get(index.effectiveIndex(array.size()));
+                emit(i, value != null ? value : NullNode.getInstance(), result);
+            }
+        } else if (segment instanceof Wildcard) {
+            if (model instanceof ObjectNode || model instanceof ArrayNode) {
+                for (var value : model) {
+                    emit(i, value, result);
+                }
+            }
+        } else if (segment instanceof Slice slice) {
+            if (!(model instanceof ArrayNode array)) {
+                return !upstreamDefinite;
+            }
+            var size = array.size();
+            for (var idx = slice.start(size); idx < slice.end(size); idx++) {
+                emit(i, array.get(idx), result);
+            }
+        } else if (segment instanceof Scan scan) {
+            scan(i, scan.name(), model, result);
+        } else if (segment instanceof Filter filter) {
+            if (model instanceof ObjectNode) {
+                if (filter.test(model)) {
+                    emit(i, model, result);
+                }
+            } else if (model instanceof ArrayNode array) {
+                for (var value : array) {
+                    if (filter.test(value)) {
+                        emit(i, value, result);
+                    }
+                }
+            } else if (upstreamDefinite) {
+                // Jayway reports an error when a filter is applied to a primitive value
+                throw Unsupported.INSTANCE;
+            }
+        }
+        return true;
+    }
+
+    private void emit(int i, JsonNode value, ArrayNode result) {
+        if (i == segments.length - 1) {
+            result.add(value);
+        } else {
+            collect(i + 1, value, false, result);
+        }
+    }
+
+    private void scan(int i, String name, JsonNode model, ArrayNode result) {
+        if (model instanceof ObjectNode object) {
+            var value = object.get(name);
+            if (value != null) {
+                emit(i, value, result);
+            } else if (i == segments.length - 1) {
+                // same as Jayway, every object without the property contributes a null
+                result.addNull();
+            }
+            for (var child : object) {
+                scan(i, name, child, result);
+            }
+        } else if (model instanceof ArrayNode array) {
+            for (var child : array) {
+                scan(i, name, child, result);
+            }
+        }
+    }
+
+    /**
+     * Thrown when the expression or the data can't be processed natively.
+     */
+    public static final class Unsupported extends RuntimeException {
+
+        private static final Unsupported INSTANCE = new Unsupported();
+
+        private Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private sealed interface Segment permits Property, Index, Wildcard, Slice, Scan, Filter {
+    }
+
+    private record Property(String name) implements Segment {
+    }
+
+    private record Index(int index) implements Segment {
+
+        int effectiveIndex(int size) {
+            return index < 0 ? size + index : index;
+        }
+    }
+
+    private record Wildcard() implements Segment {
+    }
+
+    /**
+     * Jayway's slice semantics: negative bounds are relative to the end of the
+     * array, except when both bounds are specified.
+     */
+    private record Slice(Integer from, Integer to) implements Segment {
+
+        int start(int size) {
+            if (from == null) {
+                return 0;
+            }
+            return Math.max(0, from < 0 ? size + from : from);
+        }
+
+        int end(int size) {
+            if (to == null) {
+                return size;
+            }
+            return Math.min(size, to < 0 && from == null ? size + to : to);
+        }
+    }
+
+    private record Scan(String name) implements Segment {
+    }
+
+    /**
+     * A disjunction of conjunctions of predicates, i.e. {@code a && b || c}.
+     */
+    private record Filter(List<List<Predicate>> anyOf) implements Segment {
+
+        boolean test(JsonNode item) {
+            for (var allOf : anyOf) {
+                var matches = true;
+                for (var predicate : allOf) {
+                    if (!predicate.test(item)) {
+                        matches = false;
+                        break;
+                    }
+                }
+                if (matches) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private sealed interface Predicate permits Exists, Comparison {
+
+        boolean test(JsonNode item);
+    }
+
+    private record Exists(String[] path) implements Predicate {
+
+        @Override
+        public boolean test(JsonNode item) {
+            var current = item;
+            for (var name : path) {
+                if (!(current instanceof ObjectNode object)) {
+                    return false;
+                }
+                current = object.get(name);
+                if (current == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private enum Operator {
+        EQ, NE, LT, LE, GT, GE
+    }
+
+    private sealed interface Literal permits StringLiteral, NumberLiteral, BooleanLiteral {
+    }
+
+    /**
+     * @param number the value parsed as a number, Jayway compares numbers to
+     *               strings that way; {@code null} if the value is not a number
+     */
+    private record StringLiteral(String value, BigDecimal number) implements Literal {
+    }
+
+    private record NumberLiteral(BigDecimal value) implements Literal {
+    }
+
+    private record BooleanLiteral(boolean value) implements Literal {
+    }
+
+    private record Comparison(String[] path, Operator operator, Literal literal) implements Predicate {
+
+        @Override
+        public boolean test(JsonNode item) {
+            // a missing leaf resolves to null (DEFAULT_PATH_LEAF_TO_NULL), a missing
+            // intermediate property resolves to "undefined". Neither of them is equal
+            // to a non-null literal
+            var left = resolve(item);
+            var number = left != null && left.isNumber() ? toBigDecimal(left) : null;
+            if (left != null && number == null && !left.isTextual() && !left.isBoolean() && !left.isNull()) {
+                // Jayway converts objects and arrays using its own mapping provider
+                throw Unsupported.INSTANCE;
+            }
+
+            if (operator == Operator.EQ) {
+                return left != null && isEqual(left, number);
+            }
+            if (operator == Operator.NE) {
+                return left == null || !isEqual(left, number);
+            }
+
+            int result;
+            if (left != null && left.isTextual() && literal instanceof StringLiteral s) {
+                result = left.textValue().compareTo(s.value());
+            } else if (number != null && literal instanceof NumberLiteral n) {
+                result = number.compareTo(n.value());
+            } else {
+                return false;
+            }
+            return switch (operator) {
+                case LT -> result < 0;
+                case LE -> result <= 0;
+                case GT -> result > 0;
+                case GE -> result >= 0;
+                default -> throw new IllegalStateException("Unexpected operator: " + operator);
+            };
+        }
+
+        private JsonNode resolve(JsonNode item) {
+            var current = item;
+            for (var i = 0; i < path.length; i++) {
+                if (!(current instanceof ObjectNode object)) {
+                    return null;
+                }
+                current = object.get(path[i]);
+                if (current == null) {
+                    return i == path.length - 1 ? NullNode.getInstance() : null;
+                }
+            }
+            return current;
+        }
+
+        private boolean isEqual(JsonNode left, BigDecimal number) {
+            if (left.isTextual()) {
+                if (literal instanceof StringLiteral s) {
+                    return left.textValue().equals(s.value());
+                }
+                // Jayway compares strings to numbers as strings
+                return literal instanceof NumberLiteral n && left.textValue().equals(n.value().toString());
+            }
+            if (number != null) {
+                if (literal instanceof NumberLiteral n) {
+                    return number.compareTo(n.value()) == 0;
+                }
+                // ...and numbers to strings as numbers
+                return literal instanceof StringLiteral s && s.number() != null && number.compareTo(s.number()) == 0;
+            }
+            return left.isBoolean() && literal instanceof BooleanLiteral b && left.booleanValue() == b.value();
+        }
+
+        private static BigDecimal toBigDecimal(JsonNode node) {
+            if (node.isInt() || node.isLong()) {
+                return BigDecimal.valueOf(node.longValue());
+            }
+            if (node.isBigDecimal()) {
+                return node.decimalValue();
+            }
+            if (node.isDouble() && Double.isFinite(node.doubleValue())) {
+                return new BigDecimal(Double.toString(node.doubleValue()));
+            }
+            if (node.isFloat() && Float.isFinite(node.floatValue())) {
+                return new BigDecimal(Float.toString(node.floatValue()));
+            }
+            // Jayway doesn't unwrap other numeric nodes (BigInteger, short) and fails
+            throw Unsupported.INSTANCE;
+        }
+    }
+
+    private static final class Parser {
+
+        private final String s;
+        private int pos;
+
+        private Parser(String s) {
+            this.s = requireNonNull(s);
+        }
+
+        List<Segment> parse() {
+            expect('$');
+            var segments = new ArrayList<Segment>();
+            while (pos < s.length()) {
+                var c = s.charAt(pos);
+                if (c == '.' && peek(1) == '.') {
+                    pos += 2;
+                    if (peek(0) == '[') {
+                        // only quoted properties can be scanned natively, e.g. $..['a']
+                        if (peek(1) != '\'' && peek(1) != '"') {
+                            throw Unsupported.INSTANCE;
+                        }
+                        segments.add(new Scan(readQuotedProperty().name()));
+                    } else {
+                        segments.add(new Scan(readName()));
+                    }
+                } else if (c == '.') {
+                    pos++;
+                    if (peek(0) == '*') {
+                        pos++;
+                        segments.add(new Wildcard());
+                    } else {
+                        segments.add(new Property(readName()));
+                    }
+                } else if (c == '[') {
+                    segments.add(readBracket());
+                } else {
+                    throw Unsupported.INSTANCE;
+                }
+                if (pos < s.length() && s.charAt(pos) != '.' && s.charAt(pos) != '[') {
+                    throw Unsupported.INSTANCE;
+                }
+            }
+            return segments;
+        }
+
+        private String readName() {
+            var start = pos;
+            while (pos < s.length()) {
+                var c = s.charAt(pos);
+                if (c == '.' || c == '[') {
+                    break;
+                }
+                if (c == '(' || c == ' ' || c == '*') {
+                    // functions, errors and other things left to Jayway
+                    throw Unsupported.INSTANCE;
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw Unsupported.INSTANCE;
+            }
+            return s.substring(start, pos);
+        }
+
+        private Property readQuotedProperty() {
+            expect('[');
+            var name = readQuoted();
+            expect(']');
+            return new Property(name);
+        }
+
+        private Segment readBracket() {
+            var c = peek(1);
+            if (c == '\'' || c == '"') {
+                return readQuotedProperty();
+            }
+            if (c == '*') {
+                pos += 2;
+                expect(']');
+                return new Wildcard();
+            }
+            if (c == '?') {
+                pos += 2;
+                expect('(');
+                var filter = readFilter();
+                expect(')');
+                expect(']');
+                return filter;
+            }
+
+            var end = s.indexOf(']', pos);
+            if (end < 0) {
+                throw Unsupported.INSTANCE;
+            }
+            var content = s.substring(pos + 1, end);
+            pos = end + 1;
+            if (content.matches("-?\\d+")) {
+                return new Index(parseInt(content));
+            }
+            if (content.matches("(-?\\d+)?:(-?\\d+)?")) {
+                var colon = content.indexOf(':');
+                Integer from = colon > 0 ? parseInt(content.substring(0, colon)) : null;
+                Integer to = colon < content.length() - 1 ? parseInt(content.substring(colon + 1)) : null;
+                if (from == null && to == null || from != null && to != null && (from < 0 || to < 0)) {
+                    throw Unsupported.INSTANCE;
+                }
+                return new Slice(from, to);
+            }
+            throw Unsupported.INSTANCE;
+        }
+
+        private Filter readFilter() {
+            var anyOf = new ArrayList<List<Predicate>>();
+            var allOf = new ArrayList<Predicate>();
+            while (true) {
+                allOf.add(readPredicate());
+                skipWhitespace();
+                if (s.startsWith("&&", pos)) {
+                    pos += 2;
+                } else if (s.startsWith("||", pos)) {
+                    pos += 2;
+                    anyOf.add(List.copyOf(allOf));
+                    allOf.clear();
+                } else {
+                    anyOf.add(List.copyOf(allOf));
+                    return new Filter(List.copyOf(anyOf));
+                }
+            }
+        }
+
+        private Predicate readPredicate() {
+            skipWhitespace();
+            expect('@');
+            var path = new ArrayList<String>();
+            while (true) {
+                if (peek(0) == '.' && isIdentifier(peek(1))) {
+                    pos++;
+                    var start = pos;
+                    while (isIdentifier(peek(0))) {
+                        pos++;
+                    }
+                    path.add(s.substring(start, pos));
+                } else if (peek(0) == '[' && (peek(1) == '\'' || peek(1) == '"')) {
+                    path.add(readQuotedProperty().name());
+                } else {
+                    break;
+                }
+            }
+            if (path.isEmpty()) {
+                throw Unsupported.INSTANCE;
+            }
+
+            skipWhitespace();
+            var operator = readOperator();
+            if (operator == null) {
+                return new Exists(path.toArray(String[]::new));
+            }
+            skipWhitespace();
+            return new Comparison(path.toArray(String[]::new), operator, readLiteral());
+        }
+
+        private Operator readOperator() {
+            Operator operator;
+            if (s.startsWith("==", pos)) {
+                operator = Operator.EQ;
+            } else if (s.startsWith("!=", pos)) {
+                operator = Operator.NE;
+            } else if (s.startsWith("<=", pos)) {
+                operator = Operator.LE;
+            } else if (s.startsWith(">=", pos)) {
+                operator = Operator.GE;
+            } else if (peek(0) == '<') {
+                pos++;
+                return Operator.LT;
+            } else if (peek(0) == '>') {
+                pos++;
+                return Operator.GT;
+            } else if (peek(0) == ')' || s.startsWith("&&", pos) || s.startsWith("||", pos)) {
+                return null;
+            } else {
+                throw Unsupported.INSTANCE;
+            }
+            pos += 2;
+            if (peek(0) == '=') {
+                // ===, !==, etc.
+                throw Unsupported.INSTANCE;
+            }
+            return operator;
+        }
+
+        private Literal readLiteral() {
+            var c = peek(0);
+            if (c == '\'' || c == '"') {
+                var value = readQuoted();
+                BigDecimal number;
+                try {
+                    number = new BigDecimal(value);
+                } catch (NumberFormatException e) {
+                    number = null;
+                }
+                return new StringLiteral(value, number);
+            }
+            if (s.startsWith("true", pos) && isDelimiter(peek(4))) {
+                pos += 4;
+                return new BooleanLiteral(true);
+            }
+            if (s.startsWith("false", pos) && isDelimiter(peek(5))) {
+                pos += 5;
+                return new BooleanLiteral(false);
+            }
+            var start = pos;
+            while (pos < s.length() && "-0123456789.eE".indexOf(s.charAt(pos)) >= 0) {
+                pos++;
+            }
+            var value = s.substring(start, pos);
+            if (!value.matches("-?\\d+(\\.\\d+)?") || !isDelimiter(peek(0))) {
+                throw Unsupported.INSTANCE;
+            }
+            return new NumberLiteral(new BigDecimal(value));
+        }
+
+        private String readQuoted() {
+            var quote = peek(0);
+            var end = s.indexOf(quote, pos + 1);
+            if (end < 0) {
+                throw Unsupported.INSTANCE;
+            }
+            var value = s.substring(pos + 1, end);
+            if (value.indexOf('\\') >= 0 || value.indexOf('\'') >= 0 || value.indexOf('"') >= 0
+                    || value.indexOf(',') >= 0) {
+                // escapes and multiple properties are left to Jayway
+                throw Unsupported.INSTANCE;
+            }
+            pos = end + 1;
+            return value;
+        }
+
+        private void skipWhitespace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private void expect(char c) {
+            if (peek(0) != c) {
+                throw Unsupported.INSTANCE;
+            }
+            pos++;
+        }
+
+        private char peek(int offset) {
+            var i = pos + offset;
+            return i < s.length() ? s.charAt(i) : 0;
+        }
+
+        private static int parseInt(String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw Unsupported.INSTANCE;
+            }
+        }
+
+        private static boolean isIdentifier(char c) {
+            return c == '_' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+        }
+
+        private static boolean isDelimiter(char c) {
+            return c == 0 || c == ')' || c == '&' || c == '|' || Character.isWhitespace(c);
+        }
+    }
+}
@@ -61,14 +61,25 @@ public class Validator {
     }
 
     public ValidatedInput validateObject(JsonNode schema, JsonNode input) {
-        JsonSchema jsonSchema;
+        return validateObject(compile(schema), input);
+    }
+
+    /**
+     * Validates the input using a previously compiled schema, see
+     * {@link #compile(JsonNode)}. Compiled schemas are thread-safe and can be
+     * reused.
+     */
+    public ValidatedInput validateObject(JsonSchema schema, JsonNode input) {
+        var messages = schema.validate(input);
+        return new ValidatedInput(messages);
+    }
+
+    public JsonSchema compile(JsonNode schema) {
         try {
-            jsonSchema = jsonSchemaFactory.getSchema(schema);
+            return jsonSchemaFactory.getSchema(schema);
         } catch (JsonSchemaException e) {
             throw ApiException.badRequest("Invalid schema: " + e.getMessage());
         }
-        var messages = jsonSchema.validate(input);
-        return new ValidatedInput(messages);
     }
 
     private static class MicaSchemaLoader implements SchemaLoader {
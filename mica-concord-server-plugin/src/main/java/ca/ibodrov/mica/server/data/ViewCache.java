@@ -20,25 +20,71 @@ package ca.ibodrov.mica.server.data;
  * ======
  */
 
+import ca.ibodrov.mica.api.model.EntityVersion;
 import ca.ibodrov.mica.api.model.RenderViewRequest;
 import ca.ibodrov.mica.api.model.ViewLike;
 import ca.ibodrov.mica.api.model.ViewLike.Caching;
+import ca.ibodrov.mica.server.data.EntityChangeListener.EntityChange;
 import ca.ibodrov.mica.server.data.ViewRenderer.RenderOverrides;
+import ca.ibodrov.mica.server.exceptions.ApiException;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import org.checkerframework.checker.index.qual.NonNegative;
+import org.jooq.DSLContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
+import java.net.URI;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
-public interface ViewCache {
+import static ca.ibodrov.mica.server.data.BuiltinSchemas.INTERNAL_ENTITY_STORE_URI;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Caches rendered views. Entries expire after the view's {@code caching.ttl}
+ * or when an entity the view depends on is changed in the internal entity
+ * store (see {@link EntityChangeListener}). When a {@link ViewCacheStore} is
+ * used, the entries are invalidated once the change is committed. Results of
+ * the renders that were in progress during a change of an entity they depend
+ * on are not cached.
+ * <p/>
+ * If {@code caching.staleWhileRevalidate} is set, expired entries are kept for
+ * the specified period longer. During that period the stale value is returned
+ * immediately and the view is re-rendered in background.
+ * <p/>
+ * The in-memory implementation is bounded by the estimated size of the cached
+ * data and by the number of entries (i.e. sets of parameters) per view. It can
+ * use a {@link ViewCacheStore} as a second-level cache shared between Mica
+ * instances.
+ */
+public interface ViewCache extends EntityChangeListener {
 
     String DEFAULT_CACHE_ENABLED = "false";
     String DEFAULT_CACHE_TTL = "PT10S";
+    String DEFAULT_CACHE_STALE_WHILE_REVALIDATE = "PT0S";
 
     static ViewCache inMemory() {
-        return new InMemoryViewCache();
+        return new InMemoryViewCache(new MetricRegistry(), Optional.empty());
     }
 
     static ViewCache noop() {
@@ -46,21 +92,124 @@ public interface ViewCache {
     }
 
     RenderedView getOrRender(RenderViewRequest request,
+                             EntityVersion viewVersion,
                              RenderOverrides overrides,
                              ViewLike viewLike,
                              BiFunction<ViewLike, RenderOverrides, RenderedView> renderer);
 
+    /**
+     * Renders the view into the cache ahead of time, if the view has caching
+     * enabled and the cached entry is missing or becomes stale within the
+     * specified period. Returns {@code true} if the view was rendered.
+     */
+    boolean prewarm(RenderViewRequest request,
+                    EntityVersion viewVersion,
+                    ViewLike viewLike,
+                    Duration staleWithin,
+                    BiFunction<ViewLike, RenderOverrides, RenderedView> renderer);
+
     class InMemoryViewCache implements ViewCache {
 
-        private final Cache<CacheKey, RenderedView> cache;
+        private static final Logger log = LoggerFactory.getLogger(InMemoryViewCache.class);
+
+        private static final int REFRESH_THREADS = 4;
+        private static final int MAX_PENDING_REFRESHES = 256;
+        private static final long MAX_WEIGHT = 256L * 1024 * 1024;
+        private static final int MAX_ENTRIES_PER_VIEW = 64;
+        private static final int MAX_SHARED_WEIGHT = 16 * 1024 * 1024;
+        private static final String METRIC_PREFIX = "mica-view-cache";
+
+        private final Cache<CacheKey, CacheEntry> cache;
+        private final ConcurrentMap<CacheKey, Fill> refreshesInFlight;
+        private final ConcurrentMap<String, AtomicInteger> entriesPerView;
+        private final ExecutorService refreshExecutor;
+        private final Optional<ViewCacheStore> sharedStore;
+        // renders in progress, see Fill
+        private final Set<Fill> fillsInFlight;
+        private final Meter hits;
+        private final Meter staleHits;
+        private final Meter sharedHits;
+        private final Meter misses;
+        private final Meter evictions;
+        private final Meter rejections;
+        private final Timer loadTime;
 
-        public InMemoryViewCache() {
+        @Inject
+        public InMemoryViewCache(MetricRegistry metricRegistry, ViewCacheStore sharedStore) {
+            this(metricRegistry, Optional.of(sharedStore));
+            sharedStore.listen(this::invalidate, this::invalidateAll);
+        }
+
+        public InMemoryViewCache(MetricRegistry metricRegistry, Optional<ViewCacheStore> sharedStore) {
+            this.sharedStore = requireNonNull(sharedStore);
+            this.fillsInFlight = ConcurrentHashMap.newKeySet();
+            this.entriesPerView = new ConcurrentHashMap<>();
             this.cache = Caffeine.newBuilder()
+                    .maximumWeight(MAX_WEIGHT)
+                    .weigher((CacheKey key, CacheEntry entry) -> entry.weight())
                     .expireAfter(new RenderedViewExpiry())
+                    .removalListener(this::onRemoval)
                     .build();
+            this.refreshesInFlight = new ConcurrentHashMap<>();
+            var executor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS,
+                    1, TimeUnit.MINUTES,
+                    new ArrayBlockingQueue<>(MAX_PENDING_REFRESHES),
+                    new ThreadFactory() {
+
+                        private final AtomicLong id = new AtomicLong(0);
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            var thread = new Thread(r, "view-cache-refresh-" + id.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            this.refreshExecutor = executor;
+
+            this.hits = metricRegistry.meter(METRIC_PREFIX + ".hits");
+            this.staleHits = metricRegistry.meter(METRIC_PREFIX + ".stale-hits");
+            this.sharedHits = metricRegistry.meter(METRIC_PREFIX + ".shared-hits");
+            this.misses = metricRegistry.meter(METRIC_PREFIX + ".misses");
+            this.evictions = metricRegistry.meter(METRIC_PREFIX + ".evictions");
+            this.rejections = metricRegistry.meter(METRIC_PREFIX + ".rejections");
+            this.loadTime = metricRegistry.timer(METRIC_PREFIX + ".load-time");
+            metricRegistry.gauge(METRIC_PREFIX + ".entries", () -> (Gauge<Long>) cache::estimatedSize);
+            metricRegistry.gauge(METRIC_PREFIX + ".weight", () -> (Gauge<Long>) () -> cache.policy().eviction()
+                    .map(eviction -> eviction.weightedSize().orElse(0))
+                    .orElse(0L));
+        }
+
+        @Override
+        public void onEntityChange(DSLContext tx, String entityName, String entityKind) {
+            onEntityChanges(tx, List.of(new EntityChange(entityName, entityKind)));
+        }
+
+        @Override
+        public void onEntityChanges(DSLContext tx, List<EntityChange> changes) {
+            // with a shared store, the store itself sends the notifications and
+            // the cache is invalidated once the transaction is committed, on all
+            // instances (including this one), see the listener
+            if (sharedStore.isEmpty()) {
+                invalidate(changes);
+            }
         }
 
+        private void invalidate(List<EntityChange> changes) {
+            fillsInFlight.forEach(fill -> fill.onChanges(changes));
+            cache.asMap().values().removeIf(entry -> changes.stream()
+                    .anyMatch(change -> entry.dependencies().matches(change.entityName(), change.entityKind())));
+        }
+
+        private void invalidateAll() {
+            fillsInFlight.forEach(Fill::markOutdated);
+            cache.invalidateAll();
+        }
+
+        @Override
         public RenderedView getOrRender(RenderViewRequest request,
+                                        EntityVersion viewVersion,
                                         RenderOverrides overrides,
                                         ViewLike viewLike,
                                         BiFunction<ViewLike, RenderOverrides, RenderedView> renderer) {
@@ -68,53 +217,470 @@ public interface ViewCache {
                 return renderer.apply(viewLike, overrides);
             }
 
-            var key = new CacheKey(request, overrides);
-            return cache.get(key, _key -> renderer.apply(viewLike, overrides));
+            var key = new CacheKey(request, viewVersion, overrides);
+
+            var entry = cache.getIfPresent(key);
+            if (entry != null) {
+                if (entry.isStale()) {
+                    staleHits.mark();
+                    refreshInBackground(key, viewLike, overrides, renderer);
+                } else {
+                    hits.mark();
+                }
+                return entry.renderedView();
+            }
+
+            misses.mark();
+
+            // don't let a single view to take over the whole cache
+            // by requesting it with lots of different parameters
+            var viewEntries = entriesPerView.get(viewLike.name());
+            if (viewEntries != null && viewEntries.get() >= MAX_ENTRIES_PER_VIEW) {
+                rejections.mark();
+                return renderer.apply(viewLike, overrides);
+            }
+
+            // Caffeine makes sure there's only one render per key in flight
+            var loadedBy = new AtomicReference<Fill>();
+            try {
+                var newEntry = cache.get(key, _key -> {
+                    var fill = startFill(viewLike);
+                    loadedBy.set(fill);
+                    var e = loadShared(key, viewLike, fill)
+                            .orElseGet(() -> render(key, viewLike, overrides, renderer, fill));
+                    entriesPerView.computeIfAbsent(e.dependencies().viewName(), _name -> new AtomicInteger())
+                            .incrementAndGet();
+                    return e;
+                });
+                var fill = loadedBy.get();
+                if (fill != null) {
+                    // the entities might've changed while rendering, return the result
+                    // but don't keep it
+                    removeIfOutdated(key, newEntry, fill);
+                }
+                return newEntry.renderedView();
+            } finally {
+                var fill = loadedBy.get();
+                if (fill != null) {
+                    fillsInFlight.remove(fill);
+                }
+            }
+        }
+
+        @Override
+        public boolean prewarm(RenderViewRequest request,
+                               EntityVersion viewVersion,
+                               ViewLike viewLike,
+                               Duration staleWithin,
+                               BiFunction<ViewLike, RenderOverrides, RenderedView> renderer) {
+            if (!isCachingEnabled(viewLike)) {
+                return false;
+            }
+
+            var overrides = RenderOverrides.none();
+            var key = new CacheKey(request, viewVersion, overrides);
+
+            var entry = cache.getIfPresent(key);
+            if (entry != null && entry.timeToStale().compareTo(staleWithin) > 0) {
+                return false;
+            }
+
+            if (entry == null) {
+                var viewEntries = entriesPerView.get(viewLike.name());
+                if (viewEntries != null && viewEntries.get() >= MAX_ENTRIES_PER_VIEW) {
+                    return false;
+                }
+            }
+
+            var fill = new Fill(ViewDependencies.of(viewLike));
+            if (refreshesInFlight.putIfAbsent(key, fill) != null) {
+                // someone else is already refreshing the entry
+                return false;
+            }
+
+            fillsInFlight.add(fill);
+            try {
+                var newEntry = render(key, viewLike, overrides, renderer, fill);
+                // the entry could've been invalidated while rendering
+                if (refreshesInFlight.remove(key, fill) && !fill.isOutdated()) {
+                    if (cache.asMap().put(key, newEntry) == null) {
+                        entriesPerView.computeIfAbsent(newEntry.dependencies().viewName(),
+                                _name -> new AtomicInteger()).incrementAndGet();
+                    }
+                    removeIfOutdated(key, newEntry, fill);
+                }
+                return true;
+            } finally {
+                refreshesInFlight.remove(key, fill);
+                fillsInFlight.remove(fill);
+            }
+        }
+
+        private void onRemoval(CacheKey key, CacheEntry entry, RemovalCause cause) {
+            if (cause.wasEvicted()) {
+                evictions.mark();
+            }
+
+            if (entry == null || cause == RemovalCause.REPLACED) {
+                return;
+            }
+
+            entriesPerView.computeIfPresent(entry.dependencies().viewName(),
+                    (name, count) -> count.decrementAndGet() <= 0 ? null : count);
+        }
+
+        private void refreshInBackground(CacheKey key,
+                                         ViewLike viewLike,
+                                         RenderOverrides overrides,
+                                         BiFunction<ViewLike, RenderOverrides, RenderedView> renderer) {
+
+            var fill = new Fill(ViewDependencies.of(viewLike));
+            if (refreshesInFlight.putIfAbsent(key, fill) != null) {
+                // someone else is already refreshing the entry
+                return;
+            }
+
+            fillsInFlight.add(fill);
+            try {
+                refreshExecutor.execute(() -> {
+                    try {
+                        var entry = render(key, viewLike, overrides, renderer, fill);
+                        // results based on the data that's changed since the refresh started
+                        // are dropped
+                        if (refreshesInFlight.remove(key, fill) && !fill.isOutdated()) {
+                            // replace only if the entry wasn't evicted in the meantime
+                            cache.asMap().replace(key, entry);
+                            removeIfOutdated(key, entry, fill);
+                        }
+                    } catch (Exception e) {
+                        log.warn("Error while refreshing a cached view '{}': {}", viewLike.name(), e.getMessage());
+                    } finally {
+                        refreshesInFlight.remove(key, fill);
+                        fillsInFlight.remove(fill);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // too many refreshes queued, keep serving the stale value and try again later
+                refreshesInFlight.remove(key, fill);
+                fillsInFlight.remove(fill);
+            }
+        }
+
+        private Fill startFill(ViewLike viewLike) {
+            var fill = new Fill(ViewDependencies.of(viewLike));
+            fillsInFlight.add(fill);
+            return fill;
+        }
+
+        private void removeIfOutdated(CacheKey key, CacheEntry entry, Fill fill) {
+            if (fill.isOutdated()) {
+                // invalidated while the entry was being stored
+                cache.asMap().remove(key, entry);
+            }
+        }
+
+        private CacheEntry render(CacheKey key,
+                                  ViewLike viewLike,
+                                  RenderOverrides overrides,
+                                  BiFunction<ViewLike, RenderOverrides, RenderedView> renderer,
+                                  Fill fill) {
+
+            var ttl = ttl(viewLike);
+            var staleWhileRevalidate = staleWhileRevalidate(viewLike);
+            var createdAt = System.nanoTime();
+            var renderedAt = Instant.now();
+            var renderedView = loadTime.timeSupplier(() -> renderer.apply(viewLike, overrides));
+            var weight = estimateWeight(renderedView.data());
+            var entry = new CacheEntry(renderedView, fill.dependencies(), createdAt, ttl, staleWhileRevalidate, weight);
+
+            // don't share results that might be based on outdated data
+            if (weight <= MAX_SHARED_WEIGHT && !fill.isOutdated()) {
+                sharedStore.ifPresent(store -> {
+                    try {
+                        store.put(sharedKey(store, key), key.viewVersion(), entry.dependencies(), renderedView,
+                                renderedAt, ttl.plus(staleWhileRevalidate));
+                    } catch (Exception e) {
+                        log.warn("Error while saving a rendered view '{}' into the shared cache: {}",
+                                viewLike.name(), e.getMessage());
+                    }
+                });
+            }
+
+            return entry;
+        }
+
+        private Optional<CacheEntry> loadShared(CacheKey key, ViewLike viewLike, Fill fill) {
+            return sharedStore.flatMap(store -> {
+                try {
+                    return store.get(sharedKey(store, key));
+                } catch (Exception e) {
+                    log.warn("Error while loading a rendered view '{}' from the shared cache: {}",
+                            viewLike.name(), e.getMessage());
+                    return Optional.empty();
+                }
+            }).map(storedView -> {
+                sharedHits.mark();
+                // keep the original age of the entry
+                var age = Duration.between(storedView.createdAt(), Instant.now());
+                var createdAt = System.nanoTime() - Math.max(age.toNanos(), 0);
+                var renderedView = new RenderedView(viewLike, storedView.data(), storedView.entityNames());
+                return new CacheEntry(renderedView, fill.dependencies(), createdAt, ttl(viewLike),
+                        staleWhileRevalidate(viewLike), estimateWeight(storedView.data()));
+            });
+        }
+
+        private static String sharedKey(ViewCacheStore store, CacheKey key) {
+            return store.cacheKey(key.viewVersion(), key.overrides(), key.request().parameters().orElse(null));
+        }
+
+        /**
+         * A render (or a load from the shared store) in flight. Invalidations mark
+         * it as outdated if any of the changed entities match the view's
+         * dependencies, such results are not cached. Also used as the token of a
+         * refresh in flight, compared by identity, so a refresh never removes the
+         * token of another one.
+         */
+        private static final class Fill {
+
+            private final ViewDependencies dependencies;
+            private volatile boolean outdated;
+
+            private Fill(ViewDependencies dependencies) {
+                this.dependencies = dependencies;
+            }
+
+            ViewDependencies dependencies() {
+                return dependencies;
+            }
+
+            boolean isOutdated() {
+                return outdated;
+            }
+
+            void markOutdated() {
+                outdated = true;
+            }
+
+            void onChanges(List<EntityChange> changes) {
+                if (changes.stream().anyMatch(change -> dependencies.matches(change.entityName(),
+                        change.entityKind()))) {
+                    outdated = true;
+                }
+            }
         }
     }
 
     class NoopViewCache implements ViewCache {
 
+        @Override
+        public void onEntityChange(DSLContext tx, String entityName, String entityKind) {
+        }
+
         @Override
         public RenderedView getOrRender(RenderViewRequest request,
+                                        EntityVersion viewVersion,
                                         RenderOverrides overrides,
                                         ViewLike viewLike,
                                         BiFunction<ViewLike, RenderOverrides, RenderedView> renderer) {
             return renderer.apply(viewLike, overrides);
         }
+
+        @Override
+        public boolean prewarm(RenderViewRequest request,
+                               EntityVersion viewVersion,
+                               ViewLike viewLike,
+                               Duration staleWithin,
+                               BiFunction<ViewLike, RenderOverrides, RenderedView> renderer) {
+            return false;
+        }
     }
 
-    class RenderedViewExpiry implements Expiry<CacheKey, RenderedView> {
+    class RenderedViewExpiry implements Expiry<CacheKey, CacheEntry> {
 
         @Override
-        public long expireAfterCreate(CacheKey key, RenderedView value, long currentTime) {
-            var ttl = value.view().caching()
-                    .map(caching -> caching.ttl().orElse(DEFAULT_CACHE_TTL))
-                    .orElse(DEFAULT_CACHE_TTL);
-            return Duration.parse(ttl).toNanos();
+        public long expireAfterCreate(CacheKey key, CacheEntry value, long currentTime) {
+            // stale entries are kept around until they are refreshed or the
+            // staleWhileRevalidate period is over
+            return value.ttl().plus(value.staleWhileRevalidate()).toNanos();
         }
 
         @Override
         public long expireAfterUpdate(CacheKey key,
-                                      RenderedView value,
+                                      CacheEntry value,
                                       long currentTime,
                                       @NonNegative long currentDuration) {
-            return 0;
+            return expireAfterCreate(key, value, currentTime);
         }
 
         @Override
         public long expireAfterRead(CacheKey key,
-                                    RenderedView value,
+                                    CacheEntry value,
                                     long currentTime,
                                     @NonNegative long currentDuration) {
-            return 0;
+            return currentDuration;
         }
     }
 
-    record CacheKey(RenderViewRequest request, RenderOverrides overrides) {
+    record CacheKey(RenderViewRequest request, EntityVersion viewVersion, RenderOverrides overrides) {
+    }
+
+    record CacheEntry(RenderedView renderedView,
+            ViewDependencies dependencies,
+            long createdAt,
+            Duration ttl,
+            Duration staleWhileRevalidate,
+            int weight) {
+
+        public boolean isStale() {
+            return System.nanoTime() - createdAt >= ttl.toNanos();
+        }
+
+        public Duration timeToStale() {
+            return Duration.ofNanos(ttl.toNanos() - (System.nanoTime() - createdAt));
+        }
+    }
+
+    /**
+     * Describes which entities in the internal store a rendered view depends on:
+     * the view entity itself, the validation schema and any entity matching the
+     * view's selector.
+     */
+    record ViewDependencies(String viewName,
+            Optional<String> validationKind,
+            boolean includesInternalStore,
+            Optional<Pattern> entityKindPattern,
+            Optional<List<Pattern>> namePatterns) {
+
+        public static ViewDependencies of(ViewLike view) {
+            var selector = view.selector();
+            var includesInternalStore = selector.includes()
+                    .map(includes -> includes.stream().anyMatch(ViewDependencies::isInternalStoreUri))
+                    .orElse(true);
+            return of(view.name(),
+                    view.validation().map(ViewLike.Validation::asEntityKind),
+                    includesInternalStore,
+                    Optional.of(selector.entityKind()),
+                    selector.namePatterns());
+        }
+
+        public static ViewDependencies of(String viewName,
+                                          Optional<String> validationKind,
+                                          boolean includesInternalStore,
+                                          Optional<String> entityKind,
+                                          Optional<List<String>> namePatterns) {
+            return new ViewDependencies(viewName,
+                    validationKind,
+                    includesInternalStore,
+                    entityKind.flatMap(ViewDependencies::compile),
+                    namePatterns.flatMap(ViewDependencies::compileAll));
+        }
+
+        public boolean matches(String entityName, String entityKind) {
+            if (viewName.equals(entityName) || validationKind.map(entityName::equals).orElse(false)) {
+                return true;
+            }
+
+            if (!includesInternalStore) {
+                return false;
+            }
+
+            // entity kinds are matched the same way InternalEntityFetcher does it,
+            // i.e. using a partial match. If a pattern is not a valid Java regex,
+            // assume the view depends on all kinds (or names)
+            var kindMatches = entityKindPattern.map(p -> p.matcher(entityKind).find()).orElse(true);
+            if (!kindMatches) {
+                return false;
+            }
+
+            return namePatterns
+                    .map(patterns -> patterns.stream().anyMatch(p -> p.matcher(entityName).matches()))
+                    .orElse(true);
+        }
+
+        private static boolean isInternalStoreUri(String include) {
+            if (include == null || include.isBlank()) {
+                return false;
+            }
+            try {
+                var uri = URI.create(include);
+                var internal = URI.create(INTERNAL_ENTITY_STORE_URI);
+                return internal.getScheme().equals(uri.getScheme()) && internal.getHost().equals(uri.getHost());
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        private static Optional<List<Pattern>> compileAll(List<String> regexes) {
+            var patterns = regexes.stream().map(ViewDependencies::compile).toList();
+            if (patterns.stream().anyMatch(Optional::isEmpty)) {
+                return Optional.empty();
+            }
+            return Optional.of(patterns.stream().map(Optional::get).toList());
+        }
+
+        private static Optional<Pattern> compile(String regex) {
+            try {
+                return Optional.of(Pattern.compile(regex));
+            } catch (PatternSyntaxException e) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Returns a rough estimate of the heap size occupied by the data, in bytes.
+     */
+    static int estimateWeight(List<JsonNode> data) {
+        long weight = 0;
+        for (var node : data) {
+            weight += estimateWeight(node);
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    private static long estimateWeight(JsonNode node) {
+        // object header + fields, strings are counted as UTF-16
+        long weight = 16;
+        if (node.isObject()) {
+            var fields = node.fields();
+            while (fields.hasNext()) {
+                var field = fields.next();
+                weight += 48 + 2L * field.getKey().length() + estimateWeight(field.getValue());
+            }
+        } else if (node.isArray()) {
+            for (var element : node) {
+                weight += 8 + estimateWeight(element);
+            }
+        } else if (node.isTextual()) {
+            weight += 40 + 2L * node.textValue().length();
+        } else if (node.isBinary()) {
+            weight += node.asText().length();
+        } else {
+            weight += 8;
+        }
+        return weight;
+    }
+
+    private static Duration ttl(ViewLike view) {
+        var ttl = view.caching().flatMap(Caching::ttl).orElse(DEFAULT_CACHE_TTL);
+        return parseDuration("ttl", ttl);
+    }
+
+    private static Duration staleWhileRevalidate(ViewLike view) {
+        var staleWhileRevalidate = view.caching().flatMap(Caching::staleWhileRevalidate)
+                .orElse(DEFAULT_CACHE_STALE_WHILE_REVALIDATE);
+        return parseDuration("staleWhileRevalidate", staleWhileRevalidate);
+    }
+
+    private static Duration parseDuration(String property, String value) {
+        try {
+            return Duration.parse(value);
+        } catch (DateTimeParseException e) {
+            throw ApiException.badRequest("Invalid caching.%s value: %s".formatted(property, value));
+        }
     }
 
-    private static boolean isCachingEnabled(ViewLike view) {
+    static boolean isCachingEnabled(ViewLike view) {
         var enabled = view.caching()
                 .flatMap(Caching::enabled)
                 .orElse(DEFAULT_CACHE_ENABLED);
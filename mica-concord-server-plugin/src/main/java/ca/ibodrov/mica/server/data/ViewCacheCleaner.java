@@ -0,0 +1,61 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import com.walmartlabs.concord.server.sdk.ScheduledTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Removes expired entries from the shared view cache.
+ */
+public class ViewCacheCleaner implements ScheduledTask {
+
+    private static final Logger log = LoggerFactory.getLogger(ViewCacheCleaner.class);
+
+    private final ViewCacheStore viewCacheStore;
+
+    @Inject
+    public ViewCacheCleaner(ViewCacheStore viewCacheStore) {
+        this.viewCacheStore = requireNonNull(viewCacheStore);
+    }
+
+    @Override
+    public String getId() {
+        return "mica-view-cache-cleaner";
+    }
+
+    @Override
+    public long getIntervalInSec() {
+        return Duration.ofMinutes(10).toSeconds();
+    }
+
+    @Override
+    public void performTask() {
+        int rows = viewCacheStore.deleteExpired();
+        log.info("Removed {} expired view cache row(s)", rows);
+    }
+}
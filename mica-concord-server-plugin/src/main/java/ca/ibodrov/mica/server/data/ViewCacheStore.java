@@ -0,0 +1,381 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.EntityVersion;
+import ca.ibodrov.mica.db.MicaDB;
+import ca.ibodrov.mica.server.data.EntityChangeListener.EntityChange;
+import ca.ibodrov.mica.server.data.ViewCache.ViewDependencies;
+import ca.ibodrov.mica.server.data.ViewRenderer.RenderOverrides;
+import ca.ibodrov.mica.server.exceptions.StoreException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import org.jooq.DSLContext;
+import org.jooq.JSONB;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static ca.ibodrov.mica.db.jooq.Tables.MICA_VIEW_CACHE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static org.jooq.JSONB.jsonb;
+import static org.jooq.impl.DSL.any;
+import static org.jooq.impl.DSL.condition;
+import static org.jooq.impl.DSL.currentInstant;
+import static org.jooq.impl.DSL.val;
+
+/**
+ * Second-level storage for {@link ViewCache}. Keeps rendered views in the
+ * database, so they can be shared between Mica instances. The instances learn
+ * about entity changes via PostgreSQL's LISTEN/NOTIFY.
+ * <p/>
+ * The view dependencies are stored as separate columns, so the entries
+ * affected by a change can be found using SQL. The entries are deleted in the
+ * same transaction that changes the entities and once again after the commit,
+ * in case a concurrent render managed to store an outdated result in the
+ * meantime.
+ * <p/>
+ * The store is an {@link EntityChangeListener} itself, so the notifications
+ * are sent regardless of which caches are enabled, e.g. {@link EntityCache}
+ * and {@link EntityKindStore} rely on them too.
+ */
+public class ViewCacheStore implements EntityChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ViewCacheStore.class);
+
+    private static final String CHANNEL = "mica_view_cache";
+    private static final int POLL_TIMEOUT_MS = 10_000;
+    private static final long RECONNECT_DELAY_MS = 5_000;
+    // PostgreSQL limits NOTIFY payloads to 8000 bytes
+    private static final int MAX_PAYLOAD_SIZE = 7000;
+    private static final int BATCH_SIZE = 1000;
+
+    private final DataSource dataSource;
+    private final DSLContext dsl;
+    private final ObjectMapper objectMapper;
+    private final String instanceId;
+    private final List<Subscriber> subscribers;
+    private final AtomicBoolean listening;
+
+    @Inject
+    public ViewCacheStore(@MicaDB DataSource dataSource,
+                          @MicaDB DSLContext dsl,
+                          ObjectMapper objectMapper) {
+
+        this.dataSource = requireNonNull(dataSource);
+        this.dsl = requireNonNull(dsl);
+        this.objectMapper = requireNonNull(objectMapper);
+        this.instanceId = UUID.randomUUID().toString();
+        this.subscribers = new CopyOnWriteArrayList<>();
+        this.listening = new AtomicBoolean();
+    }
+
+    public String cacheKey(EntityVersion viewVersion, RenderOverrides overrides, @Nullable JsonNode parameters) {
+        var key = objectMapper.createArrayNode()
+                .add(viewVersion.id().toExternalForm())
+                .add(viewVersion.updatedAt().toString())
+                .add(overrides.alwaysMerge())
+                .add(parameters);
+        return Hashing.sha256().hashString(key.toString(), UTF_8).toString();
+    }
+
+    public Optional<StoredView> get(String cacheKey) {
+        return dsl.select(MICA_VIEW_CACHE.DATA, MICA_VIEW_CACHE.CREATED_AT)
+                .from(MICA_VIEW_CACHE)
+                .where(MICA_VIEW_CACHE.CACHE_KEY.eq(cacheKey)
+                        .and(MICA_VIEW_CACHE.EXPIRES_AT.greaterThan(currentInstant())))
+                .fetchOptional(r -> {
+                    var data = deserialize(r.value1(), StoredData.class);
+                    return new StoredView(data.data(), data.entityNames(), r.value2());
+                });
+    }
+
+    public void put(String cacheKey,
+                    EntityVersion viewVersion,
+                    ViewDependencies dependencies,
+                    RenderedView renderedView,
+                    Instant createdAt,
+                    Duration expiresIn) {
+
+        var data = serialize(new StoredData(renderedView.data(), renderedView.entityNames()));
+        var deps = StoredDependencies.of(dependencies);
+        var expiresAt = createdAt.plus(expiresIn);
+
+        dsl.insertInto(MICA_VIEW_CACHE)
+                .set(MICA_VIEW_CACHE.CACHE_KEY, cacheKey)
+                .set(MICA_VIEW_CACHE.VIEW_ID, viewVersion.id().id())
+                .set(MICA_VIEW_CACHE.VIEW_UPDATED_AT, viewVersion.updatedAt())
+                .set(MICA_VIEW_CACHE.VIEW_NAME, deps.viewName())
+                .set(MICA_VIEW_CACHE.VALIDATION_KIND, deps.validationKind())
+                .set(MICA_VIEW_CACHE.INCLUDES_INTERNAL_STORE, deps.includesInternalStore())
+                .set(MICA_VIEW_CACHE.ENTITY_KIND_PATTERN, deps.entityKindPattern())
+                .set(MICA_VIEW_CACHE.NAME_PATTERNS, deps.namePatterns())
+                .set(MICA_VIEW_CACHE.CREATED_AT, createdAt)
+                .set(MICA_VIEW_CACHE.EXPIRES_AT, expiresAt)
+                .set(MICA_VIEW_CACHE.DATA, data)
+                .onConflict(MICA_VIEW_CACHE.CACHE_KEY)
+                .doUpdate()
+                .set(MICA_VIEW_CACHE.CREATED_AT, createdAt)
+                .set(MICA_VIEW_CACHE.EXPIRES_AT, expiresAt)
+                .set(MICA_VIEW_CACHE.DATA, data)
+                .execute();
+    }
+
+    @Override
+    public void onEntityChange(DSLContext tx, String entityName, String entityKind) {
+        notifyChanges(tx, List.of(new EntityChange(entityName, entityKind)));
+    }
+
+    @Override
+    public void onEntityChanges(DSLContext tx, List<EntityChange> changes) {
+        notifyChanges(tx, changes);
+    }
+
+    /**
+     * Removes the entries affected by the entity changes and notifies all Mica
+     * instances (including the current one) about the changes. The notifications
+     * are delivered only if {@code tx} is committed. The changes are sent using
+     * as few notifications as possible.
+     */
+    public void notifyChanges(DSLContext tx, List<EntityChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        deleteMatching(tx, changes);
+
+        var chunk = new ArrayList<EntityChange>();
+        var chunkSize = 0;
+        for (var change : changes) {
+            // entity names and kinds are ASCII, assume the worst case of every
+            // character being escaped
+            var size = 2 * (change.entityName().length() + change.entityKind().length()) + 64;
+            if (!chunk.isEmpty() && chunkSize + size > MAX_PAYLOAD_SIZE) {
+                sendNotification(tx, chunk);
+                chunk = new ArrayList<>();
+                chunkSize = 0;
+            }
+            chunk.add(change);
+            chunkSize += size;
+        }
+        sendNotification(tx, chunk);
+    }
+
+    /**
+     * Subscribes to entity change notifications. The first call starts a
+     * background thread that listens for the notifications, the subsequent calls
+     * share the same thread and connection. The {@code onChange} callback is
+     * called for each batch of changes received. The {@code onReconnect} callback
+     * is called each time the listener (re)connects to the database, i.e. when
+     * some notifications might've been missed.
+     */
+    public void listen(Consumer<List<EntityChange>> onChange, Runnable onReconnect) {
+        subscribers.add(new Subscriber(onChange, onReconnect));
+        if (!listening.compareAndSet(false, true)) {
+            return;
+        }
+
+        var thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    listenUntilError();
+                } catch (Exception e) {
+                    log.warn("Error while listening for view cache notifications (will retry): {}", e.getMessage());
+                }
+
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "view-cache-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int deleteExpired() {
+        return dsl.deleteFrom(MICA_VIEW_CACHE)
+                .where(MICA_VIEW_CACHE.EXPIRES_AT.lessOrEqual(currentInstant()))
+                .execute();
+    }
+
+    private void sendNotification(DSLContext tx, List<EntityChange> changes) {
+        var payload = serialize(new ChangeNotification(instanceId, changes)).data();
+        tx.execute("select pg_notify(?, ?)", CHANNEL, payload);
+    }
+
+    private void listenUntilError() throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            try (var stmt = connection.createStatement()) {
+                stmt.execute("LISTEN " + CHANNEL);
+            }
+
+            subscribers.forEach(s -> s.onReconnect().run());
+
+            var pgConnection = connection.unwrap(PGConnection.class);
+            while (!Thread.currentThread().isInterrupted()) {
+                var notifications = pgConnection.getNotifications(POLL_TIMEOUT_MS);
+                if (notifications == null || notifications.length == 0) {
+                    continue;
+                }
+
+                var changes = new ArrayList<EntityChange>();
+                var ownChanges = new ArrayList<EntityChange>();
+                for (var notification : notifications) {
+                    var change = deserialize(jsonb(notification.getParameter()), ChangeNotification.class);
+                    changes.addAll(change.changes());
+                    if (instanceId.equals(change.instanceId())) {
+                        ownChanges.addAll(change.changes());
+                    }
+                }
+
+                subscribers.forEach(s -> s.onChange().accept(changes));
+
+                if (!ownChanges.isEmpty()) {
+                    // the changes were made by this instance, the instance is responsible
+                    // for cleaning up whatever was stored into the shared cache while the
+                    // transaction was in progress
+                    deleteMatching(dsl, ownChanges);
+                }
+            }
+        }
+    }
+
+    private void deleteMatching(DSLContext tx, List<EntityChange> changes) {
+        for (int i = 0; i < changes.size(); i += BATCH_SIZE) {
+            var chunk = changes.subList(i, Math.min(i + BATCH_SIZE, changes.size()));
+            var names = chunk.stream().map(EntityChange::entityName).toArray(String[]::new);
+            var kinds = chunk.stream().map(EntityChange::entityKind).toArray(String[]::new);
+
+            // entity kinds are matched the same way InternalEntityFetcher does it,
+            // i.e. using a partial match. NULL patterns match everything
+            var dependsOnInternalStore = MICA_VIEW_CACHE.INCLUDES_INTERNAL_STORE.isTrue()
+                    .and(condition("exists (select 1 from unnest({0}, {1}) as C(NAME, KIND) "
+                            + "where ({2} is null or C.KIND ~ {2}) and ({3} is null or C.NAME ~ any({3})))",
+                            val(names), val(kinds), MICA_VIEW_CACHE.ENTITY_KIND_PATTERN,
+                            MICA_VIEW_CACHE.NAME_PATTERNS));
+
+            var matching = tx.select(MICA_VIEW_CACHE.CACHE_KEY)
+                    .from(MICA_VIEW_CACHE)
+                    .where(MICA_VIEW_CACHE.VIEW_NAME.eq(any(names))
+                            .or(MICA_VIEW_CACHE.VALIDATION_KIND.eq(any(names)))
+                            .or(dependsOnInternalStore))
+                    // don't wait for the entries locked by other transactions, those
+                    // are handled by the cleanup after the commit
+                    .forUpdate()
+                    .skipLocked();
+
+            tx.deleteFrom(MICA_VIEW_CACHE)
+                    .where(MICA_VIEW_CACHE.CACHE_KEY.in(matching))
+                    .execute();
+        }
+    }
+
+    private JSONB serialize(Object value) {
+        try {
+            return jsonb(objectMapper.writeValueAsString(value));
+        } catch (JsonProcessingException e) {
+            throw new StoreException("JSON serialization error, most likely a bug: " + e.getMessage(), e);
+        }
+    }
+
+    private <T> T deserialize(JSONB value, Class<T> type) {
+        try {
+            return objectMapper.readValue(value.data(), type);
+        } catch (JsonProcessingException e) {
+            throw new StoreException("JSON deserialization error, most likely a bug: " + e.getMessage(), e);
+        }
+    }
+
+    public record StoredView(List<JsonNode> data, List<String> entityNames, Instant createdAt) {
+    }
+
+    private record Subscriber(Consumer<List<EntityChange>> onChange, Runnable onReconnect) {
+    }
+
+    private record StoredData(List<JsonNode> data, List<String> entityNames) {
+    }
+
+    /**
+     * {@link ViewDependencies} in the form stored in the database. The patterns
+     * are evaluated by PostgreSQL, so only the patterns that use the syntax
+     * common to Java and PostgreSQL are kept. Missing patterns match all kinds
+     * (or names), i.e. the entries are invalidated more often than necessary, but
+     * never less.
+     */
+    private record StoredDependencies(String viewName,
+            @Nullable String validationKind,
+            boolean includesInternalStore,
+            @Nullable String entityKindPattern,
+            @Nullable String[] namePatterns) {
+
+        static StoredDependencies of(ViewDependencies dependencies) {
+            if (!dependencies.includesInternalStore()) {
+                return new StoredDependencies(dependencies.viewName(),
+                        dependencies.validationKind().orElse(null),
+                        false, null, null);
+            }
+
+            var entityKindPattern = dependencies.entityKindPattern()
+                    .map(Pattern::pattern)
+                    .filter(InternalEntityFetcher::isPortableRegex)
+                    .orElse(null);
+
+            // Java patterns are matched against the whole name
+            var namePatterns = dependencies.namePatterns()
+                    .filter(patterns -> !patterns.isEmpty() && patterns.stream()
+                            .allMatch(p -> InternalEntityFetcher.isPortableRegex(p.pattern())))
+                    .map(patterns -> patterns.stream()
+                            .map(p -> "^(?:" + p.pattern() + ")$")
+                            .toArray(String[]::new))
+                    .orElse(null);
+
+            return new StoredDependencies(dependencies.viewName(),
+                    dependencies.validationKind().orElse(null),
+                    true,
+                    entityKindPattern,
+                    namePatterns);
+        }
+    }
+
+    private record ChangeNotification(String instanceId, List<EntityChange> changes) {
+    }
+}
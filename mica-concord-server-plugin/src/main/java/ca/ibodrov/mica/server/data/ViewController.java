@@ -32,11 +32,16 @@ import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.annotations.VisibleForTesting;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.collect.ImmutableMap;
 import org.jooq.DSLContext;
 
 import javax.inject.Inject;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
@@ -45,18 +50,22 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 import java.util.stream.Stream;
 
+import static ca.ibodrov.mica.api.kinds.MicaViewV1.MICA_VIEW_V1;
 import static ca.ibodrov.mica.server.data.BuiltinSchemas.INTERNAL_ENTITY_STORE_URI;
 import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_ABSENT;
+import static com.fasterxml.jackson.core.JsonGenerator.Feature.AUTO_CLOSE_TARGET;
 import static java.util.Comparator.comparing;
 import static java.util.Objects.requireNonNull;
 
 public class ViewController {
 
     private static final String RESULT_ENTITY_KIND = "/mica/rendered-view/v1";
+    private static final int MAX_COMPILED_VIEWS = 1000;
+    private static final Duration COMPILED_VIEW_TTL = Duration.ofHours(1);
 
     private final EntityStore entityStore;
     private final EntityKindStore entityKindStore;
@@ -65,9 +74,10 @@ public class ViewController {
     private final ViewRenderer viewRenderer;
     private final ViewCache viewCache;
     private final ViewRenderHistoryController viewRenderHistoryController;
-    private final Validator validator;
     private final ObjectMapper objectMapper;
+    private final ObjectMapper resultMapper;
     private final DSLContext dsl;
+    private final Cache<CompiledViewKey, CompiledView> compiledViews;
 
     @Inject
     public ViewController(@MicaDB DSLContext dsl,
@@ -86,19 +96,141 @@ public class ViewController {
         this.viewCache = requireNonNull(viewCache);
         this.viewRenderHistoryController = requireNonNull(viewRenderHistoryController);
         this.objectMapper = requireNonNull(objectMapper);
-        var schemaFetcher = new EntityKindStoreSchemaFetcher(entityKindStore, objectMapper);
-        this.viewInterpolator = new ViewInterpolator(objectMapper, schemaFetcher);
+        this.resultMapper = objectMapper.copy().setDefaultPropertyInclusion(NON_ABSENT);
+        this.viewInterpolator = new ViewInterpolator(objectMapper,
+                new EntityKindStoreSchemaFetcher(entityKindStore, objectMapper));
         this.viewRenderer = new ViewRenderer(requireNonNull(jsonPathEvaluator), jsEvaluator, objectMapper);
-        this.validator = Validator.getDefault(objectMapper, schemaFetcher);
         this.dsl = requireNonNull(dsl);
+        this.compiledViews = Caffeine.newBuilder()
+                .maximumSize(MAX_COMPILED_VIEWS)
+                .expireAfterAccess(COMPILED_VIEW_TTL)
+                .build();
     }
 
     public RenderedView getCachedOrRender(RenderViewRequest request, RenderOverrides overrides) {
         var parameters = request.parameters().orElseGet(NullNode::getInstance);
         var viewEntity = assertViewEntity(request);
-        var view = interpolateView(viewEntity, parameters);
-        return viewCache.getOrRender(request, overrides, view,
-                (_view, _overrides) -> render(viewEntity.id(), view, overrides));
+        var compiledView = compileView(viewEntity, parameters);
+        return getCachedOrRender(request, viewEntity, compiledView, overrides);
+    }
+
+    /**
+     * Renders the view one entity at a time, without collecting the whole result
+     * in memory. Views that can't be streamed (see
+     * {@link CompiledView#isStreamable(RenderOverrides)}) or that have caching
+     * enabled are rendered as usual and the result is returned as a stream.
+     * <p/>
+     * The returned stream must be closed by the caller.
+     */
+    public StreamedView renderAsStream(RenderViewRequest request, RenderOverrides overrides) {
+        var parameters = request.parameters().orElseGet(NullNode::getInstance);
+        var viewEntity = assertViewEntity(request);
+        var compiledView = compileView(viewEntity, parameters);
+        var view = compiledView.view();
+
+        if (!compiledView.isStreamable(overrides) || ViewCache.isCachingEnabled(view)) {
+            var renderedView = getCachedOrRender(request, viewEntity, compiledView, overrides);
+            return new StreamedView(view, renderedView.data().stream());
+        }
+
+        var startedAt = Instant.now();
+        var entityCount = new AtomicInteger();
+        var entities = select(compiledView).peek(_entity -> entityCount.incrementAndGet());
+        var data = viewRenderer.renderStream(compiledView, overrides, entities)
+                .onClose(() -> viewRenderHistoryController.addEntry(viewEntity.id(), Duration.ZERO,
+                        Duration.between(startedAt, Instant.now()), entityCount.get()));
+        return new StreamedView(view, data);
+    }
+
+    /**
+     * Writes the streamed view as a /mica/rendered-view/v1 JSON object, one row
+     * at a time. Unlike {@link #getCachedOrRenderAsEntity(RenderViewRequest)}, the
+     * result contains neither {@code entityNames} nor {@code validation}.
+     * <p/>
+     * Closes the view's stream.
+     */
+    public void writeAsJson(StreamedView streamedView, OutputStream out) throws IOException {
+        try (var data = streamedView.data();
+                var generator = resultMapper.createGenerator(out)) {
+            generator.disable(AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeStringField("name", streamedView.view().name());
+            generator.writeStringField("kind", RESULT_ENTITY_KIND);
+            generator.writeObjectFieldStart("data");
+            generator.writeArrayFieldStart("data");
+            var length = new AtomicInteger();
+            writeRows(data, row -> {
+                generator.writeTree(row);
+                length.incrementAndGet();
+            });
+            generator.writeEndArray();
+            generator.writeNumberField("length", length.get());
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes the streamed view's rows as newline-delimited JSON, one row per line.
+     * <p/>
+     * Closes the view's stream.
+     */
+    public void writeAsNdjson(StreamedView streamedView, OutputStream out) throws IOException {
+        try (var data = streamedView.data();
+                var generator = resultMapper.createGenerator(out)) {
+            generator.disable(AUTO_CLOSE_TARGET);
+            // rows are separated by newlines, not by the default root value separator
+            generator.setRootValueSeparator(null);
+            writeRows(data, row -> {
+                generator.writeTree(row);
+                generator.writeRaw('\n');
+            });
+        }
+    }
+
+    /**
+     * Writes the rows one at a time. Uses {@code forEach} rather than an
+     * iterator: iterating over a {@code flatMap} pipeline buffers the whole inner
+     * stream (e.g. all entities of an include) to produce the first element.
+     */
+    private static void writeRows(Stream<JsonNode> data, RowWriter writer) throws IOException {
+        try {
+            data.forEach(row -> {
+                try {
+                    writer.write(row);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private RenderedView getCachedOrRender(RenderViewRequest request,
+                                           Entity viewEntity,
+                                           CompiledView compiledView,
+                                           RenderOverrides overrides) {
+        return viewCache.getOrRender(request, viewEntity.version(), overrides, compiledView.view(),
+                (_view, _overrides) -> render(viewEntity.id(), compiledView, overrides, true));
+    }
+
+    /**
+     * Renders the view without parameters into the view cache if the cached
+     * result is missing or becomes stale within the specified period. Such
+     * renders are not recorded in the view render history, so the history keeps
+     * reflecting the actual demand. Returns {@code true} if the view was
+     * rendered.
+     */
+    public boolean prewarm(EntityId viewId, Duration staleWithin) {
+        var viewEntity = entityStore.getById(viewId).orElse(null);
+        if (viewEntity == null || viewEntity.deletedAt().isPresent() || !MICA_VIEW_V1.equals(viewEntity.kind())) {
+            return false;
+        }
+        var request = RenderViewRequest.of(viewEntity.name());
+        var compiledView = compileView(viewEntity, NullNode.getInstance());
+        return viewCache.prewarm(request, viewEntity.version(), compiledView.view(), staleWithin,
+                (_view, overrides) -> render(viewEntity.id(), compiledView, overrides, false));
     }
 
     public PartialEntity getCachedOrRenderAsEntity(RenderViewRequest request) {
@@ -130,23 +262,16 @@ public class ViewController {
     public PartialEntity preview(PreviewViewRequest request) {
         var parameters = request.parameters().orElseGet(NullNode::getInstance);
         var viewEntity = validateView(request.view());
-        var view = interpolateView(viewEntity, parameters);
+        var compiledView = viewRenderer.compile(interpolateView(viewEntity, parameters));
         var overrides = RenderOverrides.none();
-        var entities = select(view);
-        var renderedView = viewRenderer.render(view, overrides, entities);
+        var entities = select(compiledView);
+        var renderedView = viewRenderer.render(compiledView, overrides, entities);
         var validation = validateResult(renderedView);
         return buildEntity(renderedView, renderedView.data(), validation);
     }
 
     public PartialEntity materialize(RenderViewRequest request) {
-        var parameters = request.parameters().orElseGet(NullNode::getInstance);
-        var view = interpolateView(assertViewEntity(request), parameters);
-        var entities = select(view);
-        var renderedView = viewRenderer.render(view, entities);
-        var validation = validateResult(renderedView);
-        if (validation.isPresent() && !validation.get().isEmpty()) {
-            throw ApiException.badRequest("Validation failed: " + validation.get());
-        }
+        var renderedView = renderForMaterialization(request);
         // TODO optimistic locking
         return dsl.transactionResult(tx -> {
             var data = renderedView.data().stream().map(row -> {
@@ -159,6 +284,41 @@ public class ViewController {
         });
     }
 
+    /**
+     * Same as {@link #materialize(RenderViewRequest)}, but only the new or changed
+     * rows are written. Rows that are identical to the stored entities are
+     * skipped.
+     */
+    public MaterializeViewResult materializeIncremental(RenderViewRequest request) {
+        var renderedView = renderForMaterialization(request);
+        var entities = renderedView.data().stream()
+                .map(row -> objectMapper.convertValue(row, PartialEntity.class))
+                .toList();
+        return dsl.transactionResult(tx -> {
+            var result = entityStore.upsertChanged(tx.dsl(), entities);
+            if (!result.conflicts().isEmpty()) {
+                throw ApiException.conflict("Version conflict: " + String.join(", ", result.conflicts()));
+            }
+            var changedEntities = Stream.concat(result.inserted().stream(), result.updated().stream()).toList();
+            return new MaterializeViewResult(result.inserted().size(),
+                    result.updated().size(),
+                    result.unchanged(),
+                    changedEntities);
+        });
+    }
+
+    private RenderedView renderForMaterialization(RenderViewRequest request) {
+        var parameters = request.parameters().orElseGet(NullNode::getInstance);
+        var compiledView = compileView(assertViewEntity(request), parameters);
+        var entities = select(compiledView);
+        var renderedView = viewRenderer.render(compiledView, RenderOverrides.none(), entities);
+        var validation = validateResult(renderedView);
+        if (validation.isPresent() && !validation.get().isEmpty()) {
+            throw ApiException.badRequest("Validation failed: " + validation.get());
+        }
+        return renderedView;
+    }
+
     private Entity assertViewEntity(@Valid RenderViewRequest request) {
         if (request.viewId().isPresent()) {
             return entityStore.getById(request.viewId().get())
@@ -173,6 +333,17 @@ public class ViewController {
         throw ApiException.badRequest("viewId or viewName is required");
     }
 
+    /**
+     * Returns a compiled version of the view for the given parameters. The result
+     * is cached using the view's version, i.e. any change in the view entity
+     * produces a new compiled view.
+     */
+    private CompiledView compileView(Entity viewEntity, JsonNode parameters) {
+        var key = new CompiledViewKey(viewEntity.version(), parameters);
+        return compiledViews.get(key,
+                _key -> viewRenderer.compile(interpolateView(viewEntity, parameters)));
+    }
+
     private ViewLike interpolateView(EntityLike viewEntity, JsonNode parameters) {
         var view = BuiltinSchemas.asViewLike(objectMapper, viewEntity);
         return viewInterpolator.interpolate(view, parameters);
@@ -182,54 +353,70 @@ public class ViewController {
      * Applies the view's {@code selector} by fetching entities from the specified
      * includes, filtering them by the entity kind and name patterns, and returning
      * the result.
+     * <p/>
+     * The returned stream is lazy unless {@code namePatterns} are specified, in
+     * which case only the entities matching at least one of the patterns are
+     * collected (to return them in the order of the patterns).
      */
-    private Stream<? extends EntityLike> select(ViewLike view) {
+    private Stream<? extends EntityLike> select(CompiledView compiledView) {
+        var view = compiledView.view();
         var includes = view.selector().includes().orElse(List.of(INTERNAL_ENTITY_STORE_URI));
 
         // grab all entities matching the selector's entity kind
-        var entities = includes.stream()
+        var uris = includes.stream()
                 .filter(include -> include != null && !include.isBlank())
                 .map(ViewController::parseUri)
-                .flatMap(uri -> entityFetchers.fetch(uri, view.selector().entityKind()))
                 .toList();
+        // the stores may use the name patterns to fetch fewer entities, the patterns
+        // are still applied below
+        var namePatterns = compiledView.namePatterns()
+                .map(patterns -> patterns.stream().map(Pattern::pattern).toList());
+        Stream<? extends EntityLike> entities = entityFetchers.fetch(uris, view.selector().entityKind(),
+                namePatterns);
 
         // TODO filter out invalid entities?
 
-        if (entities.isEmpty()) {
-            return Stream.empty();
+        if (compiledView.namePatterns().isEmpty()) {
+            return entities;
         }
 
-        var result = entities.stream();
         // if namePatterns are specified, filter the entities and return them in the
         // order of the patterns
-        if (view.selector().namePatterns().isPresent()) {
-            var patterns = view.selector().namePatterns().get();
-
-            result = Stream.empty();
-            for (var regex : patterns) {
-                Pattern pattern;
-                try {
-                    pattern = Pattern.compile(regex);
-                } catch (PatternSyntaxException e) {
-                    throw ApiException.badRequest("Invalid namePatterns pattern: " + regex
-                            + view.parameters().map(p -> " (invalid parameters?)").orElse(""));
-                }
-
-                result = Stream.concat(result, entities.stream()
-                        .filter(e -> e.name() != null)
-                        .filter(e -> pattern.matcher(e.name()).matches())
-                        .sorted(comparing(EntityLike::name)));
-            }
+        var patterns = compiledView.namePatterns().get();
+        List<? extends EntityLike> matched;
+        try (entities) {
+            matched = entities
+                    .filter(e -> e.name() != null)
+                    .filter(e -> patterns.stream().anyMatch(p -> p.matcher(e.name()).matches()))
+                    .toList();
         }
 
+        Stream<? extends EntityLike> result = Stream.empty();
+        for (var pattern : patterns) {
+            result = Stream.concat(result, matched.stream()
+                    .filter(e -> pattern.matcher(e.name()).matches())
+                    .sorted(comparing(EntityLike::name)));
+        }
         return result;
     }
 
-    private RenderedView render(EntityId viewEntityId, ViewLike view, RenderOverrides overrides) {
-        var entities = withDuration(() -> select(view));
-        var renderedView = withDuration(() -> viewRenderer.render(view, overrides, entities.value));
-        viewRenderHistoryController.addEntry(viewEntityId, entities.duration, renderedView.duration,
-                renderedView.value.entityNames().size());
+    private RenderedView render(EntityId viewEntityId,
+                                CompiledView compiledView,
+                                RenderOverrides overrides,
+                                boolean recordHistory) {
+        // collect the entities first to measure the fetch time separately from the
+        // render time
+        var entities = withDuration(() -> {
+            try (var selected = select(compiledView)) {
+                return selected.toList();
+            }
+        });
+        var renderedView = withDuration(
+                () -> viewRenderer.render(compiledView, overrides, entities.value.stream()));
+        if (recordHistory) {
+            viewRenderHistoryController.addEntry(viewEntityId, entities.duration, renderedView.duration,
+                    renderedView.value.entityNames().size());
+        }
         return renderedView.value;
     }
 
@@ -259,22 +446,22 @@ public class ViewController {
     private Optional<JsonNode> validateResult(RenderedView renderedView) {
         var view = renderedView.view();
         return view.validation().map(v -> {
-            var schema = entityKindStore.getSchemaForKind(v.asEntityKind())
+            var schema = entityKindStore.getCompiledSchemaForKind(v.asEntityKind())
                     .orElseThrow(() -> ApiException
                             .badRequest("Can't validate the view, schema not found: " + v.asEntityKind()));
             var validatedEntities = renderedView.data().stream()
-                    .map(row -> validator.validateObject(schema, row))
+                    .map(row -> entityKindStore.getValidator().validateObject(schema, row))
                     .toList();
             return objectMapper.convertValue(validatedEntities, JsonNode.class);
         });
     }
 
     private PartialEntity validateView(PartialEntity entity) {
-        var schema = entityKindStore.getSchemaForKind(entity.kind())
+        var schema = entityKindStore.getCompiledSchemaForKind(entity.kind())
                 .orElseThrow(() -> ApiException
                         .badRequest("Can't validate the entity, schema not found: " + entity.kind()));
         var input = objectMapper.convertValue(entity, JsonNode.class);
-        var validatedInput = validator.validateObject(schema, input);
+        var validatedInput = entityKindStore.getValidator().validateObject(schema, input);
         if (!validatedInput.isValid()) {
             throw validatedInput.toException();
         }
@@ -287,9 +474,8 @@ public class ViewController {
 
         var name = renderedView.view().name();
 
-        var mapper = objectMapper.copy().setDefaultPropertyInclusion(NON_ABSENT);
-        var jsonData = mapper.convertValue(data, JsonNode.class);
-        var entityNames = mapper.convertValue(renderedView.entityNames(), JsonNode.class);
+        var jsonData = resultMapper.convertValue(data, JsonNode.class);
+        var entityNames = resultMapper.convertValue(renderedView.entityNames(), JsonNode.class);
 
         var m = ImmutableMap.<String, JsonNode>builder();
         m.put("data", jsonData);
@@ -300,6 +486,26 @@ public class ViewController {
         return PartialEntity.create(name, RESULT_ENTITY_KIND, m.build());
     }
 
+    private interface RowWriter {
+
+        void write(JsonNode row) throws IOException;
+    }
+
+    /**
+     * A view rendered as a lazy stream of rows. The stream must be closed after
+     * use.
+     */
+    public record StreamedView(ViewLike view, Stream<JsonNode> data) {
+
+        public StreamedView {
+            requireNonNull(view);
+            requireNonNull(data);
+        }
+    }
+
+    private record CompiledViewKey(EntityVersion viewVersion, JsonNode parameters) {
+    }
+
     private static URI parseUri(String s) {
         try {
             return URI.create(s);
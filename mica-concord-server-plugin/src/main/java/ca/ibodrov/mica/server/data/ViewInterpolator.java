@@ -180,6 +180,11 @@ public class ViewInterpolator {
             public Optional<String> js() {
                 return js;
             }
+
+            @Override
+            public Optional<Boolean> parallel() {
+                return data.parallel();
+            }
         };
     }
 
@@ -191,6 +196,8 @@ public class ViewInterpolator {
     private ViewLike.Caching interpolate(ViewLike.Caching caching, JsonNode input) {
         var enabled = caching.enabled().map(v -> interpolate(v, input));
         var ttl = caching.ttl().map(v -> interpolate(v, input));
+        var staleWhileRevalidate = caching.staleWhileRevalidate().map(v -> interpolate(v, input));
+        var prewarm = caching.prewarm().map(v -> interpolate(v, input));
         return new ViewLike.Caching() {
             @Override
             public Optional<String> enabled() {
@@ -201,6 +208,16 @@ public class ViewInterpolator {
             public Optional<String> ttl() {
                 return ttl;
             }
+
+            @Override
+            public Optional<String> staleWhileRevalidate() {
+                return staleWhileRevalidate;
+            }
+
+            @Override
+            public Optional<String> prewarm() {
+                return prewarm;
+            }
         };
     }
 
@@ -0,0 +1,104 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.EntityId;
+import ca.ibodrov.mica.db.MicaDB;
+import ca.ibodrov.mica.server.data.viewRenderHistory.ViewRenderHistoryController;
+import com.walmartlabs.concord.server.sdk.ScheduledTask;
+import org.jooq.DSLContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashSet;
+
+import static ca.ibodrov.mica.api.kinds.MicaViewV1.MICA_VIEW_V1;
+import static ca.ibodrov.mica.db.jooq.Tables.MICA_ENTITIES;
+import static java.util.Objects.requireNonNull;
+import static org.jooq.impl.DSL.field;
+
+/**
+ * Re-renders frequently used and slow views into the view cache before their
+ * cached results become stale. The candidates are the views with
+ * {@code caching.prewarm} enabled and the "hottest" views according to
+ * {@code MICA_VIEW_RENDER_HISTORY}. Only views with caching enabled and only
+ * renders without parameters are pre-warmed.
+ */
+public class ViewPrewarmer implements ScheduledTask {
+
+    private static final Logger log = LoggerFactory.getLogger(ViewPrewarmer.class);
+    private static final Duration INTERVAL = Duration.ofMinutes(5);
+    private static final Duration HISTORY_WINDOW = Duration.ofDays(7);
+    private static final int MAX_HOT_VIEWS = 10;
+
+    private final DSLContext dsl;
+    private final ViewRenderHistoryController viewRenderHistoryController;
+    private final ViewController viewController;
+
+    @Inject
+    public ViewPrewarmer(@MicaDB DSLContext dsl,
+                         ViewRenderHistoryController viewRenderHistoryController,
+                         ViewController viewController) {
+
+        this.dsl = requireNonNull(dsl);
+        this.viewRenderHistoryController = requireNonNull(viewRenderHistoryController);
+        this.viewController = requireNonNull(viewController);
+    }
+
+    @Override
+    public String getId() {
+        return "mica-view-prewarmer";
+    }
+
+    @Override
+    public long getIntervalInSec() {
+        return INTERVAL.toSeconds();
+    }
+
+    @Override
+    public void performTask() {
+        var viewIds = new LinkedHashSet<EntityId>();
+        viewIds.addAll(dsl.select(MICA_ENTITIES.ID)
+                .from(MICA_ENTITIES)
+                .where(MICA_ENTITIES.KIND.eq(MICA_VIEW_V1)
+                        .and(MICA_ENTITIES.DELETED_AT.isNull())
+                        .and(field("{0} -> 'caching' ->> 'prewarm'", String.class, MICA_ENTITIES.DATA).eq("true")))
+                .fetch(r -> new EntityId(r.value1())));
+        viewIds.addAll(viewRenderHistoryController.findHotViews(Instant.now().minus(HISTORY_WINDOW), MAX_HOT_VIEWS));
+
+        // refresh anything that becomes stale before the next run
+        var staleWithin = INTERVAL.multipliedBy(2);
+        var rendered = 0;
+        for (var viewId : viewIds) {
+            try {
+                if (viewController.prewarm(viewId, staleWithin)) {
+                    rendered++;
+                }
+            } catch (Exception e) {
+                log.warn("Error while pre-warming view {}: {}", viewId.id(), e.getMessage());
+            }
+        }
+        log.info("Pre-warmed {} out of {} view(s)", rendered, viewIds.size());
+    }
+}
@@ -22,47 +22,81 @@ package ca.ibodrov.mica.server.data;
 
 import ca.ibodrov.mica.api.model.EntityLike;
 import ca.ibodrov.mica.api.model.ViewLike;
+import ca.ibodrov.mica.server.data.CompiledView.CompiledJsonPatch;
+import ca.ibodrov.mica.server.data.CompiledView.PatchCondition;
+import ca.ibodrov.mica.server.data.CompiledView.PatchOperation;
+import ca.ibodrov.mica.server.data.CompiledView.Template;
+import ca.ibodrov.mica.server.data.JsonPathEvaluator.CompiledJsonPath;
 import ca.ibodrov.mica.server.data.js.JsEvaluator;
 import ca.ibodrov.mica.server.exceptions.ViewProcessorException;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.json.JsonMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.flipkart.zjsonpatch.InvalidJsonPatchException;
 import com.flipkart.zjsonpatch.JsonPatch;
 import com.flipkart.zjsonpatch.JsonPatchApplicationException;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.jayway.jsonpath.JsonPathException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 import static java.util.Objects.requireNonNull;
 import static java.util.Spliterators.spliteratorUnknownSize;
-import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.StreamSupport.stream;
 
 public class ViewRenderer {
 
+    /**
+     * JVM system property that enables parallel rendering for all views.
+     */
+    public static final String PARALLEL_PROPERTY = "mica.view.parallel";
+
+    private static final int PARALLEL_ROWS_THRESHOLD = 1000;
+
+    /**
+     * Parallel renders use their own pool, so they don't compete with the common
+     * pool and don't occupy request threads.
+     */
+    private static final ForkJoinPool PARALLEL_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("view-renderer-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+
     private final JsonPathEvaluator jsonPathEvaluator;
     private final JsEvaluator jsEvaluator;
     private final ObjectMapper objectMapper;
-    private final JsonMapper mergeMapper;
+    private final boolean parallelByDefault;
 
     public ViewRenderer(JsonPathEvaluator jsonPathEvaluator, JsEvaluator jsEvaluator, ObjectMapper objectMapper) {
+        this(jsonPathEvaluator, jsEvaluator, objectMapper, Boolean.getBoolean(PARALLEL_PROPERTY));
+    }
+
+    /**
+     * @param parallelByDefault if {@code true}, the per-row steps of all views are
+     *                          executed in parallel, not only of the views with
+     *                          {@code data.parallel} enabled
+     */
+    public ViewRenderer(JsonPathEvaluator jsonPathEvaluator,
+                        JsEvaluator jsEvaluator,
+                        ObjectMapper objectMapper,
+                        boolean parallelByDefault) {
         this.jsonPathEvaluator = requireNonNull(jsonPathEvaluator);
         this.objectMapper = requireNonNull(objectMapper);
         this.jsEvaluator = requireNonNull(jsEvaluator);
-        this.mergeMapper = JsonMapper.builder()
-                .disable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
-                .withConfigOverride(ArrayNode.class, cfg -> cfg.setMergeable(false))
-                .build();
+        this.parallelByDefault = parallelByDefault;
     }
 
     public RenderedView render(ViewLike view, Stream<? extends EntityLike> entities) {
@@ -73,18 +107,48 @@ public class ViewRenderer {
      * Render a /mica/view/v1 using the given entities and parameters.
      */
     public RenderedView render(ViewLike view, RenderOverrides overrides, Stream<? extends EntityLike> entities) {
-        // interpolate JSON path using the supplied parameters
-        var jsonPath = requireNonNull(view.data().jsonPath());
+        return render(compile(view), overrides, entities);
+    }
+
+    /**
+     * Parses and validates all expressions used in the view. The result can be
+     * rendered multiple times.
+     */
+    public CompiledView compile(ViewLike view) {
+        return CompiledView.compile(view, jsonPathEvaluator);
+    }
+
+    /**
+     * Render a pre-compiled /mica/view/v1 using the given entities.
+     */
+    public RenderedView render(CompiledView compiledView,
+                               RenderOverrides overrides,
+                               Stream<? extends EntityLike> entities) {
+        var view = compiledView.view();
+        var jsonPath = compiledView.jsonPath();
 
         var entityNames = ImmutableList.<String>builder();
+        var parallel = parallelByDefault || view.data().parallel().orElse(false);
 
         // apply JSON path
-        var data = entities
-                // ...while we are at it, collect the entity names
-                .peek(entity -> entityNames.add(entity.name()))
-                .map(row -> applyAllJsonPaths(objectMapper.convertValue(row, JsonNode.class), jsonPath))
-                .flatMap(Optional::stream)
-                .toList();
+        List<JsonNode> data;
+        if (parallel) {
+            var rows = entities
+                    .peek(entity -> entityNames.add(entity.name()))
+                    .toList();
+            data = mapRows(rows, true,
+                    row -> applyAllJsonPaths(objectMapper.convertValue(row, JsonNode.class), jsonPath))
+                    .stream()
+                    .flatMap(Optional::stream)
+                    .toList();
+        } else {
+            data = entities
+                    // ...while we are at it, collect the entity names
+                    .peek(entity -> entityNames.add(entity.name()))
+                    .map(row -> applyAllJsonPaths(objectMapper.convertValue(row, JsonNode.class), jsonPath))
+                    .flatMap(Optional::stream)
+                    .toList();
+        }
 
         if (data.isEmpty()) {
             return RenderedView.empty(view, entityNames.build());
@@ -100,158 +164,140 @@ public class ViewRenderer {
         }
 
         // mergeBy - group by a JSON path and merge the groups
-        var mergeBy = view.data().mergeBy().filter(JsonNode::isTextual)
-                .map(JsonNode::asText);
-
+        var mergeBy = compiledView.mergeBy();
         if (mergeBy.isPresent()) {
-            data = data.stream()
-                    .collect(groupingBy(
-                            node -> jsonPathEvaluator
-                                    .applyInApiCall(node, mergeBy.get())
-                                    .orElse(NullNode.getInstance())))
-                    .entrySet().stream()
-                    .flatMap(entry -> {
-                        var rows = entry.getValue();
-                        return rows.stream()
-                                .reduce((a, b) -> deepMerge((ObjectNode) a, (ObjectNode) b))
-                                .stream();
-                    })
-                    .toList();
+            // (a HashMap keeps the order of groups the same as with groupingBy)
+            var groups = new HashMap<JsonNode, List<JsonNode>>();
+            for (var node : data) {
+                var key = jsonPathEvaluator.applyInApiCall(node, mergeBy.get()).orElse(NullNode.getInstance());
+                groups.computeIfAbsent(key, _key -> new ArrayList<>()).add(node);
+            }
+            // the groups don't depend on each other, merge them in parallel if requested
+            data = mapRows(List.copyOf(groups.values()), parallel, ViewRenderer::mergeGroup);
         } else {
             // merge - convert an array of objects into a single object
             var merge = overrides.alwaysMerge() || view.data().merge().orElse(false);
             if (merge && data.stream().allMatch(JsonNode::isObject)) {
-                var mergedData = data.stream()
-                        .reduce((a, b) -> deepMerge((ObjectNode) a, (ObjectNode) b))
-                        .orElseThrow(() -> new ViewProcessorException("Expected a merge result, got nothing"));
-                data = List.of(mergedData);
+                data = List.of(mergeAll(data));
             }
         }
 
-        // apply JSON patch
-        var patch = view.data().jsonPatch().filter(p -> !p.isNull());
-        if (patch.isPresent()) {
-            var patchData = patch.get();
+        // jsonPatch, dropProperties, map and template are applied to each row
+        // independently
+        data = mapRows(data, parallel, node -> applyRowOperations(compiledView, node));
 
-            try {
-                JsonPatch.validate(patchData);
-            } catch (InvalidJsonPatchException e) {
-                throw new ViewProcessorException("Invalid data.jsonPatch: " + e.getMessage());
-            }
+        // apply "js"
+        var js = view.data().js().filter(v -> !v.isBlank());
+        if (js.isPresent()) {
+            data = jsEvaluator.eval(js.get(), data);
+        }
 
-            data = data.stream()
-                    .map(node -> applyJsonPatch(node, patchData))
-                    .toList();
+        return new RenderedView(view, data, entityNames.build());
+    }
+
+    /**
+     * Render a pre-compiled /mica/view/v1 one entity at a time, without
+     * collecting the whole data set in memory. Only views without {@code merge},
+     * {@code mergeBy} and {@code js} can be rendered this way (see
+     * {@link CompiledView#isStreamable(RenderOverrides)}).
+     * <p/>
+     * Note that {@code flatten} is applied to each row individually: array rows
+     * are flattened, other rows are returned as is.
+     */
+    public Stream<JsonNode> renderStream(CompiledView compiledView,
+                                         RenderOverrides overrides,
+                                         Stream<? extends EntityLike> entities) {
+        if (!compiledView.isStreamable(overrides)) {
+            throw new ViewProcessorException("Views with merge, mergeBy or js can't be rendered as a stream");
+        }
+
+        var jsonPath = compiledView.jsonPath();
+        var data = entities
+                .map(row -> applyAllJsonPaths(objectMapper.convertValue(row, JsonNode.class), jsonPath))
+                .flatMap(Optional::stream);
+
+        var flatten = compiledView.view().data().flatten().orElse(false);
+        if (flatten) {
+            data = data.flatMap(node -> node.isArray()
+                    ? stream(spliteratorUnknownSize(node.elements(), Spliterator.ORDERED), false)
+                    : Stream.of(node));
+        }
+
+        return data.map(node -> applyRowOperations(compiledView, node));
+    }
+
+    /**
+     * Applies jsonPatch, dropProperties, map and template to a single row.
+     */
+    private JsonNode applyRowOperations(CompiledView compiledView, JsonNode node) {
+        var view = compiledView.view();
+
+        // apply JSON patch
+        var patch = compiledView.jsonPatch();
+        if (patch.isPresent()) {
+            node = applyJsonPatch(node, patch.get());
         }
 
         // drop properties if requested
         var dropProperties = view.data().dropProperties().orElse(List.of());
         if (!dropProperties.isEmpty()) {
-            data.forEach(node -> {
-                if (!node.isObject()) {
-                    throw new ViewProcessorException(
-                            "dropProperties can only be applied to arrays of objects. The data is an array of %ss"
-                                    .formatted(node.getNodeType()));
-                }
-                ((ObjectNode) node).remove(dropProperties);
-            });
+            if (!node.isObject()) {
+                throw new ViewProcessorException(
+                        "dropProperties can only be applied to arrays of objects. The data is an array of %ss"
+                                .formatted(node.getNodeType()));
+            }
+            ((ObjectNode) node).remove(dropProperties);
         }
 
         // apply "map"
-        var map = view.data().map();
+        var map = compiledView.map();
         if (map.isPresent()) {
-            data = data.stream()
-                    .map(node -> {
-                        if (!node.isObject()) {
-                            throw new ViewProcessorException(
-                                    "map can only be applied to arrays of objects. The data is an array of %ss"
-                                            .formatted(node.getNodeType()));
-                        }
-                        var result = objectMapper.createObjectNode();
-                        map.get().forEach((key, value) -> {
-                            var output = applyAllJsonPaths(node, value);
-                            output.ifPresent(jsonNode -> result.set(key, jsonNode));
-                        });
-                        return (JsonNode) result;
-                    })
-                    .toList();
+            if (!node.isObject()) {
+                throw new ViewProcessorException(
+                        "map can only be applied to arrays of objects. The data is an array of %ss"
+                                .formatted(node.getNodeType()));
+            }
+            var result = objectMapper.createObjectNode();
+            var input = node;
+            map.get().forEach((key, value) -> {
+                var output = applyAllJsonPaths(input, value);
+                output.ifPresent(jsonNode -> result.set(key, jsonNode));
+            });
+            node = result;
         }
 
         // apply "template"
-        var template = view.data().template().filter(t -> !t.isNull());
+        var template = compiledView.template();
         if (template.isPresent()) {
-            data = data.stream()
-                    .map(node -> applyTemplate(node, template.get()))
-                    .toList();
-        }
-
-        // apply "js"
-        var js = view.data().js().filter(v -> !v.isBlank());
-        if (js.isPresent()) {
-            data = jsEvaluator.eval(js.get(), data);
+            node = applyTemplate(node, template.get());
         }
 
-        return new RenderedView(view, data, entityNames.build());
+        return node;
     }
 
-    private Optional<JsonNode> applyAllJsonPaths(JsonNode data, JsonNode jsonPath) {
-        if (jsonPath.isTextual()) {
-            return jsonPathEvaluator.applyInApiCall(data, jsonPath.asText());
-        } else if (jsonPath.isArray()) {
-            var result = data;
-            for (int i = 0; i < jsonPath.size(); i++) {
-                var node = jsonPath.get(i);
-                String jsonPath1 = node.asText();
-                var output = jsonPathEvaluator.applyInApiCall(result, jsonPath1);
-                if (output.isEmpty()) {
-                    return Optional.empty();
-                }
-                result = output.get();
+    private Optional<JsonNode> applyAllJsonPaths(JsonNode data, List<CompiledJsonPath> jsonPath) {
+        var result = data;
+        for (var path : jsonPath) {
+            var output = jsonPathEvaluator.applyInApiCall(result, path);
+            if (output.isEmpty()) {
+                return Optional.empty();
             }
-            return Optional.of(result);
-        } else {
-            throw new ViewProcessorException(
-                    "Expected a string or an array of strings as JSON path, got a " + jsonPath.getNodeType());
+            result = output.get();
         }
+        return Optional.of(result);
     }
 
-    private JsonNode applyJsonPatch(JsonNode node, JsonNode patchData) {
-        if (!patchData.isArray()) {
-            throw new ViewProcessorException(
-                    "jsonPatch must be a list of JSON patch operations. Got %s".formatted(patchData.getNodeType()));
-        }
-
-        // filter out operations that do not apply to the current node
-        var effectivePatchData = objectMapper.createArrayNode();
-        patchData.forEach(op -> {
-            var ifMatches = op.get("ifMatches");
-
-            if (ifMatches != null) {
-                var matchPath = ifMatches.get("path");
-                if (matchPath == null) {
-                    throw new ViewProcessorException("JSON path is required in ifMatches.path");
-                }
-
-                var matchValue = ifMatches.get("value");
-                if (matchValue == null) {
-                    throw new ViewProcessorException("Value is required in ifMatches.value");
-                }
-
-                try {
-                    var actualValue = jsonPathEvaluator.apply(node, matchPath.asText());
-                    actualValue.ifPresent(v -> {
-                        if (matchValue.equals(v)) {
-                            effectivePatchData.add(op);
-                        }
-                    });
-                } catch (JsonPathException e) {
-                    throw new ViewProcessorException(
-                            "Error while applying a JSON patch operation %s: %s".formatted(op, e.getMessage()));
+    private JsonNode applyJsonPatch(JsonNode node, CompiledJsonPatch compiledPatch) {
+        var patch = compiledPatch.patch();
+        if (compiledPatch.conditional()) {
+            // filter out operations that do not apply to the current node
+            patch = objectMapper.createArrayNode();
+            for (var op : compiledPatch.operations()) {
+                if (op.ifMatches().isEmpty() || matches(node, op, op.ifMatches().get())) {
+                    patch.add(op.operation());
                 }
-            } else {
-                effectivePatchData.add(op);
             }
-        });
+        }
 
         if (!node.isContainerNode()) {
             throw new ViewProcessorException(
@@ -259,57 +305,127 @@ public class ViewRenderer {
                             .formatted(node.getNodeType()));
         }
 
+        if (patch.isEmpty()) {
+            return node;
+        }
+
         try {
-            return JsonPatch.apply(effectivePatchData, node);
+            // rows are created by the renderer for each render, no need to copy them
+            if (compiledPatch.inPlace()) {
+                JsonPatch.applyInPlace(patch, node);
+                return node;
+            }
+            return JsonPatch.apply(patch, node);
         } catch (JsonPatchApplicationException e) {
             throw new ViewProcessorException(
                     "Error while applying data.jsonPatch: " + e.getMessage());
         }
     }
 
-    private JsonNode applyTemplate(JsonNode node, JsonNode template) {
-        if (template.isNull()) {
-            return template;
-        } else if (template.isTextual()) {
-            var text = template.asText();
-            if (text.startsWith("$")) {
-                return applyAllJsonPaths(node, template).orElse(NullNode.getInstance());
-            }
-        } else if (template.isArray()) {
-            if (template.isEmpty()) {
-                return template;
-            }
-
-            for (var i = 0; i < template.size(); i++) {
-                var in = template.get(i);
-                var out = applyTemplate(node, in);
-                ((ArrayNode) template).set(i, out);
-            }
-        } else if (template.isObject()) {
-            if (template.isEmpty()) {
-                return template;
-            }
+    private boolean matches(JsonNode node, PatchOperation op, PatchCondition condition) {
+        try {
+            return jsonPathEvaluator.apply(node, condition.path())
+                    .map(condition.value()::equals)
+                    .orElse(false);
+        } catch (JsonPathException e) {
+            throw new ViewProcessorException(
+                    "Error while applying a JSON patch operation %s: %s".formatted(op.operation(), e.getMessage()));
+        }
+    }
 
+    private JsonNode applyTemplate(JsonNode node, Template template) {
+        if (template instanceof Template.JsonPathValue path) {
+            return applyAllJsonPaths(node, path.jsonPath()).orElse(NullNode.getInstance());
+        } else if (template instanceof Template.ArrayValue array) {
+            var result = objectMapper.createArrayNode();
+            array.items().forEach(item -> result.add(applyTemplate(node, item)));
+            return result;
+        } else if (template instanceof Template.ObjectValue object) {
             var result = objectMapper.createObjectNode();
-            template.fieldNames().forEachRemaining(key -> {
-                var in = template.get(key);
-                var out = applyTemplate(node, in);
-                result.set(key, out);
-            });
+            object.fields().forEach((key, value) -> result.set(key, applyTemplate(node, value)));
             return result;
+        } else if (template instanceof Template.ConstantValue constant) {
+            // the compiled template is shared between renders, don't let the data
+            // processing steps to modify it
+            return constant.value().deepCopy();
         }
-
-        return template;
+        throw new IllegalArgumentException("Unknown template type: " + template.getClass());
     }
 
-    private ObjectNode deepMerge(ObjectNode left, ObjectNode right) {
+    /**
+     * Applies the function to each row, in parallel if requested and if there are
+     * enough rows. The order of the rows is preserved.
+     */
+    private static <T, R> List<R> mapRows(List<T> rows, boolean parallel, Function<? super T, ? extends R> fn) {
+        if (!parallel || rows.size() < PARALLEL_ROWS_THRESHOLD) {
+            return rows.stream().<R>map(fn).toList();
+        }
         try {
-            return mergeMapper.updateValue(left, right);
-        } catch (JsonProcessingException e) {
-            throw new ViewProcessorException("Error while merging JSON objects: " + e.getMessage());
+            // parallel streams started from a pool's thread are executed in that pool
+            return PARALLEL_POOL.submit(() -> rows.parallelStream().<R>map(fn).toList()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ViewProcessorException("Interrupted while rendering the view");
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new ViewProcessorException("Error while rendering the view: " + cause.getMessage());
         }
     }
 
+    /**
+     * Deep merges the objects into a new object. Nested objects are merged,
+     * everything else (including arrays) is replaced by the value from the last
+     * object. The input objects are not modified.
+     */
+    @VisibleForTesting
+    static ObjectNode mergeAll(List<JsonNode> objects) {
+        var result = JsonNodeFactory.instance.objectNode();
+        objects.forEach(object -> mergeInto(result, (ObjectNode) object));
+        return result;
+    }
+
+    /**
+     * Merges the rows of a single mergeBy group. Groups with a single row keep
+     * the original row.
+     */
+    private static JsonNode mergeGroup(List<JsonNode> rows) {
+        if (rows.size() == 1) {
+            return rows.get(0);
+        }
+        var result = JsonNodeFactory.instance.objectNode();
+        for (var row : rows) {
+            if (!(row instanceof ObjectNode object)) {
+                throw new ViewProcessorException("mergeBy can only merge objects, got: " + row.getNodeType());
+            }
+            mergeInto(result, object);
+        }
+        return result;
+    }
+
+    private static void mergeInto(ObjectNode target, ObjectNode source) {
+        var fields = source.fields();
+        while (fields.hasNext()) {
+            var field = fields.next();
+            var value = field.getValue();
+            if (target.get(field.getKey()) instanceof ObjectNode nested && value instanceof ObjectNode object) {
+                mergeInto(nested, object);
+            } else {
+                target.set(field.getKey(), copyOf(value));
+            }
+        }
+    }
+
+    private static JsonNode copyOf(JsonNode node) {
+        // value nodes are immutable
+        return node.isContainerNode() ? node.deepCopy() : node;
+    }
+
     public record RenderOverrides(boolean alwaysMerge) {
 
         public static RenderOverrides none() {
@@ -20,76 +20,197 @@ package ca.ibodrov.mica.server.data.js;
  * ======
  */
 
+import ca.ibodrov.mica.server.exceptions.ApiException;
 import ca.ibodrov.mica.server.exceptions.StoreException;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.hash.Hashing;
 import org.graalvm.polyglot.*;
 import org.graalvm.polyglot.io.IOAccess;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
-import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
+/**
+ * Evaluates {@code data.js} scripts using GraalJS.
+ * <p/>
+ * All contexts share the same {@link Engine}, so the parsed and compiled code
+ * is reused between evaluations. Scripts are cached by their hash. Each
+ * evaluation gets a fresh context, so top-level declarations and globals
+ * created by one run are never visible to the next one.
+ * <p/>
+ * Scripts run on a bounded pool of threads with a bounded queue. When the queue
+ * is full, or when the same script is already running four times, new
+ * evaluations are rejected right away. Scripts that take longer than 10 seconds
+ * are cancelled. The number of running evaluations is tracked per script hash
+ * outside the script cache, so evicting a script doesn't reset its limit.
+ */
 public class GraalJsEvaluator implements JsEvaluator {
 
-    private static final TypeReference<List<JsonNode>> LIST_OF_JSON_NODES = new TypeReference<List<JsonNode>>() {
-    };
+    private static final Logger log = LoggerFactory.getLogger(GraalJsEvaluator.class);
+
+    private static final int MAX_CACHED_SCRIPTS = 256;
+    private static final String METRIC_PREFIX = "mica-js";
 
     private final ObjectMapper objectMapper;
-    private final Executor executor;
+    private final Limits limits;
+    private final ThreadPoolExecutor executor;
+    private final Engine engine;
+    private final HostAccess hostAccess;
+    private final ResourceLimits resourceLimits;
+    private final Cache<String, Source> scripts;
+    // script hash -> number of running evaluations, entries are removed when
+    // the last evaluation finishes
+    private final ConcurrentMap<String, Integer> evaluationsInFlight;
+    private final Meter rejections;
+    private final Meter timeouts;
+    private final Timer waitTime;
+    private final Timer executionTime;
 
-    @Inject
     public GraalJsEvaluator(ObjectMapper objectMapper) {
+        this(objectMapper, new MetricRegistry());
+    }
+
+    @Inject
+    public GraalJsEvaluator(ObjectMapper objectMapper, MetricRegistry metricRegistry) {
+        this(objectMapper, metricRegistry, Limits.DEFAULT);
+    }
+
+    GraalJsEvaluator(ObjectMapper objectMapper, MetricRegistry metricRegistry, Limits limits) {
         this.objectMapper = requireNonNull(objectMapper);
-        this.executor = Executors.newFixedThreadPool(32, new ThreadFactory() {
+        this.limits = requireNonNull(limits);
+        this.executor = new ThreadPoolExecutor(limits.threads(), limits.threads(),
+                1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(limits.maxQueuedEvaluations()),
+                new ThreadFactory() {
 
-            private final AtomicLong id = new AtomicLong(0);
+                    private final AtomicLong id = new AtomicLong(0);
 
-            @Override
-            public Thread newThread(@NotNull Runnable r) {
-                return new Thread(r, "js-" + id.getAndIncrement());
-            }
-        });
-    }
+                    @Override
+                    public Thread newThread(@NotNull Runnable r) {
+                        var thread = new Thread(r, "js-" + id.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
 
-    @Override
-    public List<JsonNode> eval(String js, List<JsonNode> data) {
-        System.setProperty("polyglot.engine.WarnInterpreterOnly", "false");
+        this.rejections = metricRegistry.meter(METRIC_PREFIX + ".rejections");
+        this.timeouts = metricRegistry.meter(METRIC_PREFIX + ".timeouts");
+        this.waitTime = metricRegistry.timer(METRIC_PREFIX + ".wait-time");
+        this.executionTime = metricRegistry.timer(METRIC_PREFIX + ".execution-time");
+        metricRegistry.gauge(METRIC_PREFIX + ".queue-size", () -> (Gauge<Integer>) () -> executor.getQueue().size());
+        metricRegistry.gauge(METRIC_PREFIX + ".active", () -> (Gauge<Integer>) executor::getActiveCount);
 
-        var hostAccess = HostAccess.newBuilder()
+        this.engine = Engine.newBuilder("js")
+                .option("engine.WarnInterpreterOnly", "false")
+                .build();
+
+        this.hostAccess = HostAccess.newBuilder()
                 .allowPublicAccess(false)
                 .allowAllImplementations(false)
                 .allowAllClassImplementations(false)
                 .build();
 
-        var limits = ResourceLimits.newBuilder()
-                .statementLimit(65536, null)
+        this.resourceLimits = ResourceLimits.newBuilder()
+                .statementLimit(limits.statementLimit(), null)
                 .build();
 
-        try (var context = Context.newBuilder("js")
-                .allowHostAccess(hostAccess)
-                .resourceLimits(limits)
-                .allowIO(IOAccess.NONE)
-                .allowCreateThread(false)
-                .allowNativeAccess(false)
-                .allowHostClassLookup(className -> false)
-                .build()) {
+        this.scripts = Caffeine.newBuilder()
+                .maximumSize(MAX_CACHED_SCRIPTS)
+                .build();
+        this.evaluationsInFlight = new ConcurrentHashMap<>();
 
-            var jsData = convertToJs(context, objectMapper, data);
-            context.getBindings("js").putMember("_input", jsData);
+        // initialize the JS language in the background, so the first view doesn't
+        // have to wait for it
+        executor.execute(this::warmUp);
+    }
+
+    @Override
+    public List<JsonNode> eval(String js, List<JsonNode> data) {
+        var hash = hash(js);
+        var source = scripts.get(hash, _key -> Source.create("js", js));
 
-            var future = CompletableFuture.supplyAsync(() -> context.eval("js", js), executor);
-            var result = future.get(10, TimeUnit.SECONDS);
+        // don't let a single (slow) view to take all the threads
+        if (!tryStart(hash)) {
+            rejections.mark();
+            throw ApiException.serviceUnavailable(
+                    "Too many concurrent evaluations of the same 'js' operation, try again later");
+        }
 
-            return convertToJava(context, objectMapper, result);
+        try {
+            return evaluate(source, data);
+        } finally {
+            evaluationsInFlight.computeIfPresent(hash, (_key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private boolean tryStart(String hash) {
+        var started = new AtomicBoolean();
+        evaluationsInFlight.compute(hash, (_key, count) -> {
+            var current = count != null ? count : 0;
+            if (current >= limits.maxConcurrentEvaluationsPerScript()) {
+                return count;
+            }
+            started.set(true);
+            return current + 1;
+        });
+        return started.get();
+    }
+
+    private List<JsonNode> evaluate(Source source, List<JsonNode> data) {
+        // contexts are cheap when the engine is shared, while reusing them would
+        // re-run the same top-level declarations in the same global scope
+        var context = newContext();
+        var completed = false;
+        try {
+            // the script works with the data directly, without copying it
+            var input = objectMapper.createArrayNode().addAll(data);
+            context.getBindings("js").putMember("_input", JsonNodeProxies.toJs(input));
+
+            var ctx = context;
+            var submittedAt = System.nanoTime();
+            CompletableFuture<Value> future;
+            try {
+                future = CompletableFuture.supplyAsync(() -> {
+                    waitTime.update(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                    try (var ignored = executionTime.time()) {
+                        return ctx.eval(source);
+                    }
+                }, executor);
+            } catch (RejectedExecutionException e) {
+                rejections.mark();
+                throw ApiException.serviceUnavailable("Too many 'js' operations in progress, try again later");
+            }
+
+            var result = future.get(limits.timeout().toMillis(), TimeUnit.MILLISECONDS);
+
+            var output = toJava(result);
+            completed = true;
+            return output;
+        } catch (ApiException e) {
+            throw e;
         } catch (TimeoutException e) {
-            throw new StoreException("Timeout while executing the 'js' operation. Took more than 10 seconds.");
+            timeouts.mark();
+            throw new StoreException("Timeout while executing the 'js' operation. Took more than %d seconds."
+                    .formatted(limits.timeout().toSeconds()));
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new StoreException("Interrupted");
@@ -99,20 +220,59 @@ public class GraalJsEvaluator implements JsEvaluator {
                 t = pe;
             }
             throw new StoreException("Error while executing the 'js' operation: " + t.getMessage());
+        } finally {
+            // the script might still be running, closing the context cancels it and
+            // frees the thread
+            context.close(!completed);
+        }
+    }
+
+    private Context newContext() {
+        return Context.newBuilder("js")
+                .engine(engine)
+                .allowHostAccess(hostAccess)
+                .resourceLimits(resourceLimits)
+                .allowIO(IOAccess.NONE)
+                .allowCreateThread(false)
+                .allowNativeAccess(false)
+                .allowHostClassLookup(className -> false)
+                // let scripts use Array.prototype methods with the data proxies
+                .option("js.foreign-object-prototype", "true")
+                .build();
+    }
+
+    private void warmUp() {
+        try (var context = newContext()) {
+            context.eval("js", "JSON.stringify(JSON.parse('[1, 2, 3]').map(x => x * 2))");
+        } catch (Exception e) {
+            log.warn("Error while initializing the JS engine: {}", e.getMessage());
         }
     }
 
-    private static Value convertToJs(Context context, ObjectMapper objectMapper, List<JsonNode> data)
-            throws IOException {
-        var json = objectMapper.writeValueAsString(data);
-        context.getBindings("js").putMember("_json", json);
-        return context.eval("js", "JSON.parse(_json)");
+    private static String hash(String js) {
+        return Hashing.sha256().hashString(js, UTF_8).toString();
+    }
+
+    private static List<JsonNode> toJava(Value v) {
+        var result = JsonNodeProxies.toJsonNode(v);
+        if (!result.isArray()) {
+            throw new StoreException("The 'js' operation must return an array, got " + result.getNodeType());
+        }
+        var output = new ArrayList<JsonNode>(result.size());
+        result.forEach(output::add);
+        return output;
     }
 
-    private static List<JsonNode> convertToJava(Context context, ObjectMapper objectMapper, Value v)
-            throws IOException {
-        context.getBindings("js").putMember("_input", v);
-        var result = context.eval("js", "JSON.stringify(_input)");
-        return objectMapper.readValue(result.asString(), LIST_OF_JSON_NODES);
+    /**
+     * Sizes of the thread pool and the per-script and per-evaluation limits.
+     * Tests use smaller values.
+     */
+    record Limits(int threads,
+            int maxQueuedEvaluations,
+            int maxConcurrentEvaluationsPerScript,
+            long statementLimit,
+            Duration timeout) {
+
+        static final Limits DEFAULT = new Limits(32, 64, 4, 65536, Duration.ofSeconds(10));
     }
 }
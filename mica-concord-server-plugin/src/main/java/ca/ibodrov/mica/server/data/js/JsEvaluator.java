@@ -26,5 +26,10 @@ import java.util.List;
 
 public interface JsEvaluator {
 
+    /**
+     * Evaluates the script with {@code data} available as {@code _input}. The
+     * script's result must be an array. Implementations may modify the input
+     * nodes.
+     */
     List<JsonNode> eval(String js, List<JsonNode> data);
 }
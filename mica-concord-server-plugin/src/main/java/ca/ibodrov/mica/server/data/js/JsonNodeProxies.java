@@ -0,0 +1,275 @@
+package ca.ibodrov.mica.server.data.js;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.*;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Exposes Jackson trees to JavaScript without copying them and converts the
+ * results back.
+ * <p/>
+ * Objects and arrays are wrapped into proxies that read and write the
+ * underlying {@link JsonNode} directly, so the cost depends on what the script
+ * touches rather than on the size of the data. Scripts modify the original
+ * nodes. Nodes stored into other nodes are copied, so scripts can't create
+ * aliases or cycles.
+ */
+final class JsonNodeProxies {
+
+    private static final int MAX_DEPTH = 1000;
+
+    /**
+     * Converts a JSON node into a value that can be passed into a polyglot
+     * context: a proxy for containers, a boxed primitive or {@code null} for
+     * scalars.
+     */
+    static Object toJs(JsonNode node) {
+        if (node == null || node.isNull() || node.isMissingNode()) {
+            return null;
+        }
+        if (node instanceof ObjectNode object) {
+            return new ObjectProxy(object);
+        }
+        if (node instanceof ArrayNode array) {
+            return new ArrayProxy(array);
+        }
+        if (node.isTextual()) {
+            return node.textValue();
+        }
+        if (node.isBoolean()) {
+            return node.booleanValue();
+        }
+        if (node.isInt() || node.isShort()) {
+            return node.intValue();
+        }
+        if (node.isLong()) {
+            return node.longValue();
+        }
+        if (node.isNumber()) {
+            return node.doubleValue();
+        }
+        return node.asText();
+    }
+
+    /**
+     * Converts a polyglot value into a JSON node following the
+     * {@code JSON.stringify} rules: {@code undefined} and functions become
+     * {@code null} (and are skipped in objects), non-finite numbers become
+     * {@code null}, objects with {@code toJSON} (e.g. dates) are converted using
+     * that method.
+     */
+    static JsonNode toJsonNode(Value value) {
+        return toJsonNode(value, 0, false);
+    }
+
+    /**
+     * Same as {@link #toJsonNode(Value)}, but copies the proxied nodes. Used for
+     * values stored into other nodes.
+     */
+    private static JsonNode toStoredJsonNode(Value value) {
+        return toJsonNode(value, 0, true);
+    }
+
+    private static JsonNode toJsonNode(Value value, int depth, boolean copy) {
+        assertDepth(depth);
+
+        if (value == null || value.isNull() || value.canExecute()) {
+            return NullNode.getInstance();
+        }
+        if (value.isProxyObject()) {
+            var proxy = value.asProxyObject();
+            JsonNode node = null;
+            if (proxy instanceof ObjectProxy object) {
+                node = object.node;
+            } else if (proxy instanceof ArrayProxy array) {
+                node = array.node;
+            }
+            if (node != null) {
+                // scripts can build deep trees one level at a time
+                checkDepth(node, depth);
+                return copy ? node.deepCopy() : node;
+            }
+        }
+        if (value.isBoolean()) {
+            return BooleanNode.valueOf(value.asBoolean());
+        }
+        if (value.isString()) {
+            return TextNode.valueOf(value.asString());
+        }
+        if (value.isNumber()) {
+            if (value.fitsInInt()) {
+                return IntNode.valueOf(value.asInt());
+            }
+            if (value.fitsInLong()) {
+                return LongNode.valueOf(value.asLong());
+            }
+            var d = value.asDouble();
+            return Double.isFinite(d) ? DoubleNode.valueOf(d) : NullNode.getInstance();
+        }
+        if (value.canInvokeMember("toJSON")) {
+            return toJsonNode(value.invokeMember("toJSON"), depth + 1, copy);
+        }
+        if (value.hasArrayElements()) {
+            var size = value.getArraySize();
+            var result = JsonNodeFactory.instance.arrayNode((int) size);
+            for (long i = 0; i < size; i++) {
+                result.add(toJsonNode(value.getArrayElement(i), depth + 1, copy));
+            }
+            return result;
+        }
+        if (value.hasMembers()) {
+            var result = JsonNodeFactory.instance.objectNode();
+            for (var key : value.getMemberKeys()) {
+                var member = value.getMember(key);
+                if (member == null || isUndefined(member) || member.canExecute()) {
+                    continue;
+                }
+                result.set(key, toJsonNode(member, depth + 1, copy));
+            }
+            return result;
+        }
+        return TextNode.valueOf(value.toString());
+    }
+
+    private static void checkDepth(JsonNode node, int depth) {
+        assertDepth(depth);
+        if (node.isContainerNode()) {
+            for (var child : node) {
+                checkDepth(child, depth + 1);
+            }
+        }
+    }
+
+    private static void assertDepth(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("The result is too deep or contains cycles");
+        }
+    }
+
+    private static boolean isUndefined(Value value) {
+        // the polyglot API treats both null and undefined as "null"
+        return value.isNull() && "undefined".equals(value.toString());
+    }
+
+    private static final class ObjectProxy implements ProxyObject {
+
+        private final ObjectNode node;
+
+        private ObjectProxy(ObjectNode node) {
+            this.node = requireNonNull(node);
+        }
+
+        @Override
+        public Object getMember(String key) {
+            return toJs(node.get(key));
+        }
+
+        @Override
+        public Object getMemberKeys() {
+            var keys = new Object[node.size()];
+            var i = 0;
+            for (var it = node.fieldNames(); it.hasNext();) {
+                keys[i++] = it.next();
+            }
+            return ProxyArray.fromArray(keys);
+        }
+
+        @Override
+        public boolean hasMember(String key) {
+            return node.has(key);
+        }
+
+        @Override
+        public void putMember(String key, Value value) {
+            if (isUndefined(value)) {
+                node.remove(key);
+                return;
+            }
+            node.set(key, toStoredJsonNode(value));
+        }
+
+        @Override
+        public boolean removeMember(String key) {
+            return node.remove(key) != null;
+        }
+    }
+
+    private static final class ArrayProxy implements ProxyArray {
+
+        private final ArrayNode node;
+
+        private ArrayProxy(ArrayNode node) {
+            this.node = requireNonNull(node);
+        }
+
+        @Override
+        public Object get(long index) {
+            return toJs(node.get(checkIndex(index)));
+        }
+
+        @Override
+        public void set(long index, Value value) {
+            var i = checkIndex(index);
+            // no sparse arrays, the elements can be replaced or appended only
+            if (i > node.size()) {
+                throw new ArrayIndexOutOfBoundsException(
+                        "Index %d is out of bounds for length %d, only appends are allowed".formatted(i, node.size()));
+            }
+            var element = toStoredJsonNode(value);
+            if (i == node.size()) {
+                node.add(element);
+            } else {
+                node.set(i, element);
+            }
+        }
+
+        @Override
+        public boolean remove(long index) {
+            var i = checkIndex(index);
+            if (i >= node.size()) {
+                return false;
+            }
+            node.remove(i);
+            return true;
+        }
+
+        @Override
+        public long getSize() {
+            return node.size();
+        }
+
+        private static int checkIndex(long index) {
+            if (index < 0 || index > Integer.MAX_VALUE) {
+                throw new ArrayIndexOutOfBoundsException("Invalid index: " + index);
+            }
+            return (int) index;
+        }
+    }
+
+    private JsonNodeProxies() {
+    }
+}
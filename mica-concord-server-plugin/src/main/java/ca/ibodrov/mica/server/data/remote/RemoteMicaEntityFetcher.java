@@ -44,6 +44,7 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -60,6 +61,8 @@ public class RemoteMicaEntityFetcher implements EntityFetcher {
 
     private static final String URI_SCHEME = "mica+remote";
     private static final String DEFAULT_ENTITY_KIND = "/mica+remote/object/v1";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(1);
 
     private final ConcordSecretResolver secretResolver;
     private final ObjectMapper objectMapper;
@@ -69,7 +72,9 @@ public class RemoteMicaEntityFetcher implements EntityFetcher {
     public RemoteMicaEntityFetcher(ConcordSecretResolver secretResolver, ObjectMapper objectMapper) {
         this.secretResolver = requireNonNull(secretResolver);
         this.objectMapper = requireNonNull(objectMapper);
-        this.client = HttpClient.newHttpClient();
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
     }
 
     @Override
@@ -101,6 +106,7 @@ public class RemoteMicaEntityFetcher implements EntityFetcher {
             var req = HttpRequest.newBuilder()
                     .POST(BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(renderRequest)))
                     .uri(remoteUri)
+                    .timeout(REQUEST_TIMEOUT)
                     .header(CONTENT_TYPE.lowerCaseName(), APPLICATION_JSON);
 
             secret.ifPresent(apiKey -> req.header(AUTHORIZATION.lowerCaseName(),
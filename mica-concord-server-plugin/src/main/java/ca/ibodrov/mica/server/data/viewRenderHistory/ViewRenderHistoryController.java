@@ -22,34 +22,200 @@ package ca.ibodrov.mica.server.data.viewRenderHistory;
 
 import ca.ibodrov.mica.api.model.EntityId;
 import ca.ibodrov.mica.db.MicaDB;
+import com.google.common.collect.Queues;
+import com.walmartlabs.concord.server.sdk.BackgroundTask;
 import org.jooq.DSLContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static ca.ibodrov.mica.db.jooq.tables.MicaViewRenderHistory.MICA_VIEW_RENDER_HISTORY;
 import static java.util.Objects.requireNonNull;
+import static org.jooq.impl.DSL.avg;
+import static org.jooq.impl.DSL.count;
 
-public class ViewRenderHistoryController {
+/**
+ * Records view renders in {@code MICA_VIEW_RENDER_HISTORY}. Entries are queued
+ * in memory and written in batches by a background thread, using multi-row
+ * inserts, once a batch is full or every second.
+ * <p/>
+ * When the queue is more than half full only every 10th entry is accepted, when
+ * it's full new entries are dropped. The remaining entries are written when
+ * the server stops.
+ */
+public class ViewRenderHistoryController implements BackgroundTask {
+
+    private static final Logger log = LoggerFactory.getLogger(ViewRenderHistoryController.class);
+
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int SAMPLING_THRESHOLD = QUEUE_CAPACITY / 2;
+    private static final int SAMPLING_RATE = 10;
+    private static final int BATCH_SIZE = 500;
+    private static final Duration FLUSH_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration STOP_TIMEOUT = Duration.ofSeconds(10);
 
     private final DSLContext dsl;
+    private final BlockingQueue<Entry> queue;
+    private final AtomicLong sampled;
+    private final AtomicLong skipped;
+    private final AtomicLong dropped;
+    private final Thread thread;
+    private volatile boolean running;
 
     @Inject
     public ViewRenderHistoryController(@MicaDB DSLContext dsl) {
         this.dsl = requireNonNull(dsl);
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.sampled = new AtomicLong();
+        this.skipped = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.running = true;
+
+        // started right away, renders can be recorded before the background
+        // tasks are started
+        this.thread = new Thread(this::run, "view-render-history-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    /**
+     * Stops the writer and writes the remaining entries.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            thread.join(STOP_TIMEOUT.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            log.warn("The view render history writer didn't stop in {}, {} entries left unwritten", STOP_TIMEOUT,
+                    queue.size());
+        }
     }
 
     public void addEntry(EntityId entityId, Duration selectTime, Duration renderTime, int fetchedEntities) {
-        dsl.transaction(cfg -> {
-            var tx = cfg.dsl();
-            tx.insertInto(MICA_VIEW_RENDER_HISTORY)
-                    .columns(MICA_VIEW_RENDER_HISTORY.ENTITY_ID,
-                            MICA_VIEW_RENDER_HISTORY.SELECT_TIME_MS,
-                            MICA_VIEW_RENDER_HISTORY.RENDER_TIME_MS,
-                            MICA_VIEW_RENDER_HISTORY.FETCHED_ENTITIES)
-                    .values(entityId.id(), selectTime.toMillis(), renderTime.toMillis(), fetchedEntities)
-                    .execute();
-        });
+        if (queue.size() >= SAMPLING_THRESHOLD && sampled.incrementAndGet() % SAMPLING_RATE != 0) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        var entry = new Entry(entityId.id(), Instant.now(), selectTime.toMillis(), renderTime.toMillis(),
+                fetchedEntities);
+        if (!queue.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void run() {
+        var batch = new ArrayList<Entry>(BATCH_SIZE);
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                Queues.drain(queue, batch, BATCH_SIZE, FLUSH_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            flush(batch);
+            reportDropped();
+        }
+
+        // write whatever is left in the queue
+        while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+            flush(batch);
+        }
+        reportDropped();
+    }
+
+    private void flush(List<Entry> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            write(batch);
+        } catch (Exception e) {
+            log.warn("Error while writing {} view render history entries: {}", batch.size(), e.getMessage());
+        }
+        batch.clear();
+    }
+
+    private void reportDropped() {
+        var n = skipped.getAndSet(0);
+        if (n > 0) {
+            log.info("Skipped {} view render history entries, the queue is more than half full (sampling)", n);
+        }
+        n = dropped.getAndSet(0);
+        if (n > 0) {
+            log.warn("Dropped {} view render history entries, the queue is full", n);
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        var insert = dsl.insertInto(MICA_VIEW_RENDER_HISTORY)
+                .columns(MICA_VIEW_RENDER_HISTORY.ENTITY_ID,
+                        MICA_VIEW_RENDER_HISTORY.RENDERED_AT,
+                        MICA_VIEW_RENDER_HISTORY.SELECT_TIME_MS,
+                        MICA_VIEW_RENDER_HISTORY.RENDER_TIME_MS,
+                        MICA_VIEW_RENDER_HISTORY.FETCHED_ENTITIES);
+        for (var entry : batch) {
+            insert = insert.values(entry.entityId(), entry.renderedAt(), entry.selectTimeMs(), entry.renderTimeMs(),
+                    entry.fetchedEntities());
+        }
+        insert.execute();
+    }
+
+    /**
+     * Returns IDs of the most frequently rendered views followed by the views
+     * with the longest average select + render time, up to {@code limit} views of
+     * each, rendered since the specified instant.
+     */
+    public List<EntityId> findHotViews(Instant since, int limit) {
+        var entityId = MICA_VIEW_RENDER_HISTORY.ENTITY_ID;
+        var recent = MICA_VIEW_RENDER_HISTORY.RENDERED_AT.greaterOrEqual(since);
+
+        var mostRendered = dsl.select(entityId)
+                .from(MICA_VIEW_RENDER_HISTORY)
+                .where(recent)
+                .groupBy(entityId)
+                .orderBy(count().desc())
+                .limit(limit)
+                .fetch(entityId);
+
+        var slowest = dsl.select(entityId)
+                .from(MICA_VIEW_RENDER_HISTORY)
+                .where(recent)
+                .groupBy(entityId)
+                .orderBy(avg(MICA_VIEW_RENDER_HISTORY.SELECT_TIME_MS.plus(MICA_VIEW_RENDER_HISTORY.RENDER_TIME_MS))
+                        .desc())
+                .limit(limit)
+                .fetch(entityId);
+
+        var result = new LinkedHashSet<UUID>(mostRendered);
+        result.addAll(slowest);
+        return result.stream().map(EntityId::new).toList();
+    }
+
+    private record Entry(UUID entityId,
+            Instant renderedAt,
+            long selectTimeMs,
+            long renderTimeMs,
+            int fetchedEntities) {
     }
 }
@@ -47,6 +47,10 @@ public class ApiException extends WebApplicationException {
         return new ApiException(CONFLICT, ApiError.conflict(message));
     }
 
+    public static ApiException serviceUnavailable(String message) {
+        return new ApiException(SERVICE_UNAVAILABLE, ApiError.serviceUnavailable(message));
+    }
+
     public ApiException(Status status, ApiError error) {
         this(error.message(), null, status, error);
     }
@@ -33,11 +33,11 @@ import com.networknt.schema.SchemaValidatorsConfig;
 import com.networknt.schema.ValidationMessage;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
 import static ca.ibodrov.mica.api.kinds.MicaKindV1.MICA_KIND_V1;
 import static java.util.Objects.requireNonNull;
@@ -52,27 +52,25 @@ public class ValidateAllReport implements Report<ValidateAllReport.Options> {
     };
 
     private final EntityKindStore entityKindStore;
-    private final EntityFetchers entityFetchers;
+    private final Provider<EntityFetchers> entityFetchers;
     private final ObjectMapper objectMapper;
-    private final Validator validator;
 
-    // Inject only specific entity fetchers to avoid cyclic dependencies
+    // EntityFetchers depends on reports (via ReportEntityFetcher), use a provider
+    // to avoid cyclic dependencies
     @Inject
     public ValidateAllReport(EntityKindStore entityKindStore,
-                             InternalEntityFetcher internalEntityFetcher,
+                             Provider<EntityFetchers> entityFetchers,
                              ObjectMapper objectMapper) {
 
         this.entityKindStore = requireNonNull(entityKindStore);
-        this.entityFetchers = new EntityFetchers(Set.of(requireNonNull(internalEntityFetcher)));
+        this.entityFetchers = requireNonNull(entityFetchers);
         this.objectMapper = requireNonNull(objectMapper);
-        var schemaFetcher = new EntityKindStoreSchemaFetcher(entityKindStore, objectMapper);
-        this.validator = Validator.getDefault(objectMapper, schemaFetcher);
     }
 
     @Override
     public PartialEntity run(Options options) {
         // grab all "/mica/kind/v1" entities
-        var report = entityFetchers.fetchAll(MICA_KIND_V1)
+        var report = entityFetchers.get().fetchAll(MICA_KIND_V1)
                 .map(kindAndSource -> {
                     var kind = kindAndSource.entity();
                     var kindSource = kindAndSource.source();
@@ -92,13 +90,13 @@ public class ValidateAllReport implements Report<ValidateAllReport.Options> {
                     }
 
                     // parse the schema
-                    var schemaFactory = validator.getJsonSchemaFactory();
+                    var schemaFactory = entityKindStore.getValidator().getJsonSchemaFactory();
                     var config = new SchemaValidatorsConfig();
                     config.setPathType(PathType.JSON_POINTER);
                     var schema = schemaFactory.getSchema(schemaJson, config);
 
                     // validate each entity of this kind
-                    var entities = entityFetchers.fetchAll(kind.name()).map(entityAndSource -> {
+                    var entities = entityFetchers.get().fetchAll(kind.name()).map(entityAndSource -> {
                         var entity = entityAndSource.entity();
                         var input = objectMapper.convertValue(entity, JsonNode.class);
                         var violations = schema.validate(input).stream()
@@ -27,6 +27,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.walmartlabs.concord.server.sdk.metrics.WithTimer;
 import com.walmartlabs.concord.server.sdk.rest.Resource;
+import org.jooq.Condition;
 import org.jooq.DSLContext;
 
 import javax.annotation.Nullable;
@@ -34,12 +35,10 @@ import javax.inject.Inject;
 import javax.validation.constraints.NotEmpty;
 import javax.ws.rs.*;
 import java.time.Instant;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.stream.Stream;
 
 import static ca.ibodrov.mica.db.jooq.Tables.MICA_ENTITIES;
-import static java.util.Comparator.comparing;
 import static java.util.Objects.requireNonNull;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import static org.jooq.impl.DSL.*;
@@ -102,53 +101,96 @@ public class EntityListResource implements Resource {
     private List<Entry> list(String path, String entityKind, boolean deleted) {
         var pathLength = path.length();
 
-        var deletedCondition = deleted ? MICA_ENTITIES.DELETED_AT.isNotNull() : MICA_ENTITIES.DELETED_AT.isNull();
-        var entityKindCondition = entityKind != null && !entityKind.isBlank() ? MICA_ENTITIES.KIND.eq(entityKind)
-                : noCondition();
-
-        var filesQuery = dsl.select(
-                substring(MICA_ENTITIES.NAME, val(pathLength + 1), length(MICA_ENTITIES.NAME).minus(pathLength))
-                        .as("name"),
-                MICA_ENTITIES.ID,
-                MICA_ENTITIES.NAME.as("entityName"),
-                MICA_ENTITIES.KIND.as("entityKind"),
-                MICA_ENTITIES.DELETED_AT)
-                .from(MICA_ENTITIES)
-                .where(MICA_ENTITIES.NAME.like(path + "%")
-                        .and(MICA_ENTITIES.NAME.notLike(path + "%/%"))
-                        .and(entityKindCondition)
-                        .and(deletedCondition))
-                .limit(LIST_LIMIT);
-
-        var files = filesQuery.stream()
-                .map(r -> new Entry(
+        // a "loose index scan" over the direct children of the path: each step
+        // finds the next matching entity using the IDX_ENTITIES_NAME_PATTERN
+        // index, then skips the rest of its folder (if it is in a subfolder).
+        // The cost depends on the number of children, not on the total number
+        // of entities in the folder and its subfolders.
+        // Folders and files are counted separately: once one of the lists is
+        // full, the scan looks only for the entries of the other one
+        var query = dsl.resultQuery("""
+                with recursive CHILDREN(FOLDERS, FILES, NAME, ID, KIND, DELETED_AT) as (
+                    (select IS_FOLDER, 1 - IS_FOLDER, NAME, ID, KIND, DELETED_AT
+                     from (select NAME, ID, KIND, DELETED_AT,
+                                  (strpos(substr(NAME, {2}), '/') > 0)::int as IS_FOLDER
+                           from MICA_ENTITIES
+                           where NAME like {0} and {1}
+                           order by NAME using ~<~, ID
+                           limit 1) F)
+                    union all
+                    select C.FOLDERS + E.IS_FOLDER, C.FILES + 1 - E.IS_FOLDER, E.NAME, E.ID, E.KIND, E.DELETED_AT
+                    from CHILDREN C
+                    cross join lateral (
+                        select NAME, ID, KIND, DELETED_AT,
+                               (strpos(substr(NAME, {2}), '/') > 0)::int as IS_FOLDER
+                        from MICA_ENTITIES
+                        where NAME ~>=~ (case when strpos(substr(C.NAME, {2}), '/') > 0
+                                              then {3} || split_part(substr(C.NAME, {2}), '/', 1) || '0'
+                                              else C.NAME end)
+                          and not (NAME = C.NAME and ID <= C.ID)
+                          and NAME like {0} and {1}
+                          and (C.FOLDERS < {4} or strpos(substr(NAME, {2}), '/') = 0)
+                          and (C.FILES < {4} or strpos(substr(NAME, {2}), '/') > 0)
+                        order by NAME using ~<~, ID
+                        limit 1) E
+                    where C.FOLDERS < {4} or C.FILES < {4}
+                )
+                select NAME, ID, KIND, DELETED_AT from CHILDREN
+                """,
+                // inlined, so the planner can turn the pattern into an index range
+                inline(escapeLikePattern(path) + "%"),
+                childrenCondition(entityKind, deleted),
+                val(pathLength + 1),
+                val(path),
+                val(LIST_LIMIT))
+                .coerce(MICA_ENTITIES.NAME, MICA_ENTITIES.ID, MICA_ENTITIES.KIND, MICA_ENTITIES.DELETED_AT);
+
+        var folders = new LinkedHashSet<String>();
+        var files = new ArrayList<Entry>();
+        for (var r : query.fetch()) {
+            var entityName = r.value1();
+            var name = entityName.substring(pathLength);
+            var slash = name.indexOf('/');
+            if (slash >= 0) {
+                if (folders.size() < LIST_LIMIT) {
+                    folders.add(name.substring(0, slash));
+                }
+            } else if (files.size() < LIST_LIMIT) {
+                files.add(new Entry(
                         Type.FILE,
-                        r.get("name", String.class),
-                        Optional.of(r.get(MICA_ENTITIES.ID)).map(EntityId::new),
-                        Optional.of(r.get("entityName", String.class)),
-                        Optional.of(r.get("entityKind", String.class)),
-                        Optional.ofNullable(r.get(MICA_ENTITIES.DELETED_AT))));
+                        name,
+                        Optional.of(new EntityId(r.value2())),
+                        Optional.of(entityName),
+                        Optional.of(r.value3()),
+                        Optional.ofNullable(r.value4())));
+            }
+        }
 
-        var foldersQuery = dsl.selectDistinct(
-                substring(MICA_ENTITIES.NAME, val(pathLength + 1),
-                        position(substring(MICA_ENTITIES.NAME, val(pathLength + 1)), val("/")).minus(1))
-                        .as("folderName"))
-                .from(MICA_ENTITIES)
-                .where(MICA_ENTITIES.NAME.like(path + "%/%")
-                        .and(entityKindCondition)
-                        .and(deletedCondition))
-                .limit(LIST_LIMIT);
+        return Stream.concat(folders.stream().map(folderName -> new Entry(
+                Type.FOLDER,
+                folderName,
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty())), files.stream())
+                .toList();
+    }
 
-        var folders = foldersQuery.stream()
-                .map(r -> new Entry(
-                        Type.FOLDER,
-                        r.get("folderName", String.class),
-                        Optional.empty(),
-                        Optional.empty(),
-                        Optional.empty(),
-                        Optional.empty()));
-
-        return Stream.concat(folders, files).toList();
+    private static Condition childrenCondition(String entityKind, boolean deleted) {
+        // unqualified, the condition is used with the unaliased MICA_ENTITIES
+        var deletedAt = field(MICA_ENTITIES.DELETED_AT.getUnqualifiedName(), MICA_ENTITIES.DELETED_AT.getDataType());
+        var kind = field(MICA_ENTITIES.KIND.getUnqualifiedName(), MICA_ENTITIES.KIND.getDataType());
+        var deletedCondition = deleted ? deletedAt.isNotNull() : deletedAt.isNull();
+        var entityKindCondition = entityKind != null && !entityKind.isBlank() ? kind.eq(entityKind)
+                : noCondition();
+        return deletedCondition.and(entityKindCondition);
+    }
+
+    private static String escapeLikePattern(String s) {
+        // PostgreSQL uses backslash as the default LIKE escape character
+        return s.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
     }
 
     private List<Entry> search(String entityKind, boolean deleted, String search) {
@@ -28,6 +28,8 @@ import org.jooq.DSLContext;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 
+import javax.sql.DataSource;
+
 public class AbstractDatabaseTest {
 
     private static TestDatabase testDatabase;
@@ -59,4 +61,8 @@ public class AbstractDatabaseTest {
     protected static DSLContext dsl() {
         return testDatabase.getJooqConfiguration().dsl();
     }
+
+    protected static DataSource dataSource() {
+        return testDatabase.getDataSource();
+    }
 }
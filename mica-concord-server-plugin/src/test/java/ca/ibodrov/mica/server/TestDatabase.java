@@ -55,6 +55,10 @@ public class TestDatabase implements AutoCloseable {
         return jooqConfiguration;
     }
 
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
     @Override
     public void close() throws Exception {
         Method m = dataSource.getClass().getMethod("close");
@@ -20,12 +20,15 @@ package ca.ibodrov.mica.server.api;
  * ======
  */
 
+import ca.ibodrov.mica.api.model.EntityList;
 import ca.ibodrov.mica.api.model.EntityMetadata;
+import ca.ibodrov.mica.api.model.PartialEntity;
 import ca.ibodrov.mica.server.AbstractDatabaseTest;
 import ca.ibodrov.mica.server.data.EntityController;
 import ca.ibodrov.mica.server.data.EntityHistoryController;
 import ca.ibodrov.mica.server.data.EntityKindStore;
 import ca.ibodrov.mica.server.exceptions.ApiException;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.walmartlabs.concord.common.DateTimeUtils;
 import com.walmartlabs.concord.server.security.UserPrincipal;
 import org.hibernate.validator.HibernateValidator;
@@ -34,8 +37,13 @@ import org.junit.jupiter.api.Test;
 
 import javax.validation.ConstraintViolationException;
 import javax.validation.Validation;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
 import static ca.ibodrov.mica.server.data.UserEntryUtils.user;
 import static java.time.ZoneOffset.UTC;
@@ -50,7 +58,7 @@ public class EntityResourceTest extends AbstractDatabaseTest {
 
     @BeforeAll
     public static void setUp() {
-        var entityKindStore = new EntityKindStore(entityStore);
+        var entityKindStore = new EntityKindStore(entityStore, objectMapper);
         var historyController = new EntityHistoryController(dsl());
         var controller = new EntityController(dsl(), entityStore, entityKindStore, historyController, objectMapper);
         var validator = Validation.byProvider(HibernateValidator.class)
@@ -112,7 +120,7 @@ public class EntityResourceTest extends AbstractDatabaseTest {
                   multiline
                   text
                 """);
-        var entities = entityResource.listEntities("testRecord", null, null, null, null);
+        var entities = entityResource.listEntities("testRecord", null, null, null, null, -1, null);
         assertEquals(1, entities.data().size());
         var entity1 = entities.data().get(0);
         assertEquals(entity1Version, entity1.toVersion());
@@ -126,9 +134,9 @@ public class EntityResourceTest extends AbstractDatabaseTest {
                   nested:
                     object: "why not?"
                 """);
-        entities = entityResource.listEntities("testRecord", null, null, null, null);
+        entities = entityResource.listEntities("testRecord", null, null, null, null, -1, null);
         assertEquals(2, entities.data().size());
-        entities = entityResource.listEntities("anotherTestRecord", null, null, null, null);
+        entities = entityResource.listEntities("anotherTestRecord", null, null, null, null, -1, null);
         assertEquals(1, entities.data().size());
         var entity2 = entities.data().get(0);
         assertEquals(entity2Version, entity2.toVersion());
@@ -174,13 +182,13 @@ public class EntityResourceTest extends AbstractDatabaseTest {
                 data: "foo"
                 """);
 
-        var entityList = entityResource.listEntities(null, null, "/someRecord", null, null);
+        var entityList = entityResource.listEntities(null, null, "/someRecord", null, null, -1, null);
         assertTrue(entityList.data().stream().map(EntityMetadata::toVersion).anyMatch(createdVersion::equals));
 
         var deletedVersion = entityResource.deleteById(session, createdVersion.id().id());
         assertEquals(createdVersion, deletedVersion.asVersion());
 
-        entityList = entityResource.listEntities(null, null, "/someRecord", null, null);
+        entityList = entityResource.listEntities(null, null, "/someRecord", null, null, -1, null);
         assertTrue(entityList.data().stream().map(EntityMetadata::toVersion).noneMatch(createdVersion::equals));
     }
 
@@ -284,6 +292,76 @@ public class EntityResourceTest extends AbstractDatabaseTest {
         assertEquals("/testGetByIdAndUpdatedAt/a", entity.name());
     }
 
+    @Test
+    public void testListPagination() throws Exception {
+        var prefix = randomEntityName(16);
+        var expectedNames = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            var name = prefix + "/" + i;
+            entityUploadResource.putYaml(session, false, """
+                    kind: /mica/record/v1
+                    name: %s
+                    data: foo
+                    """.formatted(name));
+            expectedNames.add(name);
+        }
+
+        var names = new ArrayList<String>();
+        var page = entityResource.listEntities(null, prefix + "/", null, null, null, 2, null);
+        var pageCount = 1;
+        names.addAll(page.data().stream().map(EntityMetadata::name).toList());
+        while (page.next().isPresent()) {
+            page = entityResource.listEntities(null, prefix + "/", null, null, null, 2, page.next().get());
+            pageCount++;
+            names.addAll(page.data().stream().map(EntityMetadata::name).toList());
+        }
+        assertEquals(expectedNames, names);
+        assertEquals(3, pageCount);
+
+        // streamed pages use the same tokens
+        var response = entityResource.listEntitiesStream(null, prefix + "/", null, null, null, 4, null);
+        var out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        var streamedPage = objectMapper.readValue(out.toByteArray(), EntityList.class);
+        assertEquals(expectedNames.subList(0, 4), streamedPage.data().stream().map(EntityMetadata::name).toList());
+        var lastPage = entityResource.listEntities(null, prefix + "/", null, null, null, 4,
+                streamedPage.next().orElseThrow());
+        assertEquals(expectedNames.subList(4, 5), lastPage.data().stream().map(EntityMetadata::name).toList());
+        assertTrue(lastPage.next().isEmpty());
+
+        var error = assertThrows(ApiException.class,
+                () -> entityResource.listEntities(null, null, null, null, null, 2, "not a token"));
+        assertEquals(400, error.getStatus().getStatusCode());
+    }
+
+    @Test
+    public void testStreamSpansSeveralPages() throws Exception {
+        var prefix = randomEntityName(16);
+        // more entities than a single page of EntityStore#search
+        var entities = IntStream.range(0, 1200)
+                .mapToObj(i -> "%s/%04d".formatted(prefix, i))
+                .map(name -> PartialEntity.create(name, "/mica/record/v1", Map.of("data", TextNode.valueOf("Hi!"))))
+                .toList();
+        dsl().transaction(tx -> entityStore.upsertChanged(tx.dsl(), entities));
+        var expectedNames = entities.stream().map(PartialEntity::name).toList();
+
+        var response = entityResource.listEntitiesStream(null, prefix + "/", null, null, null, -1, null);
+        var out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        var all = objectMapper.readValue(out.toByteArray(), EntityList.class);
+        assertEquals(expectedNames, all.data().stream().map(EntityMetadata::name).toList());
+        assertTrue(all.next().isEmpty());
+
+        response = entityResource.listEntitiesStream(null, prefix + "/", null, null, null, 1000, null);
+        out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        var firstPage = objectMapper.readValue(out.toByteArray(), EntityList.class);
+        assertEquals(expectedNames.subList(0, 1000), firstPage.data().stream().map(EntityMetadata::name).toList());
+        var lastPage = entityResource.listEntities(null, prefix + "/", null, null, null, 1000,
+                firstPage.next().orElseThrow());
+        assertEquals(expectedNames.subList(1000, 1200), lastPage.data().stream().map(EntityMetadata::name).toList());
+    }
+
     private String format(Instant v) {
         return objectMapper.convertValue(v, String.class);
     }
@@ -0,0 +1,103 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.Entity;
+import ca.ibodrov.mica.api.model.EntityId;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EntityCacheTest {
+
+    @Test
+    public void entitiesAreLoadedOnceAndCopiedOnRead() {
+        var cache = EntityCache.inMemory();
+        var entity = entity("/test", 1);
+
+        var loads = new AtomicInteger();
+        var first = cache.getByName("/test", name -> {
+            loads.incrementAndGet();
+            return Optional.of(entity);
+        });
+        assertEquals(entity, first.orElseThrow());
+
+        // modifying the result must not affect the cached entity
+        first.get().data().put("value", IntNode.valueOf(100));
+
+        var second = cache.getByName("/test", name -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        });
+        assertEquals(1, second.orElseThrow().data().get("value").asInt());
+
+        // entities loaded by name are also cached by ID
+        var third = cache.getById(entity.id(), id -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        });
+        assertEquals(entity, third.orElseThrow());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void invalidatedEntitiesAreLoadedAgain() {
+        var cache = EntityCache.inMemory();
+        var entity = entity("/test", 1);
+        cache.getById(entity.id(), id -> Optional.of(entity));
+
+        // e.g. the entity was renamed
+        cache.invalidate(entity.id().id(), "/renamed");
+
+        var renamed = new Entity(entity.id(), "/renamed", entity.kind(), entity.createdAt(), Instant.now(),
+                Optional.empty(), entity.data());
+        assertEquals(renamed, cache.getById(entity.id(), id -> Optional.of(renamed)).orElseThrow());
+        assertEquals(Optional.empty(), cache.getByName("/test", name -> Optional.empty()));
+    }
+
+    @Test
+    public void deletedEntitiesAreNotReturnedByName() {
+        var cache = EntityCache.inMemory();
+        var entity = entity("/test", 1);
+        var deleted = new Entity(entity.id(), entity.name(), entity.kind(), entity.createdAt(), entity.updatedAt(),
+                Optional.of(Instant.now()), entity.data());
+
+        // getById can return "deleted" entities
+        cache.getById(entity.id(), id -> Optional.of(deleted));
+
+        var result = cache.getByName("/test", name -> Optional.empty());
+        assertTrue(result.isEmpty());
+    }
+
+    private static Entity entity(String name, int value) {
+        var data = Map.<String, JsonNode>of("value", IntNode.valueOf(value));
+        return new Entity(new EntityId(UUID.randomUUID()), name, "/test-kind", Instant.now(), Instant.now(),
+                Optional.empty(), data);
+    }
+}
@@ -25,6 +25,7 @@ import ca.ibodrov.mica.api.model.EntityVersion;
 import ca.ibodrov.mica.api.model.PartialEntity;
 import ca.ibodrov.mica.server.AbstractDatabaseTest;
 import ca.ibodrov.mica.server.YamlMapper;
+import ca.ibodrov.mica.server.data.EntityController.EntityDocument;
 import ca.ibodrov.mica.server.data.EntityController.UpdateIf;
 import ca.ibodrov.mica.server.exceptions.ApiException;
 import ca.ibodrov.mica.server.exceptions.StoreException;
@@ -38,6 +39,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -56,7 +58,7 @@ public class EntityControllerTest extends AbstractDatabaseTest {
     @BeforeAll
     public static void setUp() {
         yamlMapper = new YamlMapper(objectMapper);
-        var entityKindStore = new EntityKindStore(entityStore);
+        var entityKindStore = new EntityKindStore(entityStore, objectMapper);
         var historyController = new EntityHistoryController(dsl());
         controller = new EntityController(dsl(), entityStore, entityKindStore, historyController, objectMapper);
 
@@ -474,6 +476,80 @@ public class EntityControllerTest extends AbstractDatabaseTest {
         assertNotEquals(secondVersion.id(), fourthVersion.id());
     }
 
+    @Test
+    public void bulkUploadWritesOnlyChangedEntities() {
+        var prefix = "/test_bulk/" + randomEntityName();
+        var docA = """
+                kind: /mica/record/v1
+                name: %s/a
+                data: foo # comment
+                """.formatted(prefix);
+        var docB = """
+                kind: /mica/record/v1
+                name: %s/b
+                data: bar
+                """.formatted(prefix);
+
+        var result = controller.putAll(session, List.of(
+                new EntityDocument(parseYaml(docA), docA),
+                new EntityDocument(parseYaml(docB), docB)), false);
+        assertEquals(2, result.inserted());
+        assertEquals(0, result.updated());
+        assertEquals(0, result.unchanged());
+
+        var versionA = entityStore.getVersion(prefix + "/a").orElseThrow();
+        var storedDocA = entityStore.getEntityDoc(versionA).orElseThrow();
+        assertTrue(storedDocA.contains("id: \"%s\"".formatted(versionA.id().toExternalForm())));
+        assertTrue(storedDocA.contains("data: foo # comment"));
+
+        // "a" is the same, "b" is changed, "c" is new
+        var updatedDocB = docB.replace("bar", "baz");
+        var docC = docB.replace("/b", "/c");
+        result = controller.putAll(session, List.of(
+                new EntityDocument(parseYaml(docA), docA),
+                new EntityDocument(parseYaml(updatedDocB), updatedDocB),
+                new EntityDocument(parseYaml(docC), docC)), false);
+        assertEquals(1, result.inserted());
+        assertEquals(1, result.updated());
+        assertEquals(1, result.unchanged());
+        assertEquals(2, result.changedEntities().size());
+        assertEquals(versionA, entityStore.getVersion(prefix + "/a").orElseThrow());
+
+        // invalid entities fail the whole batch
+        var invalidDoc = """
+                kind: /mica/record/v1
+                name: %s/d
+                randomProp: foo
+                """.formatted(prefix);
+        var updatedDocC = docC.replace("bar", "qux");
+        assertThrows(ValidationErrorsException.class, () -> controller.putAll(session, List.of(
+                new EntityDocument(parseYaml(updatedDocC), updatedDocC),
+                new EntityDocument(parseYaml(invalidDoc), invalidDoc)), false));
+        var entityC = entityStore.getByName(prefix + "/c").orElseThrow();
+        assertEquals("bar", entityC.data().get("data").asText());
+        assertTrue(entityStore.getVersion(prefix + "/d").isEmpty());
+    }
+
+    @Test
+    public void bulkUploadRejectsNamesUsedAsFoldersInTheSameBatch() {
+        var prefix = "/test_bulk/" + randomEntityName();
+        // "a-x" sorts between "a" and "a/b"
+        var documents = List.of("a", "a-x", "a/b").stream()
+                .map(name -> {
+                    var doc = """
+                            kind: /mica/record/v1
+                            name: %s/%s
+                            data: foo
+                            """.formatted(prefix, name);
+                    return new EntityDocument(parseYaml(doc), doc);
+                })
+                .toList();
+
+        var error = assertThrows(StoreException.class, () -> controller.putAll(session, documents, false));
+        assertTrue(error.getMessage().contains(prefix + "/a is a folder"));
+        assertTrue(entityStore.getVersion(prefix + "/a").isEmpty());
+    }
+
     private static PartialEntity parseYaml(@Language("yaml") String yaml) {
         try {
             return yamlMapper.readValue(yaml, PartialEntity.class);
@@ -0,0 +1,135 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.EntityLike;
+import ca.ibodrov.mica.api.model.PartialEntity;
+import ca.ibodrov.mica.server.exceptions.ApiException;
+import ca.ibodrov.mica.server.exceptions.StoreException;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EntityFetchersTest {
+
+    @Test
+    public void includesAreReturnedInOrder() {
+        var fetchers = new EntityFetchers(Set.of(
+                new TestFetcher("slow", 500),
+                new TestFetcher("fast", 0)));
+
+        var uris = List.of(URI.create("slow://a"), URI.create("fast://b"), URI.create("slow://c"));
+
+        var start = System.currentTimeMillis();
+        var names = fetchers.fetch(uris, "/test", Optional.empty()).map(EntityLike::name).toList();
+        var elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(List.of("slow://a", "fast://b", "slow://c"), names);
+        // the slow includes are fetched concurrently
+        assertTrue(elapsed < 1000, "elapsed: " + elapsed);
+    }
+
+    @Test
+    public void unsupportedIncludesAreReported() {
+        var fetchers = new EntityFetchers(Set.of(new TestFetcher("fast", 0)));
+        var uris = List.of(URI.create("fast://a"), URI.create("unknown://b"));
+        assertThrows(ApiException.class, () -> fetchers.fetch(uris, "/test", Optional.empty()).toList());
+    }
+
+    @Test
+    public void remainingFetchesAreInterruptedOnError() throws Exception {
+        var started = new CountDownLatch(1);
+        var interrupted = new CountDownLatch(1);
+        var slow = new EntityFetcher() {
+
+            @Override
+            public boolean isSupported(FetchRequest request) {
+                return request.uri().map(uri -> "slow".equals(uri.getScheme())).orElse(false);
+            }
+
+            @Override
+            public Cursor fetch(FetchRequest request) {
+                started.countDown();
+                try {
+                    Thread.sleep(60_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+                return Stream::empty;
+            }
+        };
+        var failing = new EntityFetcher() {
+
+            @Override
+            public boolean isSupported(FetchRequest request) {
+                return request.uri().map(uri -> "fail".equals(uri.getScheme())).orElse(false);
+            }
+
+            @Override
+            public Cursor fetch(FetchRequest request) {
+                try {
+                    started.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new StoreException("Failed");
+            }
+        };
+
+        var fetchers = new EntityFetchers(Set.of(slow, failing));
+        var uris = List.of(URI.create("fail://a"), URI.create("slow://b"));
+        assertThrows(ApiException.class, () -> fetchers.fetch(uris, "/test", Optional.empty()).toList());
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    private record TestFetcher(String scheme, long delay) implements EntityFetcher {
+
+        @Override
+        public boolean isSupported(FetchRequest request) {
+            return request.uri().map(uri -> scheme.equals(uri.getScheme())).orElse(false);
+        }
+
+        @Override
+        public Cursor fetch(FetchRequest request) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            var uri = request.uri().orElseThrow();
+            return () -> Stream.of(PartialEntity.create(uri.toString(), "/test", Map.of()));
+        }
+    }
+}
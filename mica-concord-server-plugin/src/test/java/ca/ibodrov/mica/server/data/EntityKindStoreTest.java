@@ -0,0 +1,103 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.kinds.MicaKindV1;
+import ca.ibodrov.mica.server.AbstractDatabaseTest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static ca.ibodrov.mica.server.data.BuiltinSchemas.INTERNAL_ENTITY_STORE_URI;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EntityKindStoreTest extends AbstractDatabaseTest {
+
+    @Test
+    public void compiledSchemasAreCachedByKindVersion() {
+        var kindName = "/test-kind-" + System.currentTimeMillis();
+        var entityKindStore = new EntityKindStore(entityStore, objectMapper);
+
+        upsertKind(kindName, valueOfType("integer"));
+        var first = entityKindStore.getCompiledSchemaForKind(kindName).orElseThrow();
+        var second = entityKindStore.getCompiledSchemaForKind(kindName).orElseThrow();
+        assertSame(first, second);
+
+        var input = record(kindName, IntNode.valueOf(1));
+        assertTrue(entityKindStore.getValidator().validateObject(first, input).isValid());
+
+        // a new version of the kind must be compiled again
+        upsertKind(kindName, valueOfType("string"));
+        var third = entityKindStore.getCompiledSchemaForKind(kindName).orElseThrow();
+        assertNotSame(first, third);
+        assertFalse(entityKindStore.getValidator().validateObject(third, input).isValid());
+    }
+
+    @Test
+    public void schemasAreRecompiledWhenReferencedKindsChange() {
+        var refName = "/test-ref-kind-" + System.currentTimeMillis();
+        var kindName = refName + "-user";
+        var entityKindStore = new EntityKindStore(entityStore, objectMapper);
+
+        upsertKind(refName, valueOfType("integer"));
+        upsertKind(kindName, objectMapper.createObjectNode()
+                .set("$ref", TextNode.valueOf(INTERNAL_ENTITY_STORE_URI + refName + "#/properties/value")));
+
+        var input = record(kindName, IntNode.valueOf(1));
+        var first = entityKindStore.getCompiledSchemaForKind(kindName).orElseThrow();
+        assertTrue(entityKindStore.getValidator().validateObject(first, input).isValid());
+
+        // the kind itself is unchanged, only the referenced kind is
+        upsertKind(refName, valueOfType("string"));
+        // normally triggered by the change notification
+        entityKindStore.invalidateSchemas();
+
+        var second = entityKindStore.getCompiledSchemaForKind(kindName).orElseThrow();
+        assertNotSame(first, second);
+        assertFalse(entityKindStore.getValidator().validateObject(second, input).isValid());
+    }
+
+    private static JsonNode valueOfType(String valueType) {
+        return objectMapper.createObjectNode()
+                .set("type", TextNode.valueOf(valueType));
+    }
+
+    private static JsonNode record(String kindName, JsonNode value) {
+        return objectMapper.convertValue(Map.of("name", kindName + "/record", "kind", kindName, "value", value),
+                JsonNode.class);
+    }
+
+    private static void upsertKind(String name, JsonNode valueSchema) {
+        var existing = entityStore.getVersion(name);
+        var kind = new MicaKindV1.Builder()
+                .name(name)
+                .schema(objectMapper.createObjectNode()
+                        .set("properties", objectMapper.createObjectNode()
+                                .set("value", valueSchema)))
+                .build()
+                .toPartialEntity(objectMapper);
+        var entity = existing.map(kind::withVersion).orElse(kind);
+        dsl().transaction(tx -> entityStore.upsert(tx.dsl(), entity, null).orElseThrow());
+    }
+}
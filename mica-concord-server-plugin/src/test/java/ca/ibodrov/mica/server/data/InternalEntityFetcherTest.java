@@ -0,0 +1,91 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.EntityLike;
+import ca.ibodrov.mica.api.model.PartialEntity;
+import ca.ibodrov.mica.server.AbstractDatabaseTest;
+import ca.ibodrov.mica.server.data.EntityFetcher.FetchRequest;
+import com.fasterxml.jackson.databind.node.IntNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InternalEntityFetcherTest extends AbstractDatabaseTest {
+
+    @Test
+    public void namePatternsArePushedDown() {
+        var pathPrefix = "/test-" + System.currentTimeMillis();
+        var kind = pathPrefix + "/record";
+        for (var name : List.of("/a/1", "/a/2", "/b/1", "/b/2.yaml")) {
+            var entity = PartialEntity.create(pathPrefix + name, kind, Map.of("value", IntNode.valueOf(1)));
+            dsl().transaction(tx -> entityStore.upsert(tx.dsl(), entity, null).orElseThrow());
+        }
+
+        var fetcher = new InternalEntityFetcher(dsl(), objectMapper);
+
+        // patterns must match whole names
+        assertEquals(List.of(pathPrefix + "/a/1", pathPrefix + "/b/2.yaml"),
+                fetchNames(fetcher, kind, List.of(pathPrefix + "/a/1", pathPrefix + "/b/.*\\.yaml")));
+
+        // patterns outside of the common regex subset are ignored
+        assertEquals(4, fetchNames(fetcher, kind, List.of(pathPrefix + "/a/\\d")).size());
+
+        assertEquals(4, fetchNames(fetcher, kind, List.of()).size());
+    }
+
+    @Test
+    public void entitiesAreFetchedInBatches() {
+        var pathPrefix = "/test-" + System.currentTimeMillis();
+        var kind = pathPrefix + "/record";
+        var entities = IntStream.range(0, 250)
+                .mapToObj(i -> PartialEntity.create(pathPrefix + "/" + i, kind, Map.of("value", IntNode.valueOf(i))))
+                .toList();
+        dsl().transaction(tx -> entityStore.upsertChanged(tx.dsl(), entities));
+
+        var fetcher = new InternalEntityFetcher(dsl(), objectMapper);
+
+        // more than one batch, the connections are released after each stream
+        for (var i = 0; i < 20; i++) {
+            assertEquals(250, fetchNames(fetcher, kind, List.of()).size());
+        }
+    }
+
+    @Test
+    public void onlyPortablePatternsArePushedDown() {
+        assertTrue(InternalEntityFetcher.isPortableRegex("/foo/(bar|baz)/[0-9]+\\.yaml"));
+        assertFalse(InternalEntityFetcher.isPortableRegex("(?i)/foo"));
+        assertFalse(InternalEntityFetcher.isPortableRegex("/foo/\\d+"));
+        assertFalse(InternalEntityFetcher.isPortableRegex("/foo/[[:alpha:]]"));
+    }
+
+    private static List<String> fetchNames(InternalEntityFetcher fetcher, String kind, List<String> namePatterns) {
+        var request = new FetchRequest(Optional.empty(), Optional.of(kind), Optional.of(namePatterns));
+        try (var entities = fetcher.fetch(request).stream()) {
+            return entities.map(EntityLike::name).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.walmartlabs.concord.common.ObjectMapperProvider;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonPathEvaluatorTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+    private static final JsonPathEvaluator evaluator = new JsonPathEvaluator(objectMapper);
+
+    private static final JsonNode DATA = parse("""
+            {
+              "client": {
+                "id": "c1",
+                "name": null,
+                "active": true,
+                "contacts": [
+                  {"type": "email", "value": "a@example.com", "priority": 1},
+                  {"type": "phone", "value": "555", "priority": 2.5},
+                  {"type": "email", "priority": "3"},
+                  {"type": "fax", "value": null},
+                  "not-an-object",
+                  null
+                ],
+                "limits": {"quotaMb": 10, "nested": {"quotaMb": 20}}
+              },
+              "numbers": [1, 2, 3, 4, 5],
+              "empty": [],
+              "text": "5",
+              "flag": false
+            }
+            """);
+
+    @Test
+    public void nativeResultsMatchJayway() {
+        var expressions = List.of(
+                "$",
+                "$.client",
+                "$.client.id",
+                "$['client']['id']",
+                "$[\"client\"].id",
+                "$.client.name",
+                "$.client.missing",
+                "$.client.missing.deeper",
+                "$.client.id.deeper",
+                "$.client.name.deeper",
+                "$.client.contacts[0].type",
+                "$.client.contacts[-1]",
+                "$.client.contacts[-2]",
+                "$.client.contacts[100]",
+                "$.client.contacts[100].type",
+                "$.text[0]",
+                "$[0]",
+                "$.*",
+                "$.client.*",
+                "$[*]",
+                "$.numbers[*]",
+                "$.empty[*]",
+                "$.text[*]",
+                "$.missing[*]",
+                "$.client.missing.deeper[*]",
+                "$.client.contacts[*].type",
+                "$.client.contacts[*].value",
+                "$.client.contacts[*].value.deeper",
+                "$.client.contacts[*][0]",
+                "$.numbers[1:3]",
+                "$.numbers[2:]",
+                "$.numbers[-2:]",
+                "$.numbers[:2]",
+                "$.numbers[:-1]",
+                "$.numbers[3:100]",
+                "$.numbers[4:2]",
+                "$.text[1:2]",
+                "$.missing[1:2]",
+                "$..quotaMb",
+                "$..nested.quotaMb",
+                "$..['type']",
+                "$.client..quotaMb",
+                "$.missing..quotaMb",
+                "$.text..quotaMb",
+                "$.client.contacts[?(@.type == 'email')]",
+                "$.client.contacts[?(@.type == \"email\")].value",
+                "$.client.contacts[?(@.type != 'email')]",
+                "$.client.contacts[?(@.value)]",
+                "$.client.contacts[?(@.value)].type",
+                "$.client.contacts[?(@.missing.deeper)]",
+                "$.client.contacts[?(@.priority > 1)]",
+                "$.client.contacts[?(@.priority >= 2.5)]",
+                "$.client.contacts[?(@.priority < 3)]",
+                "$.client.contacts[?(@.priority <= 1)]",
+                "$.client.contacts[?(@.priority == 3)]",
+                "$.client.contacts[?(@.priority == '1')]",
+                "$.client.contacts[?(@.priority == '2.50')]",
+                "$.client.contacts[?(@.type > 'email')]",
+                "$.client.contacts[?(@.type == 'email' && @.priority == 1)]",
+                "$.client.contacts[?(@.type == 'fax' || @.priority == 1)]",
+                "$.client.contacts[?(@.type == 'fax' || @.type == 'email' && @.priority == 1)]",
+                "$.client.contacts[?(@['type'] == 'phone')].priority",
+                "$.client.contacts[?(@.missing != 'x')]",
+                "$.client[?(@.active == true)].id",
+                "$.client[?(@.active == false)].id",
+                "$[?(@.text == 5)].flag",
+                "$[?(@.flag == false)]",
+                "$.client.limits.*[?(@.quotaMb > 1)]");
+
+        for (var expression : expressions) {
+            var compiled = evaluator.compile(expression);
+            assertTrue(compiled.nativePath().isPresent(), "Expected a native path: " + expression);
+            assertEquals(evaluator.applyWithJayway(DATA, compiled), evaluator.apply(DATA, compiled), expression);
+        }
+    }
+
+    @Test
+    public void unsupportedExpressionsFallBackToJayway() {
+        var expressions = List.of(
+                "$..*",
+                "$..[0]",
+                "$..[11]",
+                "$..[101]",
+                "$..[*]",
+                "$.numbers.length()",
+                "$['client','text']",
+                "$.numbers[0,1]",
+                "$.client.contacts[?(@.type in ['email', 'fax'])]",
+                "$.client.contacts[?(@.type =~ /e.*/)]",
+                "$.client.contacts[?(@.value == null)]",
+                "$.client.contacts[?(!@.value)]");
+
+        for (var expression : expressions) {
+            var compiled = evaluator.compile(expression);
+            assertTrue(compiled.nativePath().isEmpty(), "Expected a Jayway path: " + expression);
+            assertEquals(evaluator.applyWithJayway(DATA, compiled), evaluator.apply(DATA, compiled), expression);
+        }
+    }
+
+    @Test
+    public void definitePathsReturnValues() {
+        assertEquals("c1", evaluator.apply(DATA, "$.client.id").orElseThrow().asText());
+        assertEquals(5, evaluator.apply(DATA, "$.numbers[-1]").orElseThrow().asInt());
+        assertTrue(evaluator.apply(DATA, "$.client.name").isEmpty());
+        assertTrue(evaluator.apply(DATA, "$.client.missing.deeper").isEmpty());
+    }
+
+    private static JsonNode parse(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
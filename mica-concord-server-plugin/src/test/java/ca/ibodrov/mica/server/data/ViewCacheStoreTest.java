@@ -0,0 +1,145 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.kinds.MicaViewV1;
+import ca.ibodrov.mica.api.model.EntityId;
+import ca.ibodrov.mica.api.model.EntityVersion;
+import ca.ibodrov.mica.api.model.PartialEntity;
+import ca.ibodrov.mica.server.AbstractDatabaseTest;
+import ca.ibodrov.mica.server.data.EntityChangeListener.EntityChange;
+import ca.ibodrov.mica.server.data.ViewCache.ViewDependencies;
+import ca.ibodrov.mica.server.data.ViewRenderer.RenderOverrides;
+import com.fasterxml.jackson.databind.node.IntNode;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static ca.ibodrov.mica.api.kinds.MicaViewV1.Data.jsonPath;
+import static ca.ibodrov.mica.api.kinds.MicaViewV1.Selector.byEntityKind;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ViewCacheStoreTest extends AbstractDatabaseTest {
+
+    private static ViewCacheStore viewCacheStore;
+
+    @BeforeAll
+    public static void setUp() {
+        viewCacheStore = new ViewCacheStore(dataSource(), dsl(), objectMapper);
+    }
+
+    @Test
+    public void storedViewsCanBeRetrieved() {
+        var view = new MicaViewV1.Builder()
+                .name("/test-view-" + System.currentTimeMillis())
+                .selector(byEntityKind("/test-kind"))
+                .data(jsonPath("$"))
+                .build();
+
+        var viewVersion = new EntityVersion(new EntityId(UUID.randomUUID()), Instant.now());
+        var key = viewCacheStore.cacheKey(viewVersion, RenderOverrides.none(), IntNode.valueOf(1));
+        assertNotEquals(key, viewCacheStore.cacheKey(viewVersion, RenderOverrides.merged(), IntNode.valueOf(1)));
+        assertNotEquals(key, viewCacheStore.cacheKey(viewVersion, RenderOverrides.none(), IntNode.valueOf(2)));
+
+        var renderedView = new RenderedView(view, List.of(IntNode.valueOf(42)), List.of("/foo"));
+        viewCacheStore.put(key, viewVersion, ViewDependencies.of(view), renderedView, Instant.now(),
+                Duration.ofHours(1));
+
+        var storedView = viewCacheStore.get(key).orElseThrow();
+        assertEquals(42, storedView.data().get(0).asInt());
+        assertEquals(List.of("/foo"), storedView.entityNames());
+    }
+
+    @Test
+    public void expiredViewsAreNotReturned() {
+        var view = new MicaViewV1.Builder()
+                .name("/test-view-" + System.currentTimeMillis())
+                .selector(byEntityKind("/test-kind"))
+                .data(jsonPath("$"))
+                .build();
+
+        var viewVersion = new EntityVersion(new EntityId(UUID.randomUUID()), Instant.now());
+        var key = viewCacheStore.cacheKey(viewVersion, RenderOverrides.none(), null);
+
+        var renderedView = new RenderedView(view, List.of(IntNode.valueOf(42)), List.of("/foo"));
+        viewCacheStore.put(key, viewVersion, ViewDependencies.of(view), renderedView,
+                Instant.now().minus(Duration.ofMinutes(1)), Duration.ofSeconds(1));
+
+        assertTrue(viewCacheStore.get(key).isEmpty());
+        assertTrue(viewCacheStore.deleteExpired() >= 1);
+    }
+
+    @Test
+    public void changesRemoveMatchingViewsInTheSameTransaction() {
+        var suffix = "-" + System.currentTimeMillis();
+        var byKind = store(new MicaViewV1.Builder()
+                .name("/test-view-a" + suffix)
+                .selector(byEntityKind("/test-kind-a" + suffix))
+                .data(jsonPath("$"))
+                .build());
+        var byName = store(new MicaViewV1.Builder()
+                .name("/test-view-b" + suffix)
+                .selector(byEntityKind(".*").withNamePatterns(List.of("/test-folder" + suffix + "/.*")))
+                .data(jsonPath("$"))
+                .build());
+
+        dsl().transaction(cfg -> viewCacheStore.notifyChanges(cfg.dsl(),
+                List.of(new EntityChange("/foo" + suffix, "/test-kind-a" + suffix))));
+        assertTrue(viewCacheStore.get(byKind).isEmpty());
+        assertTrue(viewCacheStore.get(byName).isPresent());
+
+        dsl().transaction(cfg -> viewCacheStore.notifyChanges(cfg.dsl(),
+                List.of(new EntityChange("/test-folder" + suffix + "/foo", "/test-kind-b" + suffix))));
+        assertTrue(viewCacheStore.get(byName).isEmpty());
+    }
+
+    @Test
+    public void entityStoreChangesAreNotifiedWithoutViewCache() {
+        var suffix = "-" + System.currentTimeMillis();
+        var kind = "/test-kind" + suffix;
+        var key = store(new MicaViewV1.Builder()
+                .name("/test-view" + suffix)
+                .selector(byEntityKind(kind))
+                .data(jsonPath("$"))
+                .build());
+
+        // the store is the only listener
+        var store = new EntityStore(dsl(), objectMapper, uuidGenerator, Set.of(viewCacheStore));
+        dsl().transaction(cfg -> store.upsert(cfg.dsl(),
+                PartialEntity.create("/test-record" + suffix, kind, Map.of("value", IntNode.valueOf(1))), null));
+        assertTrue(viewCacheStore.get(key).isEmpty());
+    }
+
+    private static String store(MicaViewV1 view) {
+        var viewVersion = new EntityVersion(new EntityId(UUID.randomUUID()), Instant.now());
+        var key = viewCacheStore.cacheKey(viewVersion, RenderOverrides.none(), null);
+        var renderedView = new RenderedView(view, List.of(IntNode.valueOf(42)), List.of());
+        viewCacheStore.put(key, viewVersion, ViewDependencies.of(view), renderedView, Instant.now(),
+                Duration.ofHours(1));
+        return key;
+    }
+}
@@ -0,0 +1,260 @@
+package ca.ibodrov.mica.server.data;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.kinds.MicaViewV1;
+import ca.ibodrov.mica.api.model.EntityId;
+import ca.ibodrov.mica.api.model.EntityVersion;
+import ca.ibodrov.mica.api.model.RenderViewRequest;
+import ca.ibodrov.mica.api.model.ViewLike;
+import ca.ibodrov.mica.server.data.ViewRenderer.RenderOverrides;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static ca.ibodrov.mica.api.kinds.MicaViewV1.Data.jsonPath;
+import static ca.ibodrov.mica.api.kinds.MicaViewV1.Selector.byEntityKind;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ViewCacheTest {
+
+    @Test
+    public void staleEntriesAreServedWhileRevalidating() throws Exception {
+        var viewCache = ViewCache.inMemory();
+
+        var view = new MicaViewV1.Builder()
+                .name("/test-view")
+                .selector(byEntityKind("/test-kind"))
+                .data(jsonPath("$"))
+                .caching(new MicaViewV1.Caching(Optional.of("true"), Optional.of("PT0.1S"), Optional.of("PT1H"),
+                        Optional.empty()))
+                .build();
+
+        var request = RenderViewRequest.of("/test-view");
+        var viewVersion = new EntityVersion(new EntityId(UUID.randomUUID()), Instant.now());
+
+        var renderCount = new AtomicInteger();
+        BiFunction<ViewLike, RenderOverrides, RenderedView> renderer = (v, overrides) -> new RenderedView(v,
+                List.of(IntNode.valueOf(renderCount.incrementAndGet())), List.of());
+
+        var result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        assertEquals(1, result.data().get(0).asInt());
+
+        // wait for the entry to become stale
+        Thread.sleep(200);
+
+        // the stale value must be returned right away
+        result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        assertEquals(1, result.data().get(0).asInt());
+
+        // eventually the refreshed value must be returned
+        var deadline = System.currentTimeMillis() + 10_000;
+        while (result.data().get(0).asInt() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        }
+        assertEquals(2, result.data().get(0).asInt());
+    }
+
+    @Test
+    public void prewarmRendersOnlyMissingOrSoonToBeStaleEntries() {
+        var viewCache = ViewCache.inMemory();
+
+        var view = new MicaViewV1.Builder()
+                .name("/test-view")
+                .selector(byEntityKind("/test-kind"))
+                .data(jsonPath("$"))
+                .caching(new MicaViewV1.Caching(Optional.of("true"), Optional.of("PT1H"), Optional.empty(),
+                        Optional.of("true")))
+                .build();
+
+        var request = RenderViewRequest.of("/test-view");
+        var viewVersion = new EntityVersion(new EntityId(UUID.randomUUID()), Instant.now());
+
+        var renderCount = new AtomicInteger();
+        BiFunction<ViewLike, RenderOverrides, RenderedView> renderer = (v, overrides) -> new RenderedView(v,
+                List.of(IntNode.valueOf(renderCount.incrementAndGet())), List.of());
+
+        // nothing is cached yet
+        assertTrue(viewCache.prewarm(request, viewVersion, view, Duration.ofMinutes(10), renderer));
+        assertEquals(1, renderCount.get());
+
+        // the entry stays fresh for longer than 10 minutes
+        assertFalse(viewCache.prewarm(request, viewVersion, view, Duration.ofMinutes(10), renderer));
+        assertEquals(1, renderCount.get());
+
+        // but not for longer than 2 hours
+        assertTrue(viewCache.prewarm(request, viewVersion, view, Duration.ofHours(2), renderer));
+        assertEquals(2, renderCount.get());
+
+        // the pre-warmed entry is served from the cache
+        var result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        assertEquals(2, result.data().get(0).asInt());
+        assertEquals(2, renderCount.get());
+    }
+
+    @Test
+    public void viewsRenderedDuringInvalidationAreNotCached() {
+        var viewCache = ViewCache.inMemory();
+
+        var view = new MicaViewV1.Builder()
+                .name("/test-view")
+                .selector(byEntityKind("/test-kind"))
+                .data(jsonPath("$"))
+                .caching(new MicaViewV1.Caching(Optional.of("true"), Optional.of("PT1H"), Optional.empty(),
+                        Optional.empty()))
+                .build();
+
+        var request = RenderViewRequest.of("/test-view");
+        var viewVersion = new EntityVersion(new EntityId(UUID.randomUUID()), Instant.now());
+
+        // the first render sees an entity change in the middle of it
+        var renderCount = new AtomicInteger();
+        BiFunction<ViewLike, RenderOverrides, RenderedView> renderer = (v, overrides) -> {
+            var count = renderCount.incrementAndGet();
+            if (count == 1) {
+                viewCache.onEntityChange(null, "/test-entity", "/test-kind");
+            }
+            return new RenderedView(v, List.of(IntNode.valueOf(count)), List.of());
+        };
+
+        var result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        assertEquals(1, result.data().get(0).asInt());
+
+        // the result of the first render must not be cached
+        result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        assertEquals(2, result.data().get(0).asInt());
+
+        result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        assertEquals(2, result.data().get(0).asInt());
+    }
+
+    @Test
+    public void refreshesStaySingleFlightAfterInvalidation() throws Exception {
+        var viewCache = ViewCache.inMemory();
+
+        var view = new MicaViewV1.Builder()
+                .name("/test-view")
+                .selector(byEntityKind("/test-kind"))
+                .data(jsonPath("$"))
+                .caching(new MicaViewV1.Caching(Optional.of("true"), Optional.of("PT0.1S"), Optional.of("PT1H"),
+                        Optional.empty()))
+                .build();
+
+        var request = RenderViewRequest.of("/test-view");
+        var viewVersion = new EntityVersion(new EntityId(UUID.randomUUID()), Instant.now());
+
+        // the background refresh (the second render) waits until released
+        var refreshStarted = new CountDownLatch(1);
+        var releaseRefresh = new CountDownLatch(1);
+        var renderCount = new AtomicInteger();
+        BiFunction<ViewLike, RenderOverrides, RenderedView> renderer = (v, overrides) -> {
+            var count = renderCount.incrementAndGet();
+            if (count == 2) {
+                refreshStarted.countDown();
+                try {
+                    releaseRefresh.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return new RenderedView(v, List.of(IntNode.valueOf(count)), List.of());
+        };
+
+        viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        Thread.sleep(200);
+        var result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        assertEquals(1, result.data().get(0).asInt());
+        assertTrue(refreshStarted.await(10, TimeUnit.SECONDS));
+
+        // an unrelated change doesn't let another refresh of the same entry in
+        viewCache.onEntityChange(null, "/other-entity", "/other-kind");
+        assertFalse(viewCache.prewarm(request, viewVersion, view, Duration.ofHours(2), renderer));
+        assertEquals(2, renderCount.get());
+
+        // the change doesn't affect the view, the refresh is stored
+        releaseRefresh.countDown();
+        Thread.sleep(200);
+        result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        assertEquals(2, result.data().get(0).asInt());
+    }
+
+    @Test
+    public void unrelatedChangesDoNotDropRenders() {
+        var viewCache = ViewCache.inMemory();
+
+        var view = new MicaViewV1.Builder()
+                .name("/test-view")
+                .selector(byEntityKind("/test-kind"))
+                .data(jsonPath("$"))
+                .caching(new MicaViewV1.Caching(Optional.of("true"), Optional.of("PT1H"), Optional.empty(),
+                        Optional.empty()))
+                .build();
+
+        var request = RenderViewRequest.of("/test-view");
+        var viewVersion = new EntityVersion(new EntityId(UUID.randomUUID()), Instant.now());
+
+        // the first render sees a change of an entity the view doesn't depend on
+        var renderCount = new AtomicInteger();
+        BiFunction<ViewLike, RenderOverrides, RenderedView> renderer = (v, overrides) -> {
+            var count = renderCount.incrementAndGet();
+            if (count == 1) {
+                viewCache.onEntityChange(null, "/other-entity", "/other-kind");
+            }
+            return new RenderedView(v, List.of(IntNode.valueOf(count)), List.of());
+        };
+
+        var result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        assertEquals(1, result.data().get(0).asInt());
+
+        // the result of the first render is cached
+        result = viewCache.getOrRender(request, viewVersion, RenderOverrides.none(), view, renderer);
+        assertEquals(1, result.data().get(0).asInt());
+        assertEquals(1, renderCount.get());
+    }
+
+    @Test
+    public void weightGrowsWithData() {
+        var small = JsonNodeFactory.instance.objectNode().put("x", "abc");
+        var large = JsonNodeFactory.instance.objectNode().put("x", "abc".repeat(1000));
+        var nested = JsonNodeFactory.instance.objectNode().set("y", JsonNodeFactory.instance.arrayNode()
+                .add(small.deepCopy())
+                .add(TextNode.valueOf("def")));
+
+        assertEquals(0, ViewCache.estimateWeight(List.of()));
+        assertTrue(ViewCache.estimateWeight(List.of(small)) < ViewCache.estimateWeight(List.of(large)));
+        assertTrue(ViewCache.estimateWeight(List.of(small)) < ViewCache.estimateWeight(List.of(small, small)));
+        assertTrue(ViewCache.estimateWeight(List.of(small)) < ViewCache.estimateWeight(List.of(nested)));
+    }
+}
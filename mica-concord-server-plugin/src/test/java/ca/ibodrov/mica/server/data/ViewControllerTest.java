@@ -23,9 +23,11 @@ package ca.ibodrov.mica.server.data;
 import ca.ibodrov.mica.api.kinds.MicaKindV1;
 import ca.ibodrov.mica.api.kinds.MicaViewV1;
 import ca.ibodrov.mica.api.model.ApiError;
+import ca.ibodrov.mica.api.model.EntityVersion;
 import ca.ibodrov.mica.api.model.PartialEntity;
 import ca.ibodrov.mica.api.model.RenderViewRequest;
 import ca.ibodrov.mica.server.AbstractDatabaseTest;
+import ca.ibodrov.mica.server.data.ViewRenderer.RenderOverrides;
 import ca.ibodrov.mica.server.data.js.NoopJsEvaluator;
 import ca.ibodrov.mica.server.data.viewRenderHistory.ViewRenderHistoryController;
 import ca.ibodrov.mica.server.exceptions.ApiException;
@@ -42,13 +44,20 @@ import org.intellij.lang.annotations.Language;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
 import static ca.ibodrov.mica.api.kinds.MicaViewV1.Data.jsonPath;
 import static ca.ibodrov.mica.api.kinds.MicaViewV1.Selector.byEntityKind;
 import static ca.ibodrov.mica.api.kinds.MicaViewV1.Validation.asEntityKind;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static javax.ws.rs.core.Response.Status.Family.CLIENT_ERROR;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -58,11 +67,13 @@ public class ViewControllerTest extends AbstractDatabaseTest {
 
     @BeforeAll
     public static void setUp() {
-        var entityKindStore = new EntityKindStore(entityStore);
+        var entityKindStore = new EntityKindStore(entityStore, objectMapper);
         var internalEntityFetcher = new InternalEntityFetcher(dsl(), objectMapper);
+        var entityFetchersRef = new AtomicReference<EntityFetchers>();
         var reportEntityFetcher = new ReportEntityFetcher(
-                new ValidateAllReport(entityKindStore, internalEntityFetcher, objectMapper));
+                new ValidateAllReport(entityKindStore, entityFetchersRef::get, objectMapper));
         var entityFetchers = new EntityFetchers(Set.of(internalEntityFetcher, reportEntityFetcher));
+        entityFetchersRef.set(entityFetchers);
         var jsonPathEvaluator = new JsonPathEvaluator(objectMapper);
         var renderHistoryController = new ViewRenderHistoryController(dsl());
         viewController = new ViewController(dsl(),
@@ -381,7 +392,224 @@ public class ViewControllerTest extends AbstractDatabaseTest {
         assertEquals(1, result.data().get("data").size());
     }
 
+    @Test
+    public void cachedViewsMustBeInvalidatedWhenEntitiesChange() {
+        var pathPrefix = randomPathPrefix();
+
+        var viewCache = ViewCache.inMemory();
+        var cachingEntityStore = new EntityStore(dsl(), objectMapper, uuidGenerator, Set.of(viewCache));
+        var entityKindStore = new EntityKindStore(cachingEntityStore, objectMapper);
+        var cachingViewController = new ViewController(dsl(),
+                cachingEntityStore,
+                entityKindStore,
+                new EntityFetchers(Set.of(new InternalEntityFetcher(dsl(), objectMapper))),
+                new JsonPathEvaluator(objectMapper),
+                new NoopJsEvaluator(),
+                viewCache,
+                new ViewRenderHistoryController(dsl()),
+                objectMapper);
+
+        // create test records and a cached view
+
+        upsert(cachingEntityStore, PartialEntity.create(pathPrefix + "/first", pathPrefix + "/record",
+                Map.of("value", IntNode.valueOf(1))));
+
+        upsert(cachingEntityStore, new MicaViewV1.Builder()
+                .name(pathPrefix + "/view")
+                .selector(byEntityKind(pathPrefix + "/record"))
+                .data(jsonPath("$.value"))
+                .caching(new MicaViewV1.Caching(Optional.of("true"), Optional.of("PT1H"), Optional.empty(),
+                        Optional.empty()))
+                .build()
+                .toPartialEntity(objectMapper));
+
+        var request = RenderViewRequest.of(pathPrefix + "/view");
+        var result = cachingViewController.getCachedOrRenderAsEntity(request);
+        assertEquals(1, result.data().get("data").size());
+
+        // a new matching entity must invalidate the cached result
+
+        upsert(cachingEntityStore, PartialEntity.create(pathPrefix + "/second", pathPrefix + "/record",
+                Map.of("value", IntNode.valueOf(2))));
+
+        result = cachingViewController.getCachedOrRenderAsEntity(request);
+        assertEquals(2, result.data().get("data").size());
+
+        // and so must a deleted one
+
+        var first = cachingEntityStore.getByName(pathPrefix + "/first").orElseThrow();
+        dsl().transaction(tx -> cachingEntityStore.deleteById(tx.dsl(), first.id()));
+
+        result = cachingViewController.getCachedOrRenderAsEntity(request);
+        assertEquals(1, result.data().get("data").size());
+        assertEquals(2, result.data().get("data").get(0).asInt());
+    }
+
+    @Test
+    public void viewsCanBeStreamed() throws Exception {
+        var pathPrefix = randomPathPrefix();
+
+        upsert(PartialEntity.create(pathPrefix + "/first", pathPrefix + "/record",
+                Map.of("value", IntNode.valueOf(1))));
+        upsert(PartialEntity.create(pathPrefix + "/second", pathPrefix + "/record",
+                Map.of("value", IntNode.valueOf(2))));
+
+        upsert(new MicaViewV1.Builder()
+                .name(pathPrefix + "/view")
+                .selector(byEntityKind(pathPrefix + "/record")
+                        .withNamePatterns(List.of(pathPrefix + "/second", pathPrefix + "/first")))
+                .data(jsonPath("$.value"))
+                .build()
+                .toPartialEntity(objectMapper));
+
+        var request = RenderViewRequest.of(pathPrefix + "/view");
+        var expected = viewController.getCachedOrRenderAsEntity(request);
+
+        var json = new ByteArrayOutputStream();
+        viewController.writeAsJson(viewController.renderAsStream(request, RenderOverrides.none()), json);
+        var result = objectMapper.readTree(json.toByteArray());
+        assertEquals(pathPrefix + "/view", result.get("name").asText());
+        assertEquals(expected.data().get("data"), result.get("data").get("data"));
+        assertEquals(2, result.get("data").get("length").asInt());
+
+        var ndjson = new ByteArrayOutputStream();
+        viewController.writeAsNdjson(viewController.renderAsStream(request, RenderOverrides.none()), ndjson);
+        assertEquals("2\n1\n", ndjson.toString(UTF_8));
+    }
+
+    @Test
+    public void incrementalMaterializeWritesOnlyChangedRows() {
+        var pathPrefix = randomPathPrefix();
+
+        upsert(PartialEntity.create(pathPrefix + "/first", pathPrefix + "/record",
+                Map.of("value", IntNode.valueOf(1))));
+        upsert(PartialEntity.create(pathPrefix + "/second", pathPrefix + "/record",
+                Map.of("value", IntNode.valueOf(2))));
+
+        // rows rendered as-is are identical to the stored entities
+
+        upsert(new MicaViewV1.Builder()
+                .name(pathPrefix + "/copy")
+                .selector(byEntityKind(pathPrefix + "/record"))
+                .data(jsonPath("$"))
+                .build()
+                .toPartialEntity(objectMapper));
+
+        var result = viewController.materializeIncremental(RenderViewRequest.of(pathPrefix + "/copy"));
+        assertEquals(0, result.inserted());
+        assertEquals(0, result.updated());
+        assertEquals(2, result.unchanged());
+
+        // only the second row is changed by the patch
+
+        upsert(new MicaViewV1.Builder()
+                .name(pathPrefix + "/patch")
+                .selector(byEntityKind(pathPrefix + "/record"))
+                .data(jsonPath("$").withJsonPatch(objectMapper.convertValue(
+                        List.of(Map.of("op", "replace", "path", "/value", "value", 1)), JsonNode.class)))
+                .build()
+                .toPartialEntity(objectMapper));
+
+        var second = entityStore.getByName(pathPrefix + "/second").orElseThrow();
+        result = viewController.materializeIncremental(RenderViewRequest.of(pathPrefix + "/patch"));
+        assertEquals(0, result.inserted());
+        assertEquals(1, result.updated());
+        assertEquals(1, result.unchanged());
+        assertEquals(List.of(second.id()), result.changedEntities().stream().map(EntityVersion::id).toList());
+        assertEquals(1, entityStore.getByName(pathPrefix + "/second").orElseThrow().data().get("value").asInt());
+
+        result = viewController.materializeIncremental(RenderViewRequest.of(pathPrefix + "/patch"));
+        assertEquals(0, result.updated());
+        assertEquals(2, result.unchanged());
+
+        // rows without IDs and with new names are inserted
+
+        upsert(new MicaViewV1.Builder()
+                .name(pathPrefix + "/copy-as-third")
+                .selector(byEntityKind(pathPrefix + "/record")
+                        .withNamePatterns(List.of(pathPrefix + "/first")))
+                .data(jsonPath("$").withJsonPatch(objectMapper.convertValue(
+                        List.of(Map.of("op", "remove", "path", "/id"),
+                                Map.of("op", "remove", "path", "/createdAt"),
+                                Map.of("op", "remove", "path", "/updatedAt"),
+                                Map.of("op", "replace", "path", "/name", "value", pathPrefix + "/third")),
+                        JsonNode.class)))
+                .build()
+                .toPartialEntity(objectMapper));
+
+        result = viewController.materializeIncremental(RenderViewRequest.of(pathPrefix + "/copy-as-third"));
+        assertEquals(1, result.inserted());
+        assertEquals(0, result.updated());
+        assertEquals(0, result.unchanged());
+        assertTrue(entityStore.getByName(pathPrefix + "/third").isPresent());
+        assertTrue(entityStore.getByName(pathPrefix + "/first").isPresent());
+    }
+
+    @Test
+    public void streamedRowsAreWrittenLazily() throws Exception {
+        var pathPrefix = randomPathPrefix();
+        var total = 10_000;
+        var fetched = new AtomicInteger();
+        var countingFetcher = new EntityFetcher() {
+
+            @Override
+            public boolean isSupported(FetchRequest request) {
+                return request.uri().map(uri -> "counting".equals(uri.getScheme())).orElse(false);
+            }
+
+            @Override
+            public Cursor fetch(FetchRequest request) {
+                return () -> IntStream.range(0, total)
+                        .peek(_i -> fetched.incrementAndGet())
+                        .mapToObj(i -> PartialEntity.create(pathPrefix + "/" + i, pathPrefix + "/record",
+                                Map.of("value", IntNode.valueOf(i))));
+            }
+        };
+        var streamingViewController = new ViewController(dsl(),
+                entityStore,
+                new EntityKindStore(entityStore, objectMapper),
+                new EntityFetchers(Set.of(countingFetcher)),
+                new JsonPathEvaluator(objectMapper),
+                new NoopJsEvaluator(),
+                ViewCache.noop(),
+                new ViewRenderHistoryController(dsl()),
+                objectMapper);
+
+        upsert(new MicaViewV1.Builder()
+                .name(pathPrefix + "/view")
+                .selector(byEntityKind(pathPrefix + "/record").withIncludes(List.of("counting://test")))
+                .data(jsonPath("$.value"))
+                .build()
+                .toPartialEntity(objectMapper));
+
+        var fetchedAtFirstWrite = new AtomicInteger(-1);
+        var out = new OutputStream() {
+
+            @Override
+            public void write(int b) {
+                fetchedAtFirstWrite.compareAndSet(-1, fetched.get());
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                fetchedAtFirstWrite.compareAndSet(-1, fetched.get());
+            }
+        };
+
+        var request = RenderViewRequest.of(pathPrefix + "/view");
+        streamingViewController.writeAsNdjson(streamingViewController.renderAsStream(request, RenderOverrides.none()),
+                out);
+        assertEquals(total, fetched.get());
+        // the output is written before all entities are fetched
+        assertTrue(fetchedAtFirstWrite.get() > 0 && fetchedAtFirstWrite.get() < total,
+                "fetched at first write: " + fetchedAtFirstWrite.get());
+    }
+
     private static void upsert(PartialEntity entity) {
+        upsert(entityStore, entity);
+    }
+
+    private static void upsert(EntityStore entityStore, PartialEntity entity) {
         dsl().transaction(tx -> entityStore.upsert(tx.dsl(), entity, null).orElseThrow());
     }
 
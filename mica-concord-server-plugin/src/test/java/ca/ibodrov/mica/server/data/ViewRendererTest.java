@@ -24,10 +24,17 @@ import ca.ibodrov.mica.api.model.PartialEntity;
 import ca.ibodrov.mica.api.model.ViewLike;
 import ca.ibodrov.mica.server.YamlMapper;
 import ca.ibodrov.mica.server.data.Validator.NoopSchemaFetcher;
+import ca.ibodrov.mica.server.data.ViewRenderer.RenderOverrides;
 import ca.ibodrov.mica.server.data.js.GraalJsEvaluator;
+import ca.ibodrov.mica.server.exceptions.ViewProcessorException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.collect.ImmutableList;
 import com.walmartlabs.concord.common.ObjectMapperProvider;
 import org.intellij.lang.annotations.Language;
 import org.junit.jupiter.api.Test;
@@ -517,6 +524,63 @@ public class ViewRendererTest {
         assertEquals("qux", result.data().get(1).get("data").get("foo").get("bar").get("baz").asText());
     }
 
+    @Test
+    public void jsonPatchCanReplaceWholeRows() {
+        var entityA = parseYaml("""
+                kind: /mica/record/v1
+                name: /entity-a
+                data:
+                  x: 1
+                """);
+
+        var entityB = parseYaml("""
+                kind: /mica/record/v1
+                name: /entity-b
+                data:
+                  x: 2
+                """);
+
+        var view = renderer.compile(parseView("""
+                kind: /mica/view/v1
+                name: test
+                selector:
+                  entityKind: /mica/record/v1
+                data:
+                  jsonPath: $.data
+                  jsonPatch:
+                    - op: replace
+                      path: ""
+                      value:
+                        replaced: true
+                      ifMatches:
+                        path: $.x
+                        value: 2
+                """));
+        assertFalse(view.jsonPatch().orElseThrow().inPlace());
+
+        var result = renderer.render(view, RenderOverrides.none(), Stream.of(entityA, entityB));
+        assertEquals(2, result.data().size());
+        assertEquals(1, result.data().get(0).get("x").asInt());
+        assertTrue(result.data().get(1).get("replaced").asBoolean());
+        assertNull(result.data().get(1).get("x"));
+
+        // invalid conditions are reported before any data is processed
+        var invalidView = parseView("""
+                kind: /mica/view/v1
+                name: test
+                selector:
+                  entityKind: /mica/record/v1
+                data:
+                  jsonPath: $.data
+                  jsonPatch:
+                    - op: remove
+                      path: /x
+                      ifMatches:
+                        path: $.x
+                """);
+        assertThrows(ViewProcessorException.class, () -> renderer.compile(invalidView));
+    }
+
     @Test
     public void viewsMustReturnAllEntityFields() {
         var foo = parseYaml("""
@@ -910,6 +974,228 @@ public class ViewRendererTest {
         assertEquals("bye!", result.data().get(0).get("data").get("foo").get("bar").asText());
     }
 
+    @Test
+    public void compiledViewsCanBeRenderedMultipleTimes() {
+        var entityA = parseYaml("""
+                kind: /test
+                name: /entityA
+                data:
+                  value: "a"
+                """);
+
+        var entityB = parseYaml("""
+                kind: /test
+                name: /entityB
+                data:
+                  value: "b"
+                """);
+
+        var view = renderer.compile(parseView("""
+                kind: /mica/view/v1
+                name: /test
+                selector:
+                  entityKind: /test
+                data:
+                  jsonPath: $
+                  template:
+                    - value: $.data.value
+                      const: "x"
+                """));
+
+        var first = renderer.render(view, RenderOverrides.none(), Stream.of(entityA, entityB));
+        var second = renderer.render(view, RenderOverrides.none(), Stream.of(entityB, entityA));
+
+        assertEquals("a", first.data().get(0).get(0).get("value").asText());
+        assertEquals("b", first.data().get(1).get(0).get("value").asText());
+        assertEquals("b", second.data().get(0).get(0).get("value").asText());
+        assertEquals("a", second.data().get(1).get(0).get("value").asText());
+        assertEquals("x", second.data().get(1).get(0).get("const").asText());
+    }
+
+    @Test
+    public void streamedViewsMatchRenderedViews() {
+        var entityA = parseYaml("""
+                kind: /test
+                name: /entityA
+                data:
+                  items:
+                    - name: a1
+                      secret: x
+                    - name: a2
+                      secret: y
+                """);
+
+        var entityB = parseYaml("""
+                kind: /test
+                name: /entityB
+                data:
+                  items:
+                    - name: b1
+                      secret: z
+                """);
+
+        var view = renderer.compile(parseView("""
+                kind: /mica/view/v1
+                name: /test
+                selector:
+                  entityKind: /test
+                data:
+                  jsonPath: $.data.items
+                  flatten: true
+                  dropProperties: ["secret"]
+                """));
+
+        assertTrue(view.isStreamable(RenderOverrides.none()));
+        assertFalse(view.isStreamable(RenderOverrides.merged()));
+
+        var rendered = renderer.render(view, RenderOverrides.none(), Stream.of(entityA, entityB));
+        var streamed = renderer.renderStream(view, RenderOverrides.none(), Stream.of(entityA, entityB)).toList();
+        assertEquals(rendered.data(), streamed);
+        assertEquals(3, streamed.size());
+        assertEquals("b1", streamed.get(2).get("name").asText());
+        assertNull(streamed.get(2).get("secret"));
+
+        var mergedView = renderer.compile(parseView("""
+                kind: /mica/view/v1
+                name: /test
+                selector:
+                  entityKind: /test
+                data:
+                  jsonPath: $.data
+                  merge: true
+                """));
+
+        assertFalse(mergedView.isStreamable(RenderOverrides.none()));
+        assertThrows(ViewProcessorException.class,
+                () -> renderer.renderStream(mergedView, RenderOverrides.none(), Stream.of(entityA, entityB)));
+    }
+
+    @Test
+    public void parallelRenderingKeepsTheOrder() {
+        var entities = IntStream.range(0, 5000)
+                .mapToObj(i -> parseYaml("""
+                        kind: /myRecord
+                        name: /record-%d
+                        data:
+                          id: %d
+                          secret: "xyz"
+                        """.formatted(i, i)))
+                .toList();
+
+        var view = """
+                kind: /mica/view/v1
+                name: test
+                selector:
+                  entityKind: /myRecord
+                data:
+                  jsonPath: $.data
+                  dropProperties: ["secret"]
+                  template:
+                    recordId: $.id
+                  parallel: %s
+                """;
+
+        var sequential = renderer.render(parseView(view.formatted(false)), entities.stream());
+        var parallel = renderer.render(parseView(view.formatted(true)), entities.stream());
+        assertEquals(5000, parallel.data().size());
+        assertEquals(sequential.data(), parallel.data());
+        assertEquals(sequential.entityNames(), parallel.entityNames());
+        assertEquals(4999, parallel.data().get(4999).get("recordId").asInt());
+    }
+
+    @Test
+    public void parallelMergeByMatchesSequentialMergeBy() {
+        // 3000 groups of 2 rows each
+        var entities = IntStream.range(0, 6000)
+                .mapToObj(i -> parseYaml("""
+                        kind: /myRecord
+                        name: /record-%d
+                        data:
+                          group: %d
+                          values:
+                            v%d: %d
+                        """.formatted(i, i % 3000, i / 3000, i)))
+                .toList();
+
+        var view = """
+                kind: /mica/view/v1
+                name: test
+                selector:
+                  entityKind: /myRecord
+                data:
+                  jsonPath: $.data
+                  mergeBy: $.group
+                  parallel: %s
+                """;
+
+        var sequential = renderer.render(parseView(view.formatted(false)), entities.stream());
+        var parallel = renderer.render(parseView(view.formatted(true)), entities.stream());
+        assertEquals(3000, parallel.data().size());
+        assertEquals(sequential.data(), parallel.data());
+        assertEquals(2, parallel.data().get(0).get("values").size());
+    }
+
+    @Test
+    public void mergeDoesNotModifyTheInputs() {
+        var a = (ObjectNode) parseJson("""
+                {"x": {"y": 1, "list": [1, 2]}, "z": "a"}
+                """);
+        var b = (ObjectNode) parseJson("""
+                {"x": {"w": 2, "list": [3]}, "z": null}
+                """);
+        var aCopy = a.deepCopy();
+        var bCopy = b.deepCopy();
+
+        var merged = ViewRenderer.mergeAll(List.of(a, b));
+        assertEquals(parseJson("""
+                {"x": {"y": 1, "list": [3], "w": 2}, "z": null}
+                """), merged);
+        assertEquals(aCopy, a);
+        assertEquals(bCopy, b);
+
+        // the result doesn't share containers with the inputs
+        ((ObjectNode) merged.get("x")).put("y", 100);
+        ((ArrayNode) merged.get("x").get("list")).add(4);
+        assertEquals(bCopy, b);
+        assertEquals(aCopy, a);
+    }
+
+    @Test
+    public void largeMergesMatchSequentialMerges() throws Exception {
+        // the old implementation, used as a reference
+        var reference = JsonMapper.builder()
+                .disable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+                .withConfigOverride(ArrayNode.class, cfg -> cfg.setMergeable(false))
+                .build();
+
+        var random = new Random(42);
+        var objects = new ArrayList<JsonNode>();
+        for (var i = 0; i < 5000; i++) {
+            var object = objectMapper.createObjectNode();
+            for (var j = 0; j < 5; j++) {
+                var key = "key" + random.nextInt(20);
+                switch (random.nextInt(4)) {
+                    case 0 -> object.put(key, i);
+                    case 1 -> object.putArray(key).add(i);
+                    case 2 -> object.putNull(key);
+                    default -> object.putObject(key)
+                            .put("n" + random.nextInt(5), i)
+                            .putObject("nested")
+                            .put("n" + random.nextInt(5), i);
+                }
+            }
+            objects.add(object);
+        }
+
+        var expected = objectMapper.createObjectNode();
+        for (var object : objects) {
+            reference.updateValue(expected, object.deepCopy());
+        }
+        var merged = ViewRenderer.mergeAll(objects);
+        assertEquals(expected, merged);
+        assertEquals(ImmutableList.copyOf(expected.fieldNames()), ImmutableList.copyOf(merged.fieldNames()));
+    }
+
     private static ViewLike parseView(@Language("yaml") String yaml) {
         return asViewLike(objectMapper, parseYaml(yaml));
     }
@@ -922,6 +1208,14 @@ public class ViewRendererTest {
         }
     }
 
+    private static JsonNode parseJson(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private static String toYaml(Object o) {
         try {
             return yamlMapper.prettyPrint(o);
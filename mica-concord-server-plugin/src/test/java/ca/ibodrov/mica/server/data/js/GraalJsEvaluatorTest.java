@@ -0,0 +1,234 @@
+package ca.ibodrov.mica.server.data.js;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.server.data.js.GraalJsEvaluator.Limits;
+import ca.ibodrov.mica.server.exceptions.ApiException;
+import ca.ibodrov.mica.server.exceptions.StoreException;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.walmartlabs.concord.common.ObjectMapperProvider;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GraalJsEvaluatorTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+    private static final GraalJsEvaluator evaluator = new GraalJsEvaluator(objectMapper);
+    private static final String SPIN = "while (true) {}";
+
+    @Test
+    public void scriptsCanBeEvaluatedRepeatedly() {
+        var js = "_input.map(x => x * 2)";
+        for (int i = 0; i < 10; i++) {
+            var result = evaluator.eval(js, List.of(IntNode.valueOf(i), IntNode.valueOf(1)));
+            assertEquals(List.<JsonNode>of(IntNode.valueOf(i * 2), IntNode.valueOf(2)), result);
+        }
+    }
+
+    @Test
+    public void resultsAreConvertedLikeJsonStringify() throws Exception {
+        var input = objectMapper.readTree("""
+                [{"name": "a", "nested": {"values": [1, 2, 3]}, "flag": true}]
+                """);
+        var js = """
+                _input.map(row => ({
+                    name: row.name.toUpperCase(),
+                    sum: row.nested.values.reduce((a, b) => a + b, 0),
+                    keys: Object.keys(row),
+                    copy: { ...row.nested },
+                    skipped: undefined,
+                    fn: () => 1,
+                    nan: NaN,
+                    date: new Date(0)
+                }))
+                """;
+        var result = evaluator.eval(js, List.of(input.get(0)));
+        var expected = objectMapper.readTree("""
+                {"name": "A", "sum": 6, "keys": ["name", "nested", "flag"], "copy": {"values": [1, 2, 3]},
+                 "nan": null, "date": "1970-01-01T00:00:00.000Z"}
+                """);
+        assertEquals(List.of(expected), result);
+    }
+
+    @Test
+    public void scriptsCanModifyTheData() throws Exception {
+        var input = objectMapper.readTree("""
+                [{"a": {"b": 1}, "c": 2}]
+                """);
+        var js = """
+                _input.forEach(row => { row.a.b = 'x'; delete row.c; row.d = [1]; row.d.push(2); });
+                _input.push({"e": null});
+                _input
+                """;
+        var result = evaluator.eval(js, List.of(input.get(0)));
+        var expected = objectMapper.readTree("""
+                [{"a": {"b": "x"}, "d": [1, 2]}, {"e": null}]
+                """);
+        assertEquals(expected.get(0), result.get(0));
+        assertEquals(expected.get(1), result.get(1));
+    }
+
+    @Test
+    public void storedNodesAreCopied() throws Exception {
+        var input = objectMapper.readTree("""
+                [{"a": 1}]
+                """);
+        var js = """
+                const row = _input[0];
+                row.self = row;
+                row.list = [row];
+                row.a = 2;
+                _input
+                """;
+        var result = evaluator.eval(js, List.of(input.get(0)));
+        var expected = objectMapper.readTree("""
+                [{"a": 2, "self": {"a": 1}, "list": [{"a": 1, "self": {"a": 1}}]}]
+                """);
+        assertEquals(List.of(expected.get(0)), result);
+    }
+
+    @Test
+    public void arraysCanOnlyBeAppendedTo() {
+        assertThrows(StoreException.class, () -> evaluator.eval("_input[2e9] = 1; _input", List.of()));
+        var result = evaluator.eval("_input[_input.length] = 2; _input", List.of(IntNode.valueOf(1)));
+        assertEquals(List.<JsonNode>of(IntNode.valueOf(1), IntNode.valueOf(2)), result);
+    }
+
+    @Test
+    public void globalsAreNotSharedBetweenScripts() {
+        evaluator.eval("globalThis.leaked = 42; _input", List.of());
+        var result = evaluator.eval("[typeof leaked]", List.of());
+        assertEquals("undefined", result.get(0).asText());
+    }
+
+    @Test
+    public void topLevelDeclarationsAreNotSharedBetweenRuns() {
+        var js = """
+                const factor = 2;
+                class Doubler { apply(x) { return x * factor; } }
+                var calls = (typeof calls === 'undefined' ? 0 : calls) + 1;
+                _input.map(x => new Doubler().apply(x) + calls)
+                """;
+        for (int i = 0; i < 2; i++) {
+            var result = evaluator.eval(js, List.of(IntNode.valueOf(1)));
+            assertEquals(List.<JsonNode>of(IntNode.valueOf(3)), result);
+        }
+    }
+
+    @Test
+    public void failedScriptsDoNotBreakTheEvaluator() {
+        var js = "if (_input.length > 0) { throw new Error('boom'); } _input";
+        assertThrows(StoreException.class, () -> evaluator.eval(js, List.of(IntNode.valueOf(1))));
+        assertEquals(List.of(), evaluator.eval(js, List.of()));
+    }
+
+    @Test
+    public void slowScriptsAreCancelled() throws Exception {
+        var metricRegistry = new MetricRegistry();
+        var evaluator = newEvaluator(metricRegistry, new Limits(2, 2, 4, Long.MAX_VALUE, Duration.ofSeconds(1)));
+
+        var e = assertThrows(StoreException.class, () -> evaluator.eval(SPIN, List.of()));
+        assertTrue(e.getMessage().startsWith("Timeout"), e.getMessage());
+
+        // the thread is freed
+        awaitGauge(metricRegistry, "mica-js.active", 0);
+        assertEquals(List.of(IntNode.valueOf(1)), evaluator.eval("[1]", List.of()));
+    }
+
+    @Test
+    public void concurrentEvaluationsOfTheSameScriptAreLimited() throws Exception {
+        var metricRegistry = new MetricRegistry();
+        var evaluator = newEvaluator(metricRegistry, new Limits(4, 4, 2, Long.MAX_VALUE, Duration.ofSeconds(2)));
+
+        var background = Executors.newFixedThreadPool(2);
+        try {
+            var first = background.submit(() -> evaluator.eval(SPIN, List.of()));
+            var second = background.submit(() -> evaluator.eval(SPIN, List.of()));
+            awaitGauge(metricRegistry, "mica-js.active", 2);
+
+            var e = assertThrows(ApiException.class, () -> evaluator.eval(SPIN, List.of()));
+            assertEquals(503, e.getStatus().getStatusCode());
+
+            // other scripts are not affected
+            assertEquals(List.of(IntNode.valueOf(1)), evaluator.eval("[1]", List.of()));
+
+            assertCause(StoreException.class, first);
+            assertCause(StoreException.class, second);
+        } finally {
+            background.shutdownNow();
+        }
+    }
+
+    @Test
+    public void evaluationsAreRejectedWhenTheQueueIsFull() throws Exception {
+        var metricRegistry = new MetricRegistry();
+        var evaluator = newEvaluator(metricRegistry, new Limits(1, 1, 4, Long.MAX_VALUE, Duration.ofSeconds(2)));
+
+        var background = Executors.newFixedThreadPool(2);
+        try {
+            var running = background.submit(() -> evaluator.eval(SPIN, List.of()));
+            awaitGauge(metricRegistry, "mica-js.active", 1);
+            var queued = background.submit(() -> evaluator.eval("while (true) { }", List.of()));
+            awaitGauge(metricRegistry, "mica-js.queue-size", 1);
+
+            var e = assertThrows(ApiException.class, () -> evaluator.eval("[1]", List.of()));
+            assertEquals(503, e.getStatus().getStatusCode());
+
+            assertCause(StoreException.class, running);
+            assertCause(StoreException.class, queued);
+        } finally {
+            background.shutdownNow();
+        }
+    }
+
+    private static GraalJsEvaluator newEvaluator(MetricRegistry metricRegistry, Limits limits) throws Exception {
+        var evaluator = new GraalJsEvaluator(objectMapper, metricRegistry, limits);
+        // wait for the warm-up to finish, it occupies one of the threads
+        evaluator.eval("[]", List.of());
+        awaitGauge(metricRegistry, "mica-js.active", 0);
+        return evaluator;
+    }
+
+    private static void awaitGauge(MetricRegistry metricRegistry, String name, int expected) throws Exception {
+        var gauge = metricRegistry.getGauges().get(name);
+        var deadline = System.currentTimeMillis() + 10_000;
+        while (!Integer.valueOf(expected).equals(gauge.getValue()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, gauge.getValue());
+    }
+
+    private static void assertCause(Class<? extends Throwable> expected, Future<?> future) {
+        var e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(expected, e.getCause());
+    }
+}
@@ -0,0 +1,73 @@
+package ca.ibodrov.mica.server.data.viewRenderHistory;
+
+/*-
+ * ~~~~~~
+ * Mica
+ * ------
+ * Copyright (C) 2023 - 2025 Mica Authors
+ * ------
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ======
+ */
+
+import ca.ibodrov.mica.api.model.EntityId;
+import ca.ibodrov.mica.server.AbstractDatabaseTest;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ViewRenderHistoryControllerTest extends AbstractDatabaseTest {
+
+    @Test
+    public void queuedEntriesAreUsedToFindHotViews() throws Exception {
+        var controller = new ViewRenderHistoryController(dsl());
+        var since = Instant.now();
+
+        var frequentView = new EntityId(UUID.randomUUID());
+        var slowView = new EntityId(UUID.randomUUID());
+        for (int i = 0; i < 3; i++) {
+            controller.addEntry(frequentView, Duration.ofMillis(1), Duration.ofMillis(1), 1);
+        }
+        controller.addEntry(slowView, Duration.ofSeconds(1), Duration.ofSeconds(10), 1);
+
+        // entries are written in background
+        var expected = List.of(frequentView, slowView);
+        var deadline = System.currentTimeMillis() + 10_000;
+        var hotViews = controller.findHotViews(since, 1);
+        while (!hotViews.equals(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            hotViews = controller.findHotViews(since, 1);
+        }
+        assertEquals(expected, hotViews);
+    }
+
+    @Test
+    public void queuedEntriesAreWrittenOnStop() {
+        var controller = new ViewRenderHistoryController(dsl());
+        var since = Instant.now();
+
+        var view = new EntityId(UUID.randomUUID());
+        for (int i = 0; i < 3; i++) {
+            controller.addEntry(view, Duration.ofMillis(1), Duration.ofMillis(1), 1);
+        }
+
+        // no waiting, stop() writes the remaining entries
+        controller.stop();
+        assertEquals(List.of(view), controller.findHotViews(since, 1));
+    }
+}
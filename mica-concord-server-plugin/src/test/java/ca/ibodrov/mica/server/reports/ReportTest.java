@@ -21,20 +21,24 @@ package ca.ibodrov.mica.server.reports;
  */
 
 import ca.ibodrov.mica.server.AbstractDatabaseTest;
+import ca.ibodrov.mica.server.data.EntityFetchers;
 import ca.ibodrov.mica.server.data.EntityKindStore;
 import ca.ibodrov.mica.server.data.InternalEntityFetcher;
 import org.junit.jupiter.api.Test;
 
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class ReportTest extends AbstractDatabaseTest {
 
-    private static final EntityKindStore entityKindStore = new EntityKindStore(entityStore);
-    private static final InternalEntityFetcher internalEntityFetcher = new InternalEntityFetcher(dsl(), objectMapper);
+    private static final EntityKindStore entityKindStore = new EntityKindStore(entityStore, objectMapper);
+    private static final EntityFetchers entityFetchers = new EntityFetchers(
+            Set.of(new InternalEntityFetcher(dsl(), objectMapper)));
 
     @Test
     public void runValidateAllReportOnInitialData() {
-        var report = new ValidateAllReport(entityKindStore, internalEntityFetcher, objectMapper);
+        var report = new ValidateAllReport(entityKindStore, () -> entityFetchers, objectMapper);
         var options = new ValidateAllReport.Options(true);
         var result = report.run(options).data().get("report");
         assertNotNull(result);
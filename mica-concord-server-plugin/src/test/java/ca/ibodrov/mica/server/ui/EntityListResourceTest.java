@@ -22,12 +22,17 @@ package ca.ibodrov.mica.server.ui;
 
 import ca.ibodrov.mica.api.model.PartialEntity;
 import ca.ibodrov.mica.server.AbstractDatabaseTest;
+import ca.ibodrov.mica.server.ui.EntityListResource.Entry;
 import ca.ibodrov.mica.server.ui.EntityListResource.ListResponse;
 import ca.ibodrov.mica.server.ui.EntityListResource.Type;
 import com.fasterxml.jackson.databind.node.TextNode;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -59,6 +64,50 @@ public class EntityListResourceTest extends AbstractDatabaseTest {
         assertEntry(result, "/examples/parametrized/example-view", Type.FILE);
     }
 
+    @Test
+    public void listReturnsDirectChildrenOnly() {
+        var suffix = System.currentTimeMillis();
+        var path = "/test_list_" + suffix;
+        // "_" must not be treated as a wildcard
+        var similarPath = "/testXlistX" + suffix;
+        for (var name : List.of(path + "/a", path + "/b/x", path + "/b/y", path + "/b/c/z", path + "/c.d/e",
+                path + "/c/f", similarPath + "/g")) {
+            dsl().transaction(tx -> entityStore.upsert(tx.dsl(),
+                    PartialEntity.create(name, "/mica/record/v1", Map.of("data", TextNode.valueOf("Hi!"))),
+                    null));
+        }
+
+        var result = resource.list(path, null, null, false);
+        var entries = result.data().stream().map(e -> e.type() + ":" + e.name()).toList();
+        assertEquals(4, entries.size());
+        assertEquals(Set.of("FOLDER:b", "FOLDER:c", "FOLDER:c.d", "FILE:a"), Set.copyOf(entries));
+
+        result = resource.list(path + "/b/", null, null, false);
+        entries = result.data().stream().map(e -> e.type() + ":" + e.name()).toList();
+        assertEquals(List.of("FOLDER:c", "FILE:x", "FILE:y"), entries);
+
+        result = resource.list(path, "/mica/view/v1", null, false);
+        assertTrue(result.data().isEmpty());
+    }
+
+    @Test
+    public void manyFilesDoNotHideFolders() {
+        var path = "/test_many_files_" + System.currentTimeMillis();
+        // more files than the list limit, all sorted before the folders
+        var entities = Stream.concat(
+                IntStream.range(0, 1200).mapToObj(i -> "%s/a%04d".formatted(path, i)),
+                Stream.of(path + "/b/x", path + "/c/y"))
+                .map(name -> PartialEntity.create(name, "/mica/record/v1", Map.of("data", TextNode.valueOf("Hi!"))))
+                .toList();
+        dsl().transaction(tx -> entityStore.upsertChanged(tx.dsl(), entities));
+
+        var result = resource.list(path, null, null, false);
+        var folders = result.data().stream().filter(e -> e.type() == Type.FOLDER).map(Entry::name).toList();
+        var files = result.data().stream().filter(e -> e.type() == Type.FILE).toList();
+        assertEquals(List.of("b", "c"), folders);
+        assertEquals(500, files.size());
+    }
+
     @Test
     public void canBeDeletedWorksAsIntended() {
         var entityName = "/test-canBeDeletedWorksAsIntended";
@@ -37,6 +37,8 @@ import java.net.http.HttpRequest.BodyPublisher;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import static java.net.http.HttpResponse.BodyHandlers.ofInputStream;
@@ -106,6 +108,24 @@ public class MicaClient {
         return parseResponseAsJson(response, EntityList.class);
     }
 
+    /**
+     * Fetches all pages of the list, {@code params.limit()} entities per request.
+     */
+    public List<EntityMetadata> listAllEntities(ListEntitiesParameters params) throws ApiException {
+        if (params.limit() <= 0) {
+            return listEntities(params).data();
+        }
+
+        var result = new ArrayList<EntityMetadata>();
+        var page = listEntities(params);
+        result.addAll(page.data());
+        while (page.next().isPresent()) {
+            page = listEntities(params.withNext(page.next().get()));
+            result.addAll(page.data());
+        }
+        return result;
+    }
+
     public PartialEntity renderView(RenderViewRequest body) throws ApiException {
         var request = newRequest("/api/mica/v1/view/render")
                 .header("Content-Type", "application/json")
@@ -149,6 +169,23 @@ public class MicaClient {
         return parseResponseAsJson(response, EntityVersion.class);
     }
 
+    public BulkUploadResult uploadBulk(String contentType,
+                                       boolean overwrite,
+                                       BodyPublisher bodyPublisher)
+            throws ApiException {
+
+        var qp = queryParameters("overwrite", overwrite);
+
+        var uri = "/api/mica/v1/upload/bulk?" + qp;
+        var request = newRequest(uri)
+                .header("Content-Type", contentType)
+                .POST(bodyPublisher)
+                .build();
+
+        var response = send(request, ofInputStream());
+        return parseResponseAsJson(response, BulkUploadResult.class);
+    }
+
     private HttpRequest.Builder newRequest(String path) {
         var builder = HttpRequest.newBuilder()
                 .header("User-Agent", userAgent)
@@ -294,10 +331,26 @@ public class MicaClient {
             @Nullable String entityName,
             @Nullable String entityKind,
             @Nullable OrderBy orderBy,
-            int limit) {
+            int limit,
+            @Nullable String next) {
+
+        public ListEntitiesParameters(@Nullable String search,
+                                      @Nullable String entityNameStartsWith,
+                                      @Nullable String entityName,
+                                      @Nullable String entityKind,
+                                      @Nullable OrderBy orderBy,
+                                      int limit) {
+
+            this(search, entityNameStartsWith, entityName, entityKind, orderBy, limit, null);
+        }
 
         public static ListEntitiesParameters byEntityName(String entityName, int limit) {
-            return new ListEntitiesParameters(null, null, entityName, null, null, limit);
+            return new ListEntitiesParameters(null, null, entityName, null, null, limit, null);
+        }
+
+        public ListEntitiesParameters withNext(@Nullable String next) {
+            return new ListEntitiesParameters(search, entityNameStartsWith, entityName, entityKind, orderBy, limit,
+                    next);
         }
 
         public String toQueryParameters() {
@@ -307,7 +360,8 @@ public class MicaClient {
                     "entityName", entityName,
                     "entityKind", entityKind,
                     "orderBy", orderBy,
-                    "limit", limit);
+                    "limit", limit,
+                    "next", next);
         }
     }
 }
@@ -38,6 +38,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
@@ -46,11 +47,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static ca.ibodrov.mica.concord.task.MicaClient.ListEntitiesParameters.byEntityName;
 import static ca.ibodrov.mica.concord.task.Retry.withRetry;
 import static java.net.http.HttpClient.Redirect.NEVER;
 import static java.net.http.HttpRequest.BodyPublishers.ofString;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.toSet;
 
@@ -115,6 +119,7 @@ public class MicaTask implements Task {
             case "renderView" -> renderView(input);
             case "renderProperties" -> renderProperties(input);
             case "upload" -> upload(input);
+            case "bulkUpload" -> bulkUpload(input);
             case "upsert" -> upsert(input);
             case "delete" -> delete(input);
             default -> throw new RuntimeException("Unknown 'action': " + action);
@@ -148,13 +153,23 @@ public class MicaTask implements Task {
                         .filter(s -> !s.isBlank())
                         .map(OrderBy::valueOf)
                         .orElse(null),
-                input.getInt("limit", -1));
+                input.getInt("limit", -1),
+                input.getString("next"));
 
         var client = createMicaClient(input);
+
+        if (input.getBoolean("fetchAll", false)) {
+            var data = withRetry(log, () -> client.listAllEntities(params));
+            return TaskResult.success()
+                    .value("data", objectMapper.convertValue(data, List.class));
+        }
+
         var entityList = withRetry(log, () -> client.listEntities(params));
 
-        return TaskResult.success()
+        var result = TaskResult.success()
                 .value("data", objectMapper.convertValue(entityList.data(), List.class));
+        entityList.next().ifPresent(next -> result.value("next", next));
+        return result;
     }
 
     private RenderViewRequest parseRenderRequest(Variables input) {
@@ -210,6 +225,71 @@ public class MicaTask implements Task {
                 .value("version", objectMapper.convertValue(response, Map.class));
     }
 
+    private TaskResult bulkUpload(Variables input) throws Exception {
+        var src = Path.of(input.assertString("src")).toAbsolutePath().normalize();
+        if (!src.startsWith(workDir)) {
+            throw new IllegalArgumentException("The 'src' path must be within ${workDir}");
+        }
+
+        var overwrite = input.getBoolean("overwrite", true);
+
+        if (isDryRun(input)) {
+            log.info("Dry-run mode enabled: Skipping bulk upload");
+            return TaskResult.success()
+                    .values(objectMapper.convertValue(new BulkUploadResult(0, 0, 0, List.of()), Map.class));
+        }
+
+        byte[] body;
+        if (src.getFileName().toString().endsWith(".zip")) {
+            body = Files.readAllBytes(src);
+        } else {
+            body = zipEntityFiles(input, src);
+        }
+
+        log.info("Uploading {} ({} bytes)", workDir.relativize(src), body.length);
+
+        var client = createMicaClient(input);
+        var response = withRetry(log,
+                () -> client.uploadBulk("application/zip", overwrite, BodyPublishers.ofByteArray(body)));
+
+        log.info("Inserted: {}, updated: {}, unchanged: {}", response.inserted(), response.updated(),
+                response.unchanged());
+
+        return TaskResult.success()
+                .values(objectMapper.convertValue(response, Map.class));
+    }
+
+    /**
+     * Packs the entity file or all entity files in the directory (recursively)
+     * into a ZIP archive.
+     */
+    private byte[] zipEntityFiles(Variables input, Path src) throws IOException {
+        Path root;
+        List<Path> files;
+        if (Files.isDirectory(src)) {
+            root = src;
+            try (var paths = Files.walk(src)) {
+                files = paths.filter(Files::isRegularFile)
+                        .filter(MicaTask::isEntityFile)
+                        .sorted()
+                        .toList();
+            }
+        } else {
+            root = src.getParent();
+            files = List.of(src);
+        }
+
+        var out = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(out, UTF_8)) {
+            for (var file : files) {
+                zip.putNextEntry(new ZipEntry(root.relativize(file).toString()));
+                zip.write(hideSensitiveData(input, Files.readString(file)).getBytes(UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
     private TaskResult upsert(Variables input) throws Exception {
         var client = createMicaClient(input);
 
@@ -343,6 +423,11 @@ public class MicaTask implements Task {
         return body;
     }
 
+    private static boolean isEntityFile(Path path) {
+        var name = path.getFileName().toString();
+        return name.endsWith(".yaml") || name.endsWith(".yml") || name.endsWith(".json") || name.endsWith(".ndjson");
+    }
+
     private static Map<String, Object> parseParameters(Variables input) {
         Map<String, Object> params = input.getMap("parameters", Map.of());
         // remove all "null" values
@@ -136,6 +136,26 @@ public class DryRunTest {
         assertEquals(0, listEntitiesCount.get());
     }
 
+    @Test
+    public void bulkUploadShouldBeSkipped(@TempDir Path workDir) throws Exception {
+        var src = workDir.resolve("entities");
+        Files.createDirectories(src);
+        Files.writeString(src.resolve("test.yaml"), "name: /test/bulkUploadShouldBeSkipped\nkind: /test/v1");
+
+        var ctx = new MockContext(baseUrl, workDir);
+        var task = new MicaTask(new ObjectMapper(), new SensitiveDataHolder(), ctx);
+        var input = new MapBackedVariables(Map.of(
+                "action", "bulkUpload",
+                "src", src.toAbsolutePath().toString(),
+                "dryRun", true));
+
+        var output = (TaskResult.SimpleResult) task.execute(input);
+        assertEquals(0, output.values().get("inserted"));
+
+        // here we don't expect any API calls in dry-run mode
+        assertEquals(0, listEntitiesCount.get());
+    }
+
     @Test
     public void upsertShouldBeSkipped(@TempDir Path workDir) throws Exception {
         var ctx = new MockContext(baseUrl, workDir);
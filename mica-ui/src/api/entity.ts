@@ -68,6 +68,7 @@ export interface EntityEntry {
 
 export interface EntityList {
     data: Array<EntityEntry>;
+    next?: string;
 }
 
 export interface EntityVersion {
@@ -132,6 +133,8 @@ export interface ListEntitiesRequest {
     entityName?: string;
     entityKind?: string;
     orderBy?: OrderBy;
+    limit?: number;
+    next?: string;
 }
 
 export const listEntities = (request: ListEntitiesRequest): Promise<EntityList> => {